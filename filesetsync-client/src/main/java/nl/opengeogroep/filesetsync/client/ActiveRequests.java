@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Requests being executed by worker threads, which are aborted when the
+ * workers are stopped. Shutting down an executor only interrupts its threads,
+ * which does not stop a thread blocked reading a response.
+ */
+public class ActiveRequests {
+    private static final Log log = LogFactory.getLog(ActiveRequests.class);
+
+    /**
+     * Maximum time in milliseconds to wait for worker threads to stop.
+     */
+    static final long TERMINATION_TIMEOUT = 30000;
+
+    private final Set<HttpRequestBase> requests = Collections.newSetFromMap(new ConcurrentHashMap<HttpRequestBase,Boolean>());
+
+    /**
+     * Add a request before executing it. Must be removed in a finally block
+     * after the response is consumed.
+     */
+    public void add(HttpRequestBase request) {
+        requests.add(request);
+    }
+
+    public void remove(HttpRequestBase request) {
+        requests.remove(request);
+    }
+
+    /**
+     * Stop worker threads, abort the requests they are executing and wait for
+     * them to stop, so they no longer write local files or update the state
+     * after returning.
+     *
+     * @return true if the worker threads stopped within the timeout
+     */
+    public boolean terminate(ExecutorService executor) {
+        return terminate(executor, TERMINATION_TIMEOUT);
+    }
+
+    boolean terminate(ExecutorService executor, long timeoutMillis) {
+        executor.shutdownNow();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            // Repeated for requests started by a worker after aborting
+            do {
+                for(HttpRequestBase request: requests) {
+                    request.abort();
+                }
+            } while(!executor.awaitTermination(100, TimeUnit.MILLISECONDS) && System.currentTimeMillis() < deadline);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(!executor.isTerminated()) {
+            log.warn("Worker threads not stopped after " + timeoutMillis / 1000 + " seconds");
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Adjusts the size in bytes and number of files of chunks to transfer based
+ * on how long previous chunks took, so each chunk takes about the configured
+ * target time. On a fast link this avoids losing time on the round-trips of
+ * many small chunks; on a slow link less work is lost when a chunk fails.
+ * <p>
+ * The size is at most doubled or halved after each chunk and always kept
+ * within the configured bounds. A chunk which took longer than the target
+ * mostly because the server was slow to respond does not shrink the size, as
+ * smaller chunks would only add more of that latency. The last chunk, which
+ * is cut short by the end of the file list, does not change the size.
+ */
+public class AdaptiveChunkSize {
+    private static final Log log = LogFactory.getLog(AdaptiveChunkSize.class);
+
+    private final long minBytes;
+    private final long maxBytes;
+    private final int minFiles;
+    private final int maxFiles;
+    private final long targetMillis;
+
+    private long chunkBytes;
+    private int chunkFiles;
+
+    private long smallestBytes;
+    private long largestBytes;
+
+    /**
+     * Read the bounds from the global properties.
+     *
+     * @param initialBytes the initial chunk size in bytes
+     */
+    public AdaptiveChunkSize(long initialBytes) {
+        SyncConfig config = SyncConfig.getInstance();
+        minBytes = config.getByteSizeProperty("chunkSizeMin", "512K");
+        maxBytes = Math.max(minBytes, config.getByteSizeProperty("chunkSizeMax", "100M"));
+        minFiles = config.getIntProperty("chunkMinFiles", 10, 1);
+        maxFiles = Math.max(minFiles, config.getIntProperty("chunkMaxFiles", 10000, 1));
+        // A target of zero would halve the size after every chunk
+        targetMillis = config.getIntProperty("chunkTargetSeconds", 15, 1) * 1000L;
+
+        chunkBytes = clamp(initialBytes, minBytes, maxBytes);
+        chunkFiles = (int)clamp(1000, minFiles, maxFiles);
+        smallestBytes = largestBytes = chunkBytes;
+        log.info(String.format("Adaptive chunk size: starting with %d KB and max %d files per chunk, bounds %d KB to %d KB and %d to %d files, target %d seconds per chunk",
+                chunkBytes / 1024, chunkFiles, minBytes / 1024, maxBytes / 1024, minFiles, maxFiles, targetMillis / 1000));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public synchronized long getChunkBytes() {
+        return chunkBytes;
+    }
+
+    public synchronized int getChunkFiles() {
+        return chunkFiles;
+    }
+
+    /**
+     * Update the chunk size after a chunk was transferred.
+     *
+     * @param bytes the number of bytes received
+     * @param files the number of files requested
+     * @param durationMillis the time from sending the request until the last
+     * byte was received
+     * @param firstByteMillis the time from sending the request until the
+     * response headers were received
+     * @param full false if the chunk was cut short by the end of the file
+     * list, as it took less time than a full chunk would have
+     */
+    public synchronized void update(long bytes, int files, long durationMillis, long firstByteMillis, boolean full) {
+        if(!full) {
+            return;
+        }
+        durationMillis = Math.max(1, durationMillis);
+        double factor = targetMillis / (double)durationMillis;
+        if(factor < 1 && firstByteMillis * 2 > durationMillis) {
+            // Latency bound, smaller chunks won't help
+            factor = 1;
+        }
+        factor = Math.max(0.5, Math.min(2, factor));
+
+        long newBytes = clamp(Math.round(chunkBytes * factor), minBytes, maxBytes);
+        int newFiles = (int)clamp(Math.round(chunkFiles * factor), minFiles, maxFiles);
+
+        if(newBytes != chunkBytes || newFiles != chunkFiles) {
+            long transferMillis = Math.max(1, durationMillis - firstByteMillis);
+            log.info(String.format("Adaptive chunk size: %d KB and max %d files per chunk (last chunk %d KB and %d files in %.1f s, first byte after %.1f s, %.0f KB/s)",
+                    newBytes / 1024, newFiles,
+                    bytes / 1024, files,
+                    durationMillis / 1000.0, firstByteMillis / 1000.0,
+                    bytes / 1024.0 / (transferMillis / 1000.0)));
+        }
+        chunkBytes = newBytes;
+        chunkFiles = newFiles;
+        smallestBytes = Math.min(smallestBytes, chunkBytes);
+        largestBytes = Math.max(largestBytes, chunkBytes);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d KB and max %d files per chunk, ranged from %d KB to %d KB",
+                chunkBytes / 1024, chunkFiles, smallestBytes / 1024, largestBytes / 1024);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import nl.opengeogroep.filesetsync.util.FormatUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Token bucket limiting the rate at which bytes are received. The limit can
+ * depend on the time of day using a specification with comma separated rates
+ * optionally prefixed by a time range, for example
+ * "08:00-18:00=2Mbit,unlimited". The first matching time range applies; a
+ * rate without a time range applies at all other times. Time ranges may cross
+ * midnight. Rates are in bytes per second with an optional K, M or G suffix,
+ * in bits per second with a "bit" suffix (such as "512kbit"), or "unlimited"
+ * or 0.
+ * <p>
+ * One limiter can be shared by multiple threads, the total rate of all
+ * threads is limited.
+ */
+public class BandwidthLimiter {
+    private static final Log log = LogFactory.getLog(BandwidthLimiter.class);
+
+    private static BandwidthLimiter global;
+
+    private static class Profile {
+        final int startMinute;
+        final int endMinute;
+        final long rate;
+
+        Profile(int startMinute, int endMinute, long rate) {
+            this.startMinute = startMinute;
+            this.endMinute = endMinute;
+            this.rate = rate;
+        }
+
+        boolean matches(int minute) {
+            if(startMinute <= endMinute) {
+                return minute >= startMinute && minute < endMinute;
+            } else {
+                return minute >= startMinute || minute < endMinute;
+            }
+        }
+    }
+
+    private final String spec;
+
+    private final List<Profile> profiles = new ArrayList();
+
+    private long defaultRate = 0;
+
+    private long rate;
+
+    private long rateValidUntil = 0;
+
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    /**
+     * @throws IllegalArgumentException if the specification is invalid
+     */
+    public BandwidthLimiter(String spec) {
+        this.spec = spec;
+        for(String entry: spec.split(",")) {
+            entry = entry.trim();
+            int i = entry.indexOf('=');
+            if(i == -1) {
+                defaultRate = parseRate(entry);
+                continue;
+            }
+            String[] range = entry.substring(0, i).trim().split("-");
+            if(range.length != 2) {
+                throw new IllegalArgumentException("Invalid time range: " + entry);
+            }
+            profiles.add(new Profile(parseMinute(range[0]), parseMinute(range[1]), parseRate(entry.substring(i+1))));
+        }
+        lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @return a limiter for the specification, or null if it is invalid
+     */
+    public static BandwidthLimiter create(String spec, String name) {
+        try {
+            return new BandwidthLimiter(spec);
+        } catch(IllegalArgumentException e) {
+            log.warn(String.format("Invalid %s bandwidth limit \"%s\", not limiting bandwidth: %s", name, spec, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * @return the limiter for the bandwidthLimit global property shared by
+     * all filesets, or null if not configured
+     */
+    public static synchronized BandwidthLimiter getGlobal() {
+        String spec = SyncConfig.getInstance().getProperty("bandwidthLimit", null);
+        if(spec == null) {
+            global = null;
+        } else if(global == null || !global.spec.equals(spec)) {
+            global = create(spec, "global");
+        }
+        return global;
+    }
+
+    private static int parseMinute(String time) {
+        String[] s = time.trim().split(":");
+        try {
+            int hours = Integer.parseInt(s[0]);
+            int minutes = s.length > 1 ? Integer.parseInt(s[1]) : 0;
+            if(s.length > 2 || hours < 0 || hours > 24 || minutes < 0 || minutes > 59) {
+                throw new IllegalArgumentException("Invalid time: " + time);
+            }
+            return hours * 60 + minutes;
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time: " + time);
+        }
+    }
+
+    /**
+     * @return the rate in bytes per second, 0 for unlimited
+     */
+    static long parseRate(String rate) {
+        String r = rate.trim().toLowerCase();
+        if("unlimited".equals(r)) {
+            return 0;
+        }
+        try {
+            if(r.endsWith("bit")) {
+                return FormatUtil.parseByteSize(r.substring(0, r.length() - 3)) / 8;
+            }
+            return FormatUtil.parseByteSize(r);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+        }
+    }
+
+    /**
+     * @return the rate limit in bytes per second at a minute of the day, 0 if
+     * unlimited
+     */
+    long getRate(int minute) {
+        for(Profile p: profiles) {
+            if(p.matches(minute)) {
+                return p.rate;
+            }
+        }
+        return defaultRate;
+    }
+
+    /**
+     * @return the current rate limit in bytes per second, 0 if unlimited
+     */
+    public synchronized long getRate() {
+        long now = System.currentTimeMillis();
+        if(now >= rateValidUntil) {
+            Calendar c = Calendar.getInstance();
+            c.setTimeInMillis(now);
+            rate = getRate(c.get(Calendar.HOUR_OF_DAY) * 60 + c.get(Calendar.MINUTE));
+            // Evaluate again at the start of the next minute
+            rateValidUntil = now - now % 60000 + 60000;
+        }
+        return rate;
+    }
+
+    /**
+     * Wait until the bytes can be received within the current rate limit.
+     * Returns early when the system is shutting down.
+     */
+    public synchronized void acquire(long bytes) throws IOException {
+        long currentRate = getRate();
+        if(currentRate <= 0) {
+            tokens = 0;
+            lastRefillNanos = System.nanoTime();
+            return;
+        }
+        // Allow a burst of at most one second
+        long now = System.nanoTime();
+        tokens = Math.min(currentRate, tokens + (now - lastRefillNanos) / 1e9 * currentRate);
+        lastRefillNanos = now;
+        tokens -= bytes;
+
+        while(tokens < 0 && !Shutdown.isHappening()) {
+            long waitMillis = Math.max(1, (long)Math.ceil(-tokens / currentRate * 1000));
+            try {
+                // Wait in small steps to notice a shutdown
+                Thread.sleep(Math.min(waitMillis, 250));
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for bandwidth limit");
+            }
+            now = System.nanoTime();
+            tokens += (now - lastRefillNanos) / 1e9 * currentRate;
+            lastRefillNanos = now;
+        }
+    }
+
+    /**
+     * Wrap an input stream so the bytes read are limited by the limiters which
+     * are not null, and counted in an optional counter.
+     */
+    public static InputStream limit(InputStream in, final AtomicLong counter, final BandwidthLimiter... limiters) {
+        return new FilterInputStream(in) {
+            private void acquire(long bytes) throws IOException {
+                if(counter != null) {
+                    counter.addAndGet(bytes);
+                }
+                for(BandwidthLimiter limiter: limiters) {
+                    if(limiter != null) {
+                        limiter.acquire(bytes);
+                    }
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if(b != -1) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if(read > 0) {
+                    acquire(read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                if(skipped > 0) {
+                    acquire(skipped);
+                }
+                return skipped;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        long currentRate = getRate();
+        return String.format("%s (currently %s)", spec, currentRate == 0 ? "unlimited" : (currentRate / 1024) + " KB/s");
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import nl.opengeogroep.filesetsync.FileRecord;
+import static nl.opengeogroep.filesetsync.client.SyncJobState.*;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Transfers chunks using multiple concurrent requests. Chunks are built and
+ * submitted in file list order, and the resume index is only advanced past a
+ * chunk when it and all chunks before it are complete, so resuming never skips
+ * files of a chunk which was still being transferred.
+ * <p>
+ * When the job is suspended no new chunks are submitted and the chunks being
+ * transferred are completed. When the job is aborted or a chunk fails the
+ * worker threads are stopped and their requests aborted before returning.
+ */
+public abstract class ConcurrentChunkTransfer {
+    private static final Log log = LogFactory.getLog(ConcurrentChunkTransfer.class);
+
+    private final SyncJobState state;
+
+    private final ActiveRequests activeRequests;
+
+    private final int threads;
+
+    private final int fileListSize;
+
+    private long chunks;
+
+    private long files;
+
+    private int completedIndex;
+
+    private boolean suspended;
+
+    /**
+     * @param state the state to update the resume index of
+     * @param activeRequests requests executed by transferChunk(), aborted when
+     * the worker threads are stopped
+     * @param threads the number of concurrent requests
+     * @param fileListSize the size of the file list
+     */
+    public ConcurrentChunkTransfer(SyncJobState state, ActiveRequests activeRequests, int threads, int fileListSize) {
+        this.state = state;
+        this.activeRequests = activeRequests;
+        this.threads = threads;
+        this.fileListSize = fileListSize;
+    }
+
+    /**
+     * Add the file list records for the next chunk starting at index to
+     * chunkList.
+     *
+     * @return the file list index of the last record in the chunk, the last
+     * index of the file list if the chunk was cut short by its end
+     */
+    protected abstract int buildChunk(int index, List<FileRecord> chunkList);
+
+    /**
+     * Transfer the files in a chunk. Called by a worker thread.
+     *
+     * @param full false if the chunk was cut short by the end of the file list
+     */
+    protected abstract void transferChunk(List<FileRecord> chunkList, boolean full) throws IOException;
+
+    /**
+     * Update the progress, called at least every second.
+     *
+     * @param files the number of files in completed chunks
+     */
+    protected abstract void progress(long files);
+
+    /**
+     * @return true if the job is suspended or aborted, after ending the run
+     * with that state
+     */
+    protected abstract boolean suspendOrAbort();
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the file list index after the last completed chunk
+     */
+    public int getCompletedIndex() {
+        return completedIndex;
+    }
+
+    /**
+     * @return whether the transfer returned because the job was suspended
+     */
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Transfer the chunks starting at the file list index.
+     *
+     * @return true if finished, false if unfinished (state status updated)
+     */
+    public boolean transfer(int index) throws IOException {
+        log.info(String.format("Transferring chunks using %d concurrent requests", threads));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        // Submitted chunks in file list order with the file list index of the
+        // last record in the chunk
+        LinkedList<Pair<Future<Integer>,Integer>> inFlight = new LinkedList();
+        int nextIndex = index;
+        completedIndex = index;
+        boolean suspending = false;
+        try {
+            while(true) {
+                while(!suspending && inFlight.size() < threads && nextIndex < fileListSize) {
+                    final List<FileRecord> chunkList = new ArrayList();
+                    int endIndex = buildChunk(nextIndex, chunkList);
+                    final boolean full = endIndex < fileListSize-1;
+                    Future<Integer> chunk = executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            transferChunk(chunkList, full);
+                            return chunkList.size();
+                        }
+                    });
+                    inFlight.add(Pair.of(chunk, endIndex));
+                    nextIndex = endIndex+1;
+                }
+                if(inFlight.isEmpty()) {
+                    break;
+                }
+
+                int chunkFiles;
+                try {
+                    chunkFiles = inFlight.getFirst().getLeft().get(1, TimeUnit.SECONDS);
+                } catch(TimeoutException e) {
+                    progress(files);
+                    if(!suspending && suspendOrAbort()) {
+                        if(!STATE_SUSPENDED.equals(state.getCurrentState())) {
+                            return false;
+                        }
+                        suspending = true;
+                        log.info(String.format("Waiting for %d chunks being transferred before suspending", inFlight.size()));
+                    }
+                    continue;
+                } catch(InterruptedException e) {
+                    if(!suspendOrAbort()) {
+                        state.endRun(STATE_ABORTED);
+                    }
+                    return false;
+                } catch(ExecutionException e) {
+                    if(e.getCause() instanceof IOException) {
+                        throw (IOException)e.getCause();
+                    }
+                    throw new IOException("Exception transferring chunk", e.getCause());
+                }
+                int endIndex = inFlight.removeFirst().getRight();
+
+                if(Shutdown.isHappening()) {
+                    // Chunk may be incomplete, do not advance the resume index
+                    if(!suspending) {
+                        suspendOrAbort();
+                    }
+                    return false;
+                }
+
+                chunks++;
+                files += chunkFiles;
+                progress(files);
+
+                completedIndex = endIndex+1;
+                state.setResumeFileListIndex(completedIndex);
+                SyncJobStatePersistence.persist();
+
+                if(!suspending && suspendOrAbort()) {
+                    if(!STATE_SUSPENDED.equals(state.getCurrentState())) {
+                        return false;
+                    }
+                    suspending = true;
+                    log.info(String.format("Waiting for %d chunks being transferred before suspending", inFlight.size()));
+                }
+            }
+        } finally {
+            activeRequests.terminate(executor);
+        }
+
+        if(suspending) {
+            suspended = true;
+            state.setResumeFileListIndex(completedIndex);
+            SyncJobStatePersistence.persist();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.client.util.HttpClientUtil;
+import nl.opengeogroep.filesetsync.delta.DeltaDecoder;
+import nl.opengeogroep.filesetsync.delta.DeltaEncoder;
+import nl.opengeogroep.filesetsync.delta.Signature;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import static org.apache.http.HttpStatus.*;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Transfers modified files as a delta against the existing local file: the
+ * server only sends the data which is not in the local file. The file is
+ * rebuilt in a temporary file next to the local file.
+ * <p>
+ * When the server does not support delta transfer, delta transfer is disabled
+ * for the rest of the run.
+ */
+public class DeltaTransfer {
+    private static final Log log = LogFactory.getLog(DeltaTransfer.class);
+
+    /**
+     * Suffix of the temporary file a file transferred as a delta is rebuilt in.
+     */
+    static final String DELTA_SUFFIX = ".filesetsync-delta";
+
+    private final FileTransferContext context;
+
+    private volatile long minSize;
+
+    private final AtomicInteger files = new AtomicInteger();
+
+    private final AtomicLong copiedBytes = new AtomicLong();
+
+    /**
+     * @param minSize minimum size of the local and remote file to transfer
+     * a file as a delta
+     */
+    public DeltaTransfer(FileTransferContext context, long minSize) {
+        this.context = context;
+        this.minSize = Math.max(1, minSize);
+    }
+
+    /**
+     * @return the minimum size of files to transfer as a delta, 0 if the
+     * server does not support delta transfer
+     */
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @return the number of files transferred as a delta
+     */
+    public int getFiles() {
+        return files.get();
+    }
+
+    /**
+     * @return the number of bytes copied from local files instead of
+     * transferred
+     */
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    /**
+     * Transfer a modified file as a delta against the local file.
+     *
+     * @return false if the file should be transferred normally because the
+     * local file is too small or the delta transfer failed
+     */
+    public boolean transfer(FileRecord fr, boolean verbose) throws IOException {
+        File local = context.getLocalFile(fr);
+        String url = context.getUrl("delta", fr);
+        // The server rejects a signature with more blocks than the remote
+        // file, blocks past its size can not be copied anyway
+        long signatureSize = Math.min(local.isFile() ? local.length() : 0, fr.getSize());
+        if(minSize == 0 || signatureSize < minSize) {
+            return false;
+        }
+
+        long startTime = System.currentTimeMillis();
+        Signature signature;
+        try(InputStream in = new FileInputStream(local)) {
+            signature = Signature.calculate(in, signatureSize, Signature.chooseBlockSize(signatureSize));
+        } catch(IOException e) {
+            log.warn(String.format("Error calculating signature of local file %s, transferring whole file: %s", fr.getName(), ExceptionUtils.getMessage(e)));
+            return false;
+        }
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        signature.write(b);
+
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new ByteArrayEntity(b.toByteArray(), ContentType.create(Signature.MIME_TYPE)));
+        context.addExtraHeaders(post);
+
+        log.info("> " + post.getRequestLine() + String.format(" (signature of %d blocks of %d bytes calculated in %s)",
+                signature.getBlockCount(),
+                signature.getBlockSize(),
+                DurationFormatUtils.formatDurationWords(System.currentTimeMillis() - startTime, true, false)));
+        File temp = new File(local.getPath() + DELTA_SUFFIX);
+        DeltaDecoder decoder = new DeltaDecoder();
+        context.getActiveRequests().add(post);
+        try(CloseableHttpResponse response = HttpClientUtil.get().execute(post)) {
+            log.info("< " + response.getStatusLine());
+
+            if(Shutdown.isHappening()) {
+                return true;
+            }
+
+            int status = response.getStatusLine().getStatusCode();
+
+            context.checkServerTooBusy(response);
+
+            if(status == SC_NOT_FOUND && !response.containsHeader(DeltaEncoder.HTTP_HEADER)) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                log.warn("Server does not support delta transfer, transferring whole files for the rest of this run");
+                minSize = 0;
+                return false;
+            }
+            if(status < 200 || status >= 300) {
+                log.warn(String.format("Server returned \"%s\" for delta request of %s, transferring whole file: %s",
+                        response.getStatusLine(),
+                        fr.getName(),
+                        EntityUtils.toString(response.getEntity())));
+                return false;
+            }
+
+            try(FileChannel basis = FileChannel.open(local.toPath(), StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                decoder.decode(context.limitBandwidth(response.getEntity().getContent()), basis, signature.getLength(), out);
+            } catch(IOException e) {
+                temp.delete();
+                if(Shutdown.isHappening()) {
+                    return true;
+                }
+                log.warn(String.format("Error in delta transfer of %s, transferring whole file: %s", fr.getName(), ExceptionUtils.getMessage(e)));
+                return false;
+            }
+        } finally {
+            context.getActiveRequests().remove(post);
+        }
+
+        if(verbose) {
+            log.info("delta     " + fr.getName());
+        }
+        log.info(String.format("Rebuilt %s (%d KB) from delta, %d KB copied from local file and %d KB received",
+                fr.getName(),
+                temp.length() / 1024,
+                decoder.getCopiedBytes() / 1024,
+                decoder.getLiteralBytes() / 1024));
+        context.addTransferredBytes(temp.length());
+        files.incrementAndGet();
+        copiedBytes.addAndGet(decoder.getCopiedBytes());
+
+        context.replaceLocalFile(fr, temp, local, fr.getLastModified());
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * The fileset being synced as used by classes which transfer a single file
+ * with a separate request, such as DeltaTransfer and LargeFileTransfer.
+ */
+public interface FileTransferContext {
+
+    /**
+     * @return the local file for a file list record
+     * @throws IOException if the file is not in the local fileset path
+     */
+    File getLocalFile(FileRecord fr) throws IOException;
+
+    /**
+     * @param action the server action, such as "get" or "delta"
+     * @return the URL to request a file list record from the server
+     */
+    String getUrl(String action, FileRecord fr) throws IOException;
+
+    /**
+     * @return requests being executed, requests must be added to abort them
+     * when worker threads are stopped
+     */
+    ActiveRequests getActiveRequests();
+
+    /**
+     * @return the algorithm of the hashes in the file list
+     */
+    HashAlgorithm getHashAlgorithm();
+
+    /**
+     * Add the extra headers for the fileset to a request.
+     */
+    void addExtraHeaders(HttpUriRequest r);
+
+    /**
+     * @throws ServerTooBusyException if the server responded with 429 Too Many
+     * Requests
+     */
+    void checkServerTooBusy(HttpResponse response) throws IOException;
+
+    /**
+     * Limit the rate at which bytes are read from a response according to the
+     * bandwidth limits and count the bytes received.
+     */
+    InputStream limitBandwidth(InputStream in);
+
+    /**
+     * Add to the number of bytes transferred shown in the progress.
+     */
+    void addTransferredBytes(long bytes);
+
+    /**
+     * Replace the local file with a file transferred to a temporary file next
+     * to it.
+     */
+    void replaceLocalFile(FileRecord fr, File temp, File local, long lastModified) throws IOException;
+}
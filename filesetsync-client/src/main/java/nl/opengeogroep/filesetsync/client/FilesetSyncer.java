@@ -17,36 +17,67 @@
 
 package nl.opengeogroep.filesetsync.client;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.PatternSyntaxException;
 import nl.opengeogroep.filesetsync.FileRecord;
 import static nl.opengeogroep.filesetsync.FileRecord.TYPE_DIRECTORY;
 import static nl.opengeogroep.filesetsync.FileRecord.TYPE_FILE;
 import nl.opengeogroep.filesetsync.FileRecordListDirectoryIterator;
+import nl.opengeogroep.filesetsync.LocalDirectoryEntries;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import nl.opengeogroep.filesetsync.hash.HashStatistics;
 import static nl.opengeogroep.filesetsync.client.ServerTooBusyException.SC_TOO_MANY_REQUESTS;
 import static nl.opengeogroep.filesetsync.client.SyncJobState.*;
 import nl.opengeogroep.filesetsync.client.config.Fileset;
 import nl.opengeogroep.filesetsync.client.config.SyncConfig;
 import nl.opengeogroep.filesetsync.client.plugin.api.PluginContext;
+import nl.opengeogroep.filesetsync.client.util.FileListEntity;
 import nl.opengeogroep.filesetsync.client.util.HttpClientUtil;
-import nl.opengeogroep.filesetsync.protocol.BufferedFileListEncoder;
 import nl.opengeogroep.filesetsync.protocol.MultiFileDecoder;
 import nl.opengeogroep.filesetsync.protocol.MultiFileHeader;
 import nl.opengeogroep.filesetsync.protocol.Protocol;
 import nl.opengeogroep.filesetsync.util.FormatUtil;
 import static nl.opengeogroep.filesetsync.util.FormatUtil.*;
 import nl.opengeogroep.filesetsync.util.HttpUtil;
+import nl.opengeogroep.filesetsync.util.PathPattern;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.lang3.mutable.Mutable;
 import org.apache.commons.lang3.mutable.MutableLong;
@@ -67,7 +98,6 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 
@@ -78,6 +108,12 @@ import org.apache.http.util.EntityUtils;
 public class FilesetSyncer {
     private static final Log log = LogFactory.getLog(FilesetSyncer.class);
 
+    /**
+     * Number of file records compared by a single task when comparing using
+     * multiple threads.
+     */
+    private static final int COMPARE_BATCH_SIZE = 500;
+
     private final SyncJobState state;
 
     private Date endTime;
@@ -88,18 +124,104 @@ public class FilesetSyncer {
 
     private List<FileRecord> fileList;
 
-    private long totalBytes;
+    private final AtomicLong totalBytes = new AtomicLong();
 
     private String localCanonicalPath;
 
-    private final List<Pair<File,Long>> directoriesLastModifiedTimes = new ArrayList();
+    private final List<Pair<File,Long>> directoriesLastModifiedTimes = Collections.synchronizedList(new ArrayList<Pair<File,Long>>());
+
+    /**
+     * Relative names of local files by hash, to produce files to transfer with
+     * the same hash from a local file instead. Null if localDedup is not
+     * enabled.
+     */
+    private ConcurrentMap<String,String> localFilesByHash;
+
+    /**
+     * Value of the localDedup fileset property: "copy" or "hardlink".
+     */
+    private String localDedup;
+
+    private final AtomicInteger localDedupFiles = new AtomicInteger();
 
-    //final private Map<String,String> localFilesByHash = new HashMap();
+    private final AtomicLong localDedupBytes = new AtomicLong();
 
-    private boolean filesUpdated;
+    private volatile boolean filesUpdated;
 
     private int alreadyLocal;
 
+    /**
+     * Null if chunkSizeAdaptive is not enabled.
+     */
+    private AdaptiveChunkSize adaptiveChunkSize;
+
+    /**
+     * Transfers large files separately and resumable, null if disabled.
+     */
+    private LargeFileTransfer largeFileTransfer;
+
+    /**
+     * Transfers modified files as a delta against the local file, null if
+     * disabled.
+     */
+    private DeltaTransfer deltaTransfer;
+
+    private final FileTransferContext transferContext = new TransferContext();
+
+    /**
+     * Limiters for the bandwidthLimit fileset and global properties, null if
+     * not configured.
+     */
+    private BandwidthLimiter bandwidthLimiter;
+
+    private BandwidthLimiter globalBandwidthLimiter;
+
+    /**
+     * Bytes received from the server since transferStartTime, to report the
+     * effective transfer rate.
+     */
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    private long transferStartTime;
+
+    /**
+     * Requests for transferring files being executed, to abort them when
+     * worker threads are stopped.
+     */
+    private final ActiveRequests activeRequests = new ActiveRequests();
+
+    private LocalHashCache hashCache;
+
+    /**
+     * Algorithm of the hashes in the file list.
+     */
+    private HashAlgorithm hashAlgorithm = HashAlgorithm.getDefault();
+
+    private boolean compareCompleted;
+
+    /**
+     * Whether the file list is cached and the delete and compare phases can be
+     * resumed from a checkpoint.
+     */
+    private boolean fileListCached;
+
+    /**
+     * Whether outdated files were already transferred while comparing.
+     */
+    private boolean filesTransferred;
+
+    /**
+     * Indexes of file list records found up-to-date, to checkpoint the compare
+     * results.
+     */
+    private final BitSet upToDateIndexes = new BitSet();
+
+    /**
+     * Names of directories to save in the local snapshot when the run is
+     * completed, null if no snapshot should be saved.
+     */
+    private List<String> snapshotDirectories;
+
     public FilesetSyncer(Fileset fs, Date endTime) {
         SyncJobStatePersistence.setCurrentFileset(fs);
         this.fs = fs;
@@ -139,7 +261,7 @@ public class FilesetSyncer {
                 || STATE_RETRY.equals(state.getCurrentState())
                 || STATE_ABORTED.equals(state.getCurrentState())
                 || STATE_ERROR.equals(state.getCurrentState());
-        resume = resume && state.getResumeFileListIndex() != null;
+        resume = resume && state.canResume();
 
         log.info(String.format("%s sync for job \"%s\", last started %s and %s %s",
                 resume ? "Resuming" : "Starting",
@@ -156,6 +278,42 @@ public class FilesetSyncer {
         PluginContext.getInstance().beforeStart(fs, state);
         state.startNewRun();
 
+        long httpRequestsAtStart = HttpClientUtil.getRequestCount();
+        long httpConnectionsAtStart = HttpClientUtil.getConnectionCount();
+
+        if(fs.isHash()) {
+            hashCache = LocalHashCache.load(fs.getName());
+
+            localDedup = fs.getProperty("localDedup");
+            if(localDedup != null && !"copy".equals(localDedup) && !"hardlink".equals(localDedup)) {
+                log.warn("Invalid value for property localDedup: \"" + localDedup + "\", not using local files to deduplicate");
+                localDedup = null;
+            }
+            if(localDedup != null) {
+                localFilesByHash = new ConcurrentHashMap();
+            }
+        }
+
+        long largeFileSize = FormatUtil.parseByteSize(SyncConfig.getInstance().getProperty("largeFileSize", "0"));
+        if(largeFileSize > 0) {
+            largeFileTransfer = new LargeFileTransfer(transferContext, largeFileSize);
+        }
+        if("true".equals(fs.getProperty("delta"))) {
+            String minSize = fs.getProperty("deltaMinSize");
+            deltaTransfer = new DeltaTransfer(transferContext, FormatUtil.parseByteSize(minSize == null ? "16M" : minSize));
+        }
+
+        if(fs.getProperty("bandwidthLimit") != null) {
+            bandwidthLimiter = BandwidthLimiter.create(fs.getProperty("bandwidthLimit"), "fileset");
+        }
+        globalBandwidthLimiter = BandwidthLimiter.getGlobal();
+        if(bandwidthLimiter != null) {
+            log.info("Fileset bandwidth limit: " + bandwidthLimiter);
+        }
+        if(globalBandwidthLimiter != null) {
+            log.info("Global bandwidth limit: " + globalBandwidthLimiter);
+        }
+
         serverUrl = fs.getServer();
         if(!serverUrl.endsWith("/")) {
             serverUrl += "/";
@@ -164,49 +322,90 @@ public class FilesetSyncer {
 
         try {
             if(resume) {
-                if(state.getResumeFileListIndex() == null) {
+                try {
+                    fileList = SyncJobState.readCachedFileList(fs.getName());
+                    hashAlgorithm = getCachedFileListHashAlgorithm();
+                    fileListCached = true;
+                    restoreResumeState();
+                } catch(IOException e) {
+                    log.warn(String.format("Exception reading cached file list, cannot resume suspended job - starting from scratch: %s: %s",
+                            e.getClass(), e.getMessage()));
+                    log.debug("IOException reading cached file list", e);
                     resume = false;
-                } else {
-                    try {
-                        fileList = SyncJobState.readCachedFileList(fs.getName());
-                    } catch(IOException e) {
-                        log.warn(String.format("Exception reading cached file list, cannot resume suspended job - starting from scratch: %s: %s",
-                                e.getClass(), e.getMessage()));
-                        log.debug("IOException reading cached file list", e);
-                        resume = false;
-                    }
-                    log.info(String.format("Resuming from cached file list at file %d (%d%%)",
-                            state.getResumeFileListIndex() + 1,
-                            Math.round(state.getResumeFileListIndex() / (double)fileList.size() * 100.0)));
                 }
             }
 
-            if(!resume) {
-                state.setResumeFileListIndex(null);
+            if(resume) {
+                if(state.getResumeFileListIndex() != null) {
+                    log.info(String.format("Resuming transfer from cached file list at file %d (%d%%)",
+                            state.getResumeFileListIndex() + 1,
+                            Math.round(state.getResumeFileListIndex() / (double)fileList.size() * 100.0)));
+                } else {
+                    if(state.getResumeDeleteDirectoryIndex() != null) {
+                        log.info(String.format("Resuming deleting local files from cached file list at directory %d",
+                                state.getResumeDeleteDirectoryIndex() + 1));
+                        if(!deleteLocalFiles()) {
+                            return;
+                        }
+                    } else {
+                        log.info(String.format("Resuming compare from cached file list at file %d (%d%%)",
+                                state.getResumeCompareIndex() + 1,
+                                Math.round(state.getResumeCompareIndex() / (double)fileList.size() * 100.0)));
+                    }
+                    if(!compare()) {
+                        return;
+                    }
+                }
+            } else {
+                state.clearResumeState();
+
+                // Retrieving the file list can not be suspended. Deleting and
+                // comparing can be suspended and resumed if the file list is
+                // cached
+                boolean fileListNotModified = retrieveFilesetList();
+                if(fileListNotModified && isLocalSnapshotValid()) {
+                    log.info("Sync job complete, file list not modified and no local directory changed since last completed run");
+                    state.endRun(STATE_COMPLETED);
+                    AppState.updateCurrentFileset(null);
+                    return;
+                }
+                state.setLocalSnapshotFileListDate(null);
+                if(fileList == null) {
+                    fileList = SyncJobState.readCachedFileList(fs.getName());
+                }
 
-                // These actions can not be suspended. Take only a few minutes
-                // on reasonably fast system even for 900k files. May be slow on
-                // embedded systems
-                retrieveFilesetList();
                 if(fs.isDelete()) {
                     if(!deleteLocalFiles()) {
                         return;
                     }
                 }
-                if(!compareFilesetList()) {
+                if(!compare()) {
                     return;
                 }
             }
 
             // Can return with suspended state
-            if(!transferFiles()) {
+            if(!filesTransferred && !transferFiles()) {
                 return;
             }
+            if(localDedupFiles.get() > 0) {
+                log.info(String.format("Not transferred %d files (%d KB) with the same hash as a local file, used local %s instead",
+                        localDedupFiles.get(),
+                        localDedupBytes.get() / 1024,
+                        "copy".equals(localDedup) ? "copies" : "hardlinks"));
+            }
+
+            if(deltaTransfer != null && deltaTransfer.getFiles() > 0) {
+                log.info(String.format("Transferred %d files as delta, %d KB copied from local files instead of transferred",
+                        deltaTransfer.getFiles(),
+                        deltaTransfer.getCopiedBytes() / 1024));
+            }
 
             setDirectoriesLastModified();
+            saveLocalSnapshot();
 
             log.info("Sync job complete");
-            state.setResumeFileListIndex(null);
+            state.clearResumeState();
             state.endRun(STATE_COMPLETED);
             AppState.updateCurrentFileset(null);
 
@@ -246,11 +445,53 @@ public class FilesetSyncer {
                 state.endRun(STATE_RETRY, exception + ", " + msg);
             }
         } finally {
+            if(hashCache != null) {
+                // Only remove entries for files no longer in the file list
+                // when all files were compared
+                hashCache.save(compareCompleted);
+            }
+            long httpRequests = HttpClientUtil.getRequestCount() - httpRequestsAtStart;
+            if(httpRequests > 0) {
+                long httpConnections = HttpClientUtil.getConnectionCount() - httpConnectionsAtStart;
+                log.info(String.format("HTTP requests: %d, new connections: %d, reused connections: %d (pool: %s)",
+                        httpRequests,
+                        httpConnections,
+                        Math.max(0, httpRequests - httpConnections),
+                        HttpClientUtil.getPoolStats()));
+            }
             SyncJobStatePersistence.setCurrentFileset(null);
             Reporting.reportState(true);
         }
     }
 
+    private int getIntProperty(String name, int defaultValue) {
+        String value = fs.getProperty(name);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch(NumberFormatException e) {
+            log.warn(String.format("Invalid value for property %s: \"%s\", using default %d", name, value, defaultValue));
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Compare the file list to local files, in pipeline mode also transfer
+     * outdated files.
+     *
+     * @return true if finished, false if unfinished (state status updated)
+     */
+    private boolean compare() throws IOException {
+        if("true".equals(fs.getProperty("pipeline"))) {
+            filesTransferred = compareAndTransferFiles();
+            return filesTransferred;
+        } else {
+            return compareFilesetList();
+        }
+    }
+
     private void action(String s) {
         state.setCurrentAction(s);
         log.info(s);
@@ -262,6 +503,12 @@ public class FilesetSyncer {
         state.setProgressCount(count);
         state.setProgressSizeTotal(sizeTotal);
         state.setProgressSize(size);
+        if(transferStartTime != 0) {
+            long elapsed = System.currentTimeMillis() - transferStartTime;
+            if(elapsed > 0) {
+                state.setTransferRate(receivedBytes.get() * 1000 / elapsed);
+            }
+        }
         Reporting.reportState();
     }
 
@@ -271,11 +518,34 @@ public class FilesetSyncer {
         }
     }
 
-    private void retrieveFilesetList() throws IOException {
+    /**
+     * @throws ServerTooBusyException if the server responded with 429 Too Many
+     * Requests
+     */
+    private void checkServerTooBusy(HttpResponse response) throws IOException {
+        if(response.getStatusLine().getStatusCode() == SC_TOO_MANY_REQUESTS) {
+            String message = EntityUtils.toString(response.getEntity());
+            EntityUtils.consumeQuietly(response.getEntity());
+            Integer retry = null;
+            try {
+                retry = Integer.parseInt(response.getFirstHeader("Retry-After").getValue());
+            } catch(Exception e) {
+            }
+            throw new ServerTooBusyException(response.getStatusLine().toString(), message, retry);
+        } else {
+            state.setBusyFailedTries(0);
+        }
+    }
+
+    /**
+     * @return true if the server returned not modified for the cached file
+     * list, in which case the cached file list is not read yet
+     */
+    private boolean retrieveFilesetList() throws IOException {
 
         final boolean cachedFileList = state.getFileListDate() != null
                 && state.getFileListRemotePath().equals(fs.getRemote())
-                && (!fs.isHash() || state.isFileListHashed())
+                && (!fs.isHash() || (state.isFileListHashed() && isAcceptedHashAlgorithm(state.getFileListHashAlgorithm())))
                 && SyncJobState.haveCachedFileList(fs.getName());
 
         String s = "Retrieving file list";
@@ -285,163 +555,337 @@ public class FilesetSyncer {
         action(s);
 
         final Mutable<Date> serverLastModified = new MutableObject<>();
+        final Mutable<HashAlgorithm> serverHashAlgorithm = new MutableObject<>(HashAlgorithm.getDefault());
+
+        CloseableHttpClient httpClient = HttpClientUtil.get();
+        HttpUriRequest get = RequestBuilder.get()
+                .setUri(serverUrl + "list/" + fs.getRemote())
+                .addParameter("hash", fs.isHash() + "")
+                .addParameter("regexp", fs.getRegexp())
+                .addParameter("hashAlgorithms", fs.isHash() ? getHashAlgorithmPreference() : null)
+                .build();
+        if(cachedFileList) {
+            get.addHeader(HttpHeaders.IF_MODIFIED_SINCE, new HttpUtil().formatDate(state.getFileListDate()));
+        }
+        addExtraHeaders(get);
+        // Request poorly encoded text format
+        get.addHeader(HttpHeaders.ACCEPT, "text/plain");
 
-        try(CloseableHttpClient httpClient = HttpClientUtil.get()) {
-            HttpUriRequest get = RequestBuilder.get()
-                    .setUri(serverUrl + "list/" + fs.getRemote())
-                    .addParameter("hash", fs.isHash() + "")
-                    .addParameter("regexp", fs.getRegexp())
-                    .build();
-            if(cachedFileList) {
-                get.addHeader(HttpHeaders.IF_MODIFIED_SINCE, new HttpUtil().formatDate(state.getFileListDate()));
-            }
-            addExtraHeaders(get);
-            // Request poorly encoded text format
-            get.addHeader(HttpHeaders.ACCEPT, "text/plain");
+        ResponseHandler<List<FileRecord>> rh = new ResponseHandler<List<FileRecord>>() {
+            @Override
+            public List handleResponse(HttpResponse hr) throws ClientProtocolException, IOException {
+                log.debug("< " + hr.getStatusLine());
 
-            ResponseHandler<List<FileRecord>> rh = new ResponseHandler<List<FileRecord>>() {
-                @Override
-                public List handleResponse(HttpResponse hr) throws ClientProtocolException, IOException {
-                    log.debug("< " + hr.getStatusLine());
+                int status = hr.getStatusLine().getStatusCode();
 
-                    int status = hr.getStatusLine().getStatusCode();
+                checkServerTooBusy(hr);
 
-                    if(status == SC_TOO_MANY_REQUESTS) {
-                        String message = EntityUtils.toString(hr.getEntity());
-                        EntityUtils.consumeQuietly(hr.getEntity());
-                        Integer retry = null;
-                        try {
-                            retry = Integer.parseInt(hr.getFirstHeader("Retry-After").getValue());
-                        } catch(Exception e) {
-                        }
-                        throw new ServerTooBusyException(hr.getStatusLine().toString(), message, retry);
-                    } else {
-                        state.setBusyFailedTries(0);
+                if(status == SC_NOT_MODIFIED) {
+                    return null;
+                } else if(status >= SC_OK && status < 300) {
+                    HttpEntity entity = hr.getEntity();
+                    if(entity == null) {
+                        throw new ClientProtocolException("No response entity, invalid server URL?");
                     }
-
-                    if(status == SC_NOT_MODIFIED) {
-                        return null;
-                    } else if(status >= SC_OK && status < 300) {
-                        HttpEntity entity = hr.getEntity();
-                        if(entity == null) {
-                            throw new ClientProtocolException("No response entity, invalid server URL?");
-                        }
-                        try {
-                            serverLastModified.setValue(new HttpUtil().parseDate(hr.getFirstHeader("Last-Modified").getValue()));
-                        } catch(Exception e) {
-                        }
-                        try(InputStream in = entity.getContent()) {
-                            return Protocol.decodeFilelist(in);
+                    try {
+                        serverLastModified.setValue(new HttpUtil().parseDate(hr.getFirstHeader("Last-Modified").getValue()));
+                    } catch(Exception e) {
+                    }
+                    // Servers without hash negotiation do not send this
+                    // header and always use the default algorithm
+                    Header algorithmHeader = hr.getFirstHeader(HashAlgorithm.HEADER);
+                    if(algorithmHeader != null) {
+                        HashAlgorithm algorithm = HashAlgorithm.get(algorithmHeader.getValue());
+                        if(algorithm == null) {
+                            EntityUtils.consumeQuietly(entity);
+                            throw new ClientProtocolException("Server returned unsupported hash algorithm: " + algorithmHeader.getValue());
                         }
+                        serverHashAlgorithm.setValue(algorithm);
+                    }
+                    try(InputStream in = entity.getContent()) {
+                        return Protocol.decodeFilelist(in);
+                    }
+                } else {
+                    if(log.isTraceEnabled()) {
+                        String entity = hr.getEntity() == null ? null : EntityUtils.toString(hr.getEntity());
+                        log.trace("Response body: " + entity);
                     } else {
-                        if(log.isTraceEnabled()) {
-                            String entity = hr.getEntity() == null ? null : EntityUtils.toString(hr.getEntity());
-                            log.trace("Response body: " + entity);
-                        } else {
-                            EntityUtils.consumeQuietly(hr.getEntity());
-                        }
-                        throw new ClientProtocolException("Server error: " + hr.getStatusLine());
+                        EntityUtils.consumeQuietly(hr.getEntity());
                     }
+                    throw new ClientProtocolException("Server error: " + hr.getStatusLine());
                 }
-            };
+            }
+        };
 
-            log.debug("> " + get.getRequestLine());
-            fileList = httpClient.execute(get, rh);
+        log.debug("> " + get.getRequestLine());
+        fileList = httpClient.execute(get, rh);
 
-            if(fileList == null) {
-                log.info("Cached file list is up-to-date");
+        if(fileList == null) {
+            log.info("Cached file list is up-to-date");
+            hashAlgorithm = getCachedFileListHashAlgorithm();
+            fileListCached = true;
+            return true;
+        } else {
+            log.info("Filelist returned " + fileList.size() + " files, last modified: " + serverLastModified.getValue()
+                    + (fs.isHash() ? ", hash algorithm: " + serverHashAlgorithm.getValue() : ""));
+            hashAlgorithm = serverHashAlgorithm.getValue();
+
+            if(serverLastModified.getValue() != null) {
+                /* Use server provided last modified date, can be different
+                 * from latest modified file in the list when a listing cache
+                 * file is used
+                 */
+                state.setFileListRemotePath(fs.getRemote());
+                state.setFileListDate(new Date(serverLastModified.getValue().getTime()));
+                state.setFileListHashed(fs.isHash());
+                state.setFileListHashAlgorithm(fs.isHash() ? hashAlgorithm.getName() : null);
+                SyncJobState.writeCachedFileList(fs.getName(), fileList);
+                fileListCached = true;
+                SyncJobStatePersistence.persist();
+            }
+            return false;
+        }
+    }
 
-                fileList = SyncJobState.readCachedFileList(fs.getName());
-            } else {
-                log.info("Filelist returned " + fileList.size() + " files, last modified: " + serverLastModified.getValue());
-
-                if(serverLastModified.getValue() != null) {
-                    /* Use server provided last modified date, can be different
-                     * from latest modified file in the list when a listing cache
-                     * file is used
-                     */
-                    state.setFileListRemotePath(fs.getRemote());
-                    state.setFileListDate(new Date(serverLastModified.getValue().getTime()));
-                    state.setFileListHashed(fs.isHash());
-                    SyncJobState.writeCachedFileList(fs.getName(), fileList);
-                    SyncJobStatePersistence.persist();
-                }
+    /**
+     * @return comma separated hash algorithms to request from the server in
+     * order of preference, from the hashAlgorithm fileset property
+     */
+    private String getHashAlgorithmPreference() {
+        String preference = fs.getProperty("hashAlgorithm");
+        return preference == null ? HashAlgorithm.DEFAULT : preference;
+    }
+
+    private boolean isAcceptedHashAlgorithm(String name) {
+        if(name == null) {
+            // Cached by a version without hash negotiation
+            name = HashAlgorithm.DEFAULT;
+        }
+        for(String s: getHashAlgorithmPreference().split(",")) {
+            if(name.equalsIgnoreCase(s.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private HashAlgorithm getCachedFileListHashAlgorithm() throws IOException {
+        if(state.getFileListHashAlgorithm() == null) {
+            return HashAlgorithm.getDefault();
+        }
+        HashAlgorithm algorithm = HashAlgorithm.get(state.getFileListHashAlgorithm());
+        if(algorithm == null) {
+            throw new IOException("Unsupported hash algorithm for cached file list: " + state.getFileListHashAlgorithm());
+        }
+        return algorithm;
+    }
+
+    private File getLocalSnapshotPath(String name) {
+        return ".".equals(name) ? new File(fs.getLocal()) : new File(fs.getLocal() + File.separator + name);
+    }
+
+    /**
+     * Check whether the local directories are unchanged since the last
+     * completed run for the current file list, so comparing all local files
+     * can be skipped. Only checks the last modified times of directories, so a
+     * full compare is done at least every fullCompareInterval hours.
+     */
+    private boolean isLocalSnapshotValid() {
+        int interval = getIntProperty("fullCompareInterval", 0);
+        if(interval <= 0) {
+            return false;
+        }
+        Date snapshotFileListDate = state.getLocalSnapshotFileListDate();
+        if(snapshotFileListDate == null || !snapshotFileListDate.equals(state.getFileListDate())) {
+            return false;
+        }
+        if(state.getLastFullCompare() == null || System.currentTimeMillis() - state.getLastFullCompare().getTime() > interval * 3600000L) {
+            log.info(String.format("Last full compare longer than %d hours ago, doing full compare", interval));
+            return false;
+        }
+
+        Map<String,Long> snapshot;
+        try {
+            snapshot = SyncJobState.readLocalSnapshot(fs.getName(), localCanonicalPath);
+        } catch(Exception e) {
+            log.warn("Error reading local snapshot, doing full compare: " + ExceptionUtils.getMessage(e));
+            return false;
+        }
+        if(snapshot == null) {
+            return false;
+        }
+
+        long startTime = System.currentTimeMillis();
+        action(String.format("Checking %d local directories for changes since last completed run", snapshot.size()));
+        for(Map.Entry<String,Long> entry: snapshot.entrySet()) {
+            if(Shutdown.isHappening()) {
+                return false;
+            }
+            BasicFileAttributes attrs = LocalFileComparator.readAttributes(getLocalSnapshotPath(entry.getKey()).toPath());
+            if(attrs == null || attrs.lastModifiedTime().toMillis() != entry.getValue()) {
+                log.info("Local directory changed since last completed run, doing full compare: " + entry.getKey());
+                return false;
+            }
+        }
+        log.info(String.format("Checked local directories in %s",
+                DurationFormatUtils.formatDurationWords(System.currentTimeMillis() - startTime, true, false)));
+        return true;
+    }
 
+    /**
+     * Save the last modified times of the local directories after a completed
+     * run with a full compare, to check with isLocalSnapshotValid() when the
+     * file list is not modified at the next run.
+     */
+    private void saveLocalSnapshot() {
+        if(snapshotDirectories == null || state.getFileListDate() == null) {
+            return;
+        }
+        Map<String,Long> lastModifiedTimes = new LinkedHashMap();
+        for(String name: snapshotDirectories) {
+            BasicFileAttributes attrs = LocalFileComparator.readAttributes(getLocalSnapshotPath(name).toPath());
+            if(attrs == null) {
+                log.warn("Local directory does not exist after completed run, not saving local snapshot: " + name);
+                return;
             }
+            lastModifiedTimes.put(name, attrs.lastModifiedTime().toMillis());
+        }
+        try {
+            SyncJobState.writeLocalSnapshot(fs.getName(), localCanonicalPath, lastModifiedTimes);
+            state.setLocalSnapshotFileListDate(state.getFileListDate());
+            state.setLastFullCompare(new Date());
+        } catch(IOException e) {
+            log.warn("Error saving local snapshot: " + ExceptionUtils.getMessage(e));
         }
     }
 
     private boolean deleteLocalFiles() {
+        int threads = getIntProperty("deleteThreads", 1);
+        if(threads <= 1) {
+            return deleteLocalFiles(null);
+        }
+        long startTime = System.currentTimeMillis();
+        try(LocalTreeDeleter deleter = new LocalTreeDeleter(threads)) {
+            boolean completed = deleteLocalFiles(deleter);
+            if(deleter.getDeletedFiles() + deleter.getDeletedDirectories() + deleter.getErrors() > 0) {
+                log.info(String.format("Deleted %d local files and %d directories%s using %d threads in %s",
+                        deleter.getDeletedFiles(),
+                        deleter.getDeletedDirectories(),
+                        deleter.getErrors() > 0 ? " (" + deleter.getErrors() + " errors)" : "",
+                        threads,
+                        DurationFormatUtils.formatDurationWords(System.currentTimeMillis() - startTime, true, false)));
+            }
+            return completed;
+        }
+    }
+
+    /**
+     * @param deleter if not null, delete the files and directory trees not in
+     * the file list of each directory in parallel
+     */
+    private boolean deleteLocalFiles(LocalTreeDeleter deleter) {
         if(Shutdown.isHappening()) {
             state.endRun(STATE_ABORTED);
             return false;
         }
 
-        if(fs.getRegexp() != null) {
-            // XXX only delete local files matching regexp, for now don't delete
-            // anything
+        if(fileList.size() == 1 && fileList.get(0).getType() == TYPE_FILE) {
             return true;
         }
 
-        if(fileList.size() == 1 && fileList.get(0).getType() == TYPE_FILE) {
-            return true;
+        if(fs.getRegexp() != null) {
+            return deleteLocalFilesMatchingRegexp(deleter);
         }
 
+        int resumeDirectoryIndex = state.getResumeDeleteDirectoryIndex() == null ? 0 : state.getResumeDeleteDirectoryIndex();
+        state.setResumeDeleteDirectoryIndex(null);
+
         long total = fileList.size();
         long count = 0;
         progress(total, count, null, null);
         action("Checking for and deleting local files not in filelist");
+        int dirIndex = -1;
         for(List<FileRecord> dirList: new FileRecordListDirectoryIterator(fileList)) {
+            dirIndex++;
+            if(dirIndex < resumeDirectoryIndex) {
+                // Already checked before the job was suspended
+                count += dirList.size() - 1;
+                continue;
+            }
+            if(suspendOrAbort()) {
+                checkpointDelete(dirIndex);
+                return false;
+            }
+
             Iterator<FileRecord> it = dirList.iterator();
             FileRecord dir = it.next();
             File localDir = new File(fs.getLocal() + File.separator + dir.getName());
 
-            if(!localDir.exists()) {
+            // List the directory once with the attributes of each entry, the
+            // entries in the file list are removed from it in constant time
+            LocalDirectoryEntries localEntries;
+            try {
+                localEntries = LocalDirectoryEntries.list(localDir.toPath());
+            } catch(NoSuchFileException | NotDirectoryException e) {
+                continue;
+            } catch(IOException e) {
+                log.error("Error listing local directory " + localDir + ": " + ExceptionUtils.getMessage(e));
                 continue;
             }
 
-            List<String> toDelete = new ArrayList(Arrays.asList(localDir.list()));
-
             long dirCount = 0;
             while(it.hasNext()) {
                 FileRecord fr = it.next();
                 dirCount++;
                 String name = dir.getName().equals(".") ? fr.getName() : fr.getName().substring(dir.getName().length()+1);
-                if(toDelete.indexOf(name) != -1) {
-                    // Don't delete this file -- may need to be overwritten though
-
-                    try {
-                        // But if is not the same type, do delete it
-                        char localType = new File(localDir.getCanonicalPath() + File.separator + name).isDirectory()
-                                    ? 'd'
-                                    : 'f';
-                        if(localType == fr.getType()) {
-                            toDelete.remove(name);
-                        }
-                    } catch (IOException ex) {
-                    }
+                if(fr.getType() == TYPE_FILE) {
+                    // Keep a partially transferred file to resume
+                    localEntries.keep(name + LargeFileTransfer.PART_SUFFIX);
                 }
+                // Don't delete this file -- may need to be overwritten though.
+                // But if is not the same type, do delete it
+                localEntries.keep(name, fr.getType());
             }
 
-            for(String deleteIt: toDelete) {
+            List<Path> parallelDeletes = deleter == null ? null : new ArrayList<Path>();
+            for(Map.Entry<String,BasicFileAttributes> entry: localEntries.getRemaining().entrySet()) {
                 if(Shutdown.isHappening()) {
                     state.endRun(STATE_ABORTED);
+                    checkpointDelete(dirIndex);
                     return false;
                 }
 
-                File f = new File(localDir + File.separator + deleteIt);
+                File f = new File(localDir + File.separator + entry.getKey());
+                BasicFileAttributes attrs = entry.getValue();
                 try {
-                    if(f.isDirectory()) {
+                    if(attrs != null && attrs.isDirectory()) {
                         log.info("rmdirs    " + f.getCanonicalPath());
-                        FileUtils.deleteDirectory(f);
+                        if(deleter != null) {
+                            parallelDeletes.add(f.toPath());
+                        } else {
+                            FileUtils.deleteDirectory(f);
+                        }
                     } else {
                         log.info("delete    " + f.getCanonicalPath());
-                        f.delete();
+                        if(deleter != null) {
+                            parallelDeletes.add(f.toPath());
+                        } else {
+                            f.delete();
+                        }
                     }
                 } catch(Exception e) {
                     log.error("Exception deleting file " + f + ": " + ExceptionUtils.getMessage(e));
                 }
             }
+            if(deleter != null) {
+                deleter.delete(parallelDeletes);
+                if(Shutdown.isHappening()) {
+                    // Check this directory again when resuming
+                    state.endRun(STATE_ABORTED);
+                    checkpointDelete(dirIndex);
+                    return false;
+                }
+            }
             // Report progress after checking and deleting each directory
             count += dirCount;
             progress(total, count, null, null);
@@ -450,101 +894,266 @@ public class FilesetSyncer {
     }
 
     /**
-     * Removes files which are locally up-to-date from the list of files to
-     * transfer. Updates lastModified date.
+     * Delete local files matching the regexp of the fileset which are not in
+     * the file list. The file list only contains the entries matching the
+     * regexp, so not all directories may be in the list and local files not
+     * matching the regexp are not deleted. Directories below which no path can
+     * match are skipped. A matching directory not in the file list is only
+     * deleted if it is empty after deleting its files.
+     *
+     * @param deleter if not null, delete the matching files of each directory
+     * in parallel
      */
-    private boolean compareFilesetList() throws IOException {
+    private boolean deleteLocalFilesMatchingRegexp(LocalTreeDeleter deleter) {
+        final PathPattern pattern;
+        try {
+            pattern = new PathPattern(fs.getRegexp());
+        } catch(PatternSyntaxException e) {
+            log.error("Invalid regexp, not deleting local files: " + e.getMessage());
+            return true;
+        }
+
+        Map<String,Character> listTypes = new HashMap();
+        for(FileRecord fr: fileList) {
+            if(fr != null) {
+                listTypes.put(fr.getName(), fr.getType());
+            }
+        }
 
+        int resumeDirectoryIndex = state.getResumeDeleteDirectoryIndex() == null ? 0 : state.getResumeDeleteDirectoryIndex();
+        state.setResumeDeleteDirectoryIndex(null);
 
-        MutableLong hashTime = new MutableLong();
-        long hashBytes = 0;
-        long startTime = System.currentTimeMillis();
-        long progressTime = startTime;
-        long total = fileList.size();
-        long processed = 0;
-        int newerLocalFiles = 0;
+        progress(null, 0L, null, null);
+        action("Checking for and deleting local files matching regexp not in filelist");
+        RegexpDeleteWalk walk = new RegexpDeleteWalk(pattern, listTypes, resumeDirectoryIndex, deleter);
+        if(pattern.canMatchBelow(".")) {
+            if(!walk.walk(new File(fs.getLocal()).toPath(), ".")) {
+                return false;
+            }
+        } else {
+            walk.skippedDirectories++;
+        }
+        if(walk.skippedDirectories > 0) {
+            log.info(String.format("Skipped %d local directories which can not contain paths matching the regexp", walk.skippedDirectories));
+        }
+        return true;
+    }
 
-        progress(total, processed, null, fs.isHash() ? hashBytes : null);
-        action("Comparing local files to filelist");
+    /**
+     * Walks the local directories for deleteLocalFilesMatchingRegexp() in
+     * sorted order, so the directory at which deleting was suspended can be
+     * found again when resuming. Directories are numbered when entered and the
+     * files of a directory are checked before its subdirectories, so all files
+     * in directories with a lower number have been checked. Deleted
+     * directories are not counted in the checkpoint because they will not be
+     * walked when resuming.
+     */
+    private class RegexpDeleteWalk {
+        final PathPattern pattern;
+        final Map<String,Character> listTypes;
+        final int resumeDirectoryIndex;
+        final LocalTreeDeleter deleter;
+        int dirIndex = -1;
+        int deletedDirectories = 0;
+        int skippedDirectories = 0;
+
+        RegexpDeleteWalk(PathPattern pattern, Map<String,Character> listTypes, int resumeDirectoryIndex, LocalTreeDeleter deleter) {
+            this.pattern = pattern;
+            this.listTypes = listTypes;
+            this.resumeDirectoryIndex = resumeDirectoryIndex;
+            this.deleter = deleter;
+        }
 
-        boolean setLastModifiedToServer = "true".equals(fs.getProperty("setLastModifiedToServer"));
+        private void checkpoint() {
+            checkpointDelete(dirIndex - deletedDirectories);
+        }
 
-        for(int index = 0; index < fileList.size(); index++) {
-            FileRecord fr = fileList.get(index);
-            if(suspendOrAbort()) {
+        /**
+         * @return false if the job was suspended or aborted
+         */
+        boolean walk(Path dir, String name) {
+            dirIndex++;
+            boolean check = dirIndex >= resumeDirectoryIndex;
+            if(check && suspendOrAbort()) {
+                checkpoint();
                 return false;
             }
 
-            File localFile;
-            if(fileList.size() == 1 && fr.getType() == TYPE_FILE) {
-                localFile = new File(fs.getLocal());
-            } else {
-                localFile = new File(fs.getLocal() + File.separator + fr.getName());
-            }
-            if(fr.getType() == TYPE_DIRECTORY && localFile.exists()) {
-                if(!localFile.isDirectory()) {
-                    log.error("Local file in is the way for remote directory: " + localFile.getCanonicalPath());
-                }
-                if(fr.getLastModified() != localFile.lastModified()) {
-                    log.trace(String.format("later updating last modified for directory %s", localFile.getCanonicalPath()));
-                    directoriesLastModifiedTimes.add(Pair.of(localFile, fr.getLastModified()));
+            List<Path> entries = new ArrayList();
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for(Path p: stream) {
+                    entries.add(p);
                 }
-                fileList.set(index, null); alreadyLocal++;
+            } catch(IOException e) {
+                log.error("Error listing local directory " + dir + ": " + ExceptionUtils.getMessage(e));
+                return true;
             }
-            if(fr.getType() == TYPE_FILE && localFile.exists()) {
-                if(!localFile.isFile()) {
-                    log.error("Local non-file is in the way for remote file: " + localFile.getCanonicalPath());
-                }
-                if(fs.isHash()) {
+            Collections.sort(entries);
+
+            List<Path> subdirs = new ArrayList();
+            List<Path> deletes = new ArrayList();
+            for(Path p: entries) {
+                if(Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                    subdirs.add(p);
+                } else if(check && isStale(getName(name, p))) {
                     try {
-                        String hash = FileRecord.calculateHash(localFile, hashTime);
-                        //localFilesByHash.put(hash, localFile.getCanonicalPath());
-                        hashBytes += localFile.length();
-                        if(hash.equals(fr.getHash())) {
-                            if(log.isTraceEnabled()) {
-                                log.trace("Same hash for " + fr.getName());
-                            }
-                            if(fr.getLastModified() > localFile.lastModified()) {
-                                if(log.isTraceEnabled()) {
-                                    log.trace("Same hash, updating last modified for " + fr.getName());
-                                }
-                                localFile.setLastModified(fr.getLastModified());
-                            }
-                            fileList.set(index, null); alreadyLocal++;
-                        } else {
-                            if(log.isTraceEnabled()) {
-                                log.trace("Hash mismatch for " + fr.getName());
-                            }
-                        }
-                    } catch(Exception e) {
-                        log.error("Error hashing " + localFile.getCanonicalPath() + ": " + ExceptionUtils.getMessage(e));
+                        log.info("delete    " + p.toFile().getCanonicalPath());
+                        deletes.add(p);
+                    } catch(IOException e) {
+                        log.error("Exception deleting file " + p + ": " + ExceptionUtils.getMessage(e));
                     }
-                } else {
-                    if(fr.getLastModified() > localFile.lastModified()) {
-                        if(log.isTraceEnabled()) {
-                            log.trace("Remote file newer: " + fr.getName());
-                        }
-                    } else if(fr.getLastModified() < localFile.lastModified()) {
-                        if(setLastModifiedToServer) {
-                            localFile.setLastModified(fr.getLastModified());
-                        } else {
-                            if(log.isTraceEnabled()) {
-                                log.trace(String.format("Keeping local file last modified at %s, later than remote file at %s: ", dateToString(new Date(localFile.lastModified())), dateToString(new Date(fr.getLastModified())), fr.getName()));
-                            }
-                        }
-                        newerLocalFiles++;
-                        fileList.set(index, null); alreadyLocal++;
-                    } else {
-                        if(log.isTraceEnabled()) {
-                            log.trace("Local file unmodified: " + fr.getName());
-                        }
-                        fileList.set(index, null); alreadyLocal++;
+                }
+            }
+            if(!delete(deletes)) {
+                // Check this directory again when resuming
+                state.endRun(STATE_ABORTED);
+                checkpoint();
+                return false;
+            }
+            // Report progress after checking the files of each directory
+            progress(null, (long)dirIndex + 1, null, null);
+
+            for(Path p: subdirs) {
+                String subName = getName(name, p);
+                if(!pattern.canMatchBelow(subName)) {
+                    skippedDirectories++;
+                    continue;
+                }
+                if(!walk(p, subName)) {
+                    return false;
+                }
+                if(!listTypes.containsKey(subName) && pattern.matches(subName)) {
+                    try {
+                        Files.delete(p);
+                        deletedDirectories++;
+                        log.info("rmdir     " + p.toFile().getCanonicalPath());
+                    } catch(DirectoryNotEmptyException e) {
+                        // Contains files not matching the regexp
+                    } catch(IOException e) {
+                        log.error("Exception deleting directory " + p + ": " + ExceptionUtils.getMessage(e));
                     }
                 }
             }
+            return true;
+        }
 
-            processed++;
-            progress(total, processed, null, fs.isHash() ? hashBytes : null);
+        private String getName(String dirName, Path p) {
+            return ".".equals(dirName) ? p.getFileName().toString() : dirName + "/" + p.getFileName();
+        }
+
+        /**
+         * @return whether the local file matches the regexp and is not a file
+         * in the file list
+         */
+        private boolean isStale(String name) {
+            if(!pattern.matches(name)) {
+                return false;
+            }
+            Character type = listTypes.get(name);
+            if(type != null && type == TYPE_FILE) {
+                return false;
+            }
+            if(name.endsWith(LargeFileTransfer.PART_SUFFIX)) {
+                // Keep a partially transferred file to resume
+                type = listTypes.get(name.substring(0, name.length() - LargeFileTransfer.PART_SUFFIX.length()));
+                if(type != null && type == TYPE_FILE) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return false if the client is shutting down
+         */
+        private boolean delete(List<Path> files) {
+            if(deleter != null) {
+                deleter.delete(files);
+                return !Shutdown.isHappening();
+            }
+            for(Path file: files) {
+                if(Shutdown.isHappening()) {
+                    return false;
+                }
+                try {
+                    Files.deleteIfExists(file);
+                } catch(IOException e) {
+                    log.error("Exception deleting file " + file + ": " + ExceptionUtils.getMessage(e));
+                }
+            }
+            return !Shutdown.isHappening();
+        }
+    }
+
+    /**
+     * Save the number of directories checked for local files to delete so the
+     * next run can resume at that directory, if the file list is cached.
+     */
+    private void checkpointDelete(int dirIndex) {
+        if(!fileListCached) {
+            return;
+        }
+        log.info(String.format("Deleting local files suspended at directory %d", dirIndex + 1));
+        state.setResumeDeleteDirectoryIndex(dirIndex);
+        SyncJobStatePersistence.persist();
+    }
+
+    /**
+     * Counters for the compare phase and merging of compare results in file
+     * list order.
+     */
+    private class CompareStats {
+        final long startTime = System.currentTimeMillis();
+        final MutableLong hashTime = new MutableLong();
+        final HashStatistics hashStatistics = new HashStatistics();
+        final int threads;
+        long progressTime = startTime;
+        long hashBytes = 0;
+        int newerLocalFiles = 0;
+        int hashCacheHits = 0;
+        long hashCacheSkippedBytes = 0;
+        int sizeMismatches = 0;
+        long sizeMismatchSkippedBytes = 0;
+
+        CompareStats(int threads) {
+            this.threads = threads;
+        }
+
+        /**
+         * Merge the compare result for the file list record at index. Must be
+         * called in file list order.
+         */
+        void merge(int index, LocalFileComparator.Result result) {
+            FileRecord fr = fileList.get(index);
+            if(snapshotDirectories != null && fr.getType() == TYPE_DIRECTORY && !".".equals(fr.getName())) {
+                snapshotDirectories.add(fr.getName());
+            }
+            if(result.getDirectoryLastModified() != null) {
+                directoriesLastModifiedTimes.add(result.getDirectoryLastModified());
+            }
+            if(result.isNewerLocal()) {
+                newerLocalFiles++;
+            }
+            if(result.isUpToDate()) {
+                if(localFilesByHash != null && fr.getType() == TYPE_FILE && fr.getHash() != null) {
+                    localFilesByHash.putIfAbsent(fr.getHash(), fr.getName());
+                }
+                fileList.set(index, null); alreadyLocal++;
+                upToDateIndexes.set(index);
+            }
+            hashBytes += result.getHashBytes();
+            hashTime.add(result.getHashTimeMillis());
+            if(result.isHashCacheHit()) {
+                hashCacheHits++;
+                hashCacheSkippedBytes += result.getHashSkippedBytes();
+            }
+            if(result.isSizeMismatch()) {
+                sizeMismatches++;
+                sizeMismatchSkippedBytes += result.getHashSkippedBytes();
+            }
+        }
+
+        void logStillComparing(long processed) {
             long time = System.currentTimeMillis();
             if(time - progressTime > 30000) {
                 log.info(String.format("Still comparing files, processed %d files", processed));
@@ -552,27 +1161,382 @@ public class FilesetSyncer {
             }
         }
 
-        // TODO: if file in file list already in localFilesByHash OR, remove them
-        // Also remove duplicate hashes in fileList
+        void logSummary() {
+            String hashInfo;
+            if(fs.isHash()) {
+                hashInfo = String.format(", hashed %d KB using %s (not hashed: %d KB of %d files by cache, %d KB of %d files with different size), hash speed %s (%s)",
+                        hashBytes / 1024,
+                        hashAlgorithm.getName(),
+                        hashCacheSkippedBytes / 1024,
+                        hashCacheHits,
+                        sizeMismatchSkippedBytes / 1024,
+                        sizeMismatches,
+                        (hashTime.getValue() < 100 ? "n/a" : Math.round(hashBytes / 1024.0 / (hashTime.getValue() / 1000.0)) + " KB/s" + (threads > 1 ? " per thread" : "")),
+                        hashStatistics);
+            } else {
+                hashInfo = "";
+            }
+            log.info(String.format("Compared file list to local files in %s, %d files up-to-date%s",
+                    DurationFormatUtils.formatDurationWords(System.currentTimeMillis() - startTime, true, false),
+                    alreadyLocal,
+                    hashInfo));
+            if(newerLocalFiles != 0) {
+                log.warn(String.format("Not overwriting %d local files with newer local last modified date compared to files on server", newerLocalFiles));
+            }
+        }
+    }
 
-        String hashInfo;
-        if(fs.isHash()) {
-            hashInfo = String.format(", hashed %d KB, hash speed %s",
-                    hashBytes / 1024,
-                    (hashTime.getValue() < 100 ? "n/a" : Math.round(hashBytes / 1024.0 / (hashTime.getValue() / 1000.0)) + " KB/s"));
-        } else {
-            hashInfo = "";
+    /**
+     * Provides compare results in file list order. When using worker threads,
+     * a limited number of batches of COMPARE_BATCH_SIZE records is compared
+     * ahead of the record requested.
+     */
+    private class CompareQueue {
+        private final LocalFileComparator comparator;
+        private final ExecutorService executor;
+        private final int maxBatches;
+        private final LinkedList<Future<LocalFileComparator.Result[]>> batches = new LinkedList();
+        private int nextBatchStart;
+        private LocalFileComparator.Result[] current;
+        private int currentStart;
+
+        /**
+         * @param startIndex index of the first record to compare
+         * @param threads number of worker threads, if 0 compare in the calling
+         * thread
+         */
+        CompareQueue(LocalFileComparator comparator, int startIndex, int threads) {
+            this.comparator = comparator;
+            this.nextBatchStart = startIndex;
+            if(threads > 0) {
+                executor = Executors.newFixedThreadPool(threads);
+                maxBatches = threads * 4;
+                submitBatches();
+            } else {
+                executor = null;
+                maxBatches = 0;
+            }
         }
-        log.info(String.format("Compared file list to local files in %s, %d files up-to-date%s",
-                DurationFormatUtils.formatDurationWords(System.currentTimeMillis() - startTime, true, false),
-                alreadyLocal,
-                hashInfo));
-        if(newerLocalFiles != 0) {
-            log.warn(String.format("Not overwriting %d local files with newer local last modified date compared to files on server", newerLocalFiles));
+
+        private void submitBatches() {
+            while(batches.size() < maxBatches && nextBatchStart < fileList.size()) {
+                final int batchStart = nextBatchStart;
+                final int batchEnd = Math.min(batchStart + COMPARE_BATCH_SIZE, fileList.size());
+                nextBatchStart = batchEnd;
+                batches.add(executor.submit(new Callable<LocalFileComparator.Result[]>() {
+                    @Override
+                    public LocalFileComparator.Result[] call() throws Exception {
+                        LocalFileComparator.Result[] results = new LocalFileComparator.Result[batchEnd - batchStart];
+                        for(int j = batchStart; j < batchEnd; j++) {
+                            if(Shutdown.isHappening() || Thread.currentThread().isInterrupted()) {
+                                return null;
+                            }
+                            results[j - batchStart] = comparator.compare(fileList.get(j));
+                        }
+                        return results;
+                    }
+                }));
+            }
         }
+
+        /**
+         * Get the compare result for the record at index. Must be called for
+         * each record in file list order.
+         *
+         * @return the result or null if the job is suspended or aborted while
+         * waiting for the result
+         */
+        LocalFileComparator.Result get(int index) throws IOException {
+            if(executor == null) {
+                return comparator.compare(fileList.get(index));
+            }
+            if(current == null || index >= currentStart + current.length) {
+                currentStart = current == null ? index : currentStart + current.length;
+                current = waitForCompareBatch(batches.removeFirst());
+                if(current == null) {
+                    return null;
+                }
+                submitBatches();
+            }
+            return current[index - currentStart];
+        }
+
+        void close() {
+            if(executor != null) {
+                activeRequests.terminate(executor);
+            }
+        }
+    }
+
+    private LocalFileComparator createComparator(CompareStats stats) {
+        return new LocalFileComparator(fs, fileList.size() == 1 && fileList.get(0) != null && fileList.get(0).getType() == TYPE_FILE, hashAlgorithm, hashCache, stats.hashStatistics);
+    }
+
+    /**
+     * @return index to start or resume comparing from
+     */
+    private int startCompare() {
+        int startIndex = state.getResumeCompareIndex() == null ? 0 : state.getResumeCompareIndex();
+        state.setResumeCompareIndex(null);
+
+        // The local snapshot needs all directories, only when not resumed
+        if(getIntProperty("fullCompareInterval", 0) > 0 && startIndex == 0) {
+            snapshotDirectories = new ArrayList();
+            snapshotDirectories.add(".");
+        }
+        return startIndex;
+    }
+
+    private void endCompare(int startIndex) {
+        // Keep compare results when transfer is suspended
+        state.setResumeUpToDateIndexes((BitSet)upToDateIndexes.clone());
+        state.setResumeDirectoriesLastModified(new ArrayList(directoriesLastModifiedTimes));
+
+        // Only when all files were compared in this run all used hash cache
+        // entries are known
+        compareCompleted = startIndex == 0;
+    }
+
+    /**
+     * Removes files which are locally up-to-date from the list of files to
+     * transfer. Updates lastModified date.
+     */
+    private boolean compareFilesetList() throws IOException {
+
+        long total = fileList.size();
+        int startIndex = startCompare();
+        long processed = startIndex;
+
+        int threads = Math.max(1, getIntProperty("compareThreads", 1));
+        CompareStats stats = new CompareStats(threads);
+
+        progress(total, processed, null, fs.isHash() ? stats.hashBytes : null);
+        action("Comparing local files to filelist" + (threads > 1 ? " using " + threads + " threads" : ""));
+
+        CompareQueue queue = new CompareQueue(createComparator(stats), startIndex, threads > 1 ? threads : 0);
+        try {
+            for(int index = startIndex; index < fileList.size(); index++) {
+                if(suspendOrAbort()) {
+                    checkpointCompare(index, directoriesLastModifiedTimes.size());
+                    return false;
+                }
+
+                LocalFileComparator.Result result = queue.get(index);
+                if(result == null) {
+                    checkpointCompare(index, directoriesLastModifiedTimes.size());
+                    return false;
+                }
+
+                // Merge results in file list order, regardless of the number of
+                // threads
+                stats.merge(index, result);
+
+                processed++;
+                progress(total, processed, null, fs.isHash() ? stats.hashBytes : null);
+                stats.logStillComparing(processed);
+            }
+        } finally {
+            queue.close();
+        }
+
+        stats.logSummary();
+        endCompare(startIndex);
+        return true;
+    }
+
+    /**
+     * Compare the file list to local files while transferring outdated files
+     * as soon as enough are found to fill a chunk. Local files are compared by
+     * worker threads ahead of the transfer. Used instead of
+     * compareFilesetList() and transferFiles() when the fileset property
+     * pipeline is true.
+     * <p>
+     * Transferred files are counted as up-to-date in the compare results, so
+     * the compare checkpoint after each chunk is also the transfer checkpoint.
+     *
+     * @return true if finished, false if unfinished (state status updated)
+     */
+    private boolean compareAndTransferFiles() throws IOException {
+        long total = fileList.size();
+        int startIndex = startCompare();
+        long processed = startIndex;
+
+        int threads = Math.max(1, getIntProperty("compareThreads", 1));
+        CompareStats stats = new CompareStats(threads);
+
+        long chunkSize = getChunkSize();
+        long chunks = 0;
+        long transferredFiles = 0;
+        totalBytes.set(0);
+        receivedBytes.set(0);
+        transferStartTime = System.currentTimeMillis();
+
+        progress(total, processed, null, 0L);
+        action("Comparing local files to filelist and transferring outdated files" + (threads > 1 ? " using " + threads + " compare threads" : ""));
+
+        List<FileRecord> chunkList = new ArrayList();
+        List<Integer> chunkIndexes = new ArrayList();
+        long thisChunkSize = 0;
+        int chunkStartIndex = startIndex;
+        // Directories added for the records before chunkStartIndex
+        int chunkStartDirectories = directoriesLastModifiedTimes.size();
+
+        CompareQueue queue = new CompareQueue(createComparator(stats), startIndex, threads);
+        try {
+            for(int index = startIndex; index <= fileList.size(); index++) {
+                boolean last = index == fileList.size();
+                if(!last) {
+                    if(suspendOrAbort()) {
+                        // Outdated files in the chunk not transferred yet are
+                        // compared again after resuming
+                        checkpointCompare(chunkStartIndex, chunkStartDirectories);
+                        return false;
+                    }
+
+                    LocalFileComparator.Result result = queue.get(index);
+                    if(result == null) {
+                        checkpointCompare(chunkStartIndex, chunkStartDirectories);
+                        return false;
+                    }
+                    stats.merge(index, result);
+                    processed++;
+                    stats.logStillComparing(processed);
+
+                    FileRecord fr = fileList.get(index);
+                    if(fr != null) {
+                        chunkList.add(fr);
+                        chunkIndexes.add(index);
+                        thisChunkSize += fr.getSize();
+                    }
+                }
+
+                if(adaptiveChunkSize != null) {
+                    chunkSize = adaptiveChunkSize.getChunkBytes();
+                }
+                boolean full = thisChunkSize >= chunkSize
+                        || (adaptiveChunkSize != null && chunkList.size() >= adaptiveChunkSize.getChunkFiles());
+                if(!chunkList.isEmpty() && (full || last)) {
+                    log.info(String.format("Requesting chunk of %d files (size %.0f KB), compared %d of %d files",
+                            chunkList.size(), thisChunkSize/1024.0, processed, total));
+                    transferChunk(chunkList, full);
+                    if(Shutdown.isHappening()) {
+                        // Transfer stopped without an exception, the chunk
+                        // may be incomplete so do not count it as up-to-date
+                        suspendOrAbort();
+                        checkpointCompare(chunkStartIndex, chunkStartDirectories);
+                        return false;
+                    }
+                    chunks++;
+                    transferredFiles += chunkList.size();
+                    for(int i: chunkIndexes) {
+                        upToDateIndexes.set(i);
+                    }
+                    chunkList.clear();
+                    chunkIndexes.clear();
+                    thisChunkSize = 0;
+                    chunkStartIndex = index + 1;
+                    chunkStartDirectories = directoriesLastModifiedTimes.size();
+
+                    // Resume from here after an error
+                    if(!last && fileListCached) {
+                        state.setResumeCompareIndex(chunkStartIndex);
+                        state.setResumeUpToDateIndexes((BitSet)upToDateIndexes.clone());
+                        state.setResumeDirectoriesLastModified(new ArrayList(directoriesLastModifiedTimes));
+                        SyncJobStatePersistence.persist();
+                    }
+                } else if(chunkList.isEmpty()) {
+                    chunkStartIndex = index + 1;
+                    chunkStartDirectories = directoriesLastModifiedTimes.size();
+                }
+                progress(total, processed, null, totalBytes.get());
+            }
+        } finally {
+            queue.close();
+        }
+        state.setResumeCompareIndex(null);
+
+        stats.logSummary();
+        endCompare(startIndex);
+        log.info(String.format("Transfer complete, %d files in %d chunks, %d KB total", transferredFiles, chunks, totalBytes.get()/1024));
+        logTransferSummary();
         return true;
     }
 
+    /**
+     * Save the compare results so far so the next run can resume comparing at
+     * index, if the file list is cached.
+     *
+     * @param directories the number of directories in
+     * directoriesLastModifiedTimes added for the records before index, the
+     * directories of the records from index are added again after resuming
+     */
+    private void checkpointCompare(int index, int directories) {
+        if(!fileListCached) {
+            return;
+        }
+        log.info(String.format("Compare suspended at file %d of %d", index + 1, fileList.size()));
+        state.setResumeCompareIndex(index);
+        BitSet upToDate = (BitSet)upToDateIndexes.clone();
+        // Records from index are compared again
+        upToDate.clear(index, Math.max(index, upToDate.length()));
+        state.setResumeUpToDateIndexes(upToDate);
+        synchronized(directoriesLastModifiedTimes) {
+            state.setResumeDirectoriesLastModified(new ArrayList(directoriesLastModifiedTimes.subList(0, directories)));
+        }
+        SyncJobStatePersistence.persist();
+    }
+
+    /**
+     * Restore the results of the delete and compare phases from the previous
+     * run after reading the cached file list.
+     */
+    private void restoreResumeState() {
+        BitSet upToDate = state.getResumeUpToDateIndexes();
+        if(upToDate != null) {
+            for(int i = upToDate.nextSetBit(0); i >= 0 && i < fileList.size(); i = upToDate.nextSetBit(i + 1)) {
+                fileList.set(i, null);
+                alreadyLocal++;
+            }
+            upToDateIndexes.or(upToDate);
+        }
+        if(state.getResumeDirectoriesLastModified() != null) {
+            directoriesLastModifiedTimes.addAll(state.getResumeDirectoriesLastModified());
+        }
+    }
+
+    /**
+     * Wait for a batch of compare results while still checking whether the job
+     * should be suspended or aborted.
+     *
+     * @return the batch results or null if the job is suspended or aborted
+     */
+    private LocalFileComparator.Result[] waitForCompareBatch(Future<LocalFileComparator.Result[]> batch) throws IOException {
+        while(true) {
+            try {
+                LocalFileComparator.Result[] results = batch.get(1, TimeUnit.SECONDS);
+                if(results == null && !suspendOrAbort()) {
+                    // Worker was interrupted but we were not
+                    throw new IOException("Compare batch interrupted");
+                }
+                return results;
+            } catch(TimeoutException e) {
+                if(suspendOrAbort()) {
+                    return null;
+                }
+            } catch(InterruptedException e) {
+                if(!suspendOrAbort()) {
+                    state.endRun(STATE_ABORTED);
+                }
+                return null;
+            } catch(ExecutionException e) {
+                if(e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new IOException("Exception comparing files", e.getCause());
+            }
+        }
+    }
+
     /**
      * @return true if finished, false if unfinished (state status updated)
      */
@@ -594,9 +1558,11 @@ public class FilesetSyncer {
         // configured chunk size (unless there are no more files)
 
         long chunks = 0;
-        totalBytes = 0;
+        totalBytes.set(0);
+        receivedBytes.set(0);
+        transferStartTime = System.currentTimeMillis();
         long totalFiles = 0;
-        long chunkSize = FormatUtil.parseByteSize(SyncConfig.getInstance().getProperty("chunkSize","5M"));
+        long chunkSize = getChunkSize();
 
         int index = state.getResumeFileListIndex() != null ? state.getResumeFileListIndex() : 0;
         int endIndex;
@@ -608,52 +1574,30 @@ public class FilesetSyncer {
             if(fr != null) {
                 if(j < index) {
                     // Resumed, count as already transferred
-                    totalBytes += fr.getSize();
+                    totalBytes.addAndGet(fr.getSize());
                 }
                 totalSize += fr.getSize();
             }
         }
 
-        progress(fileCount, totalFiles, totalSize, totalBytes);
+        progress(fileCount, totalFiles, totalSize, totalBytes.get());
         action(String.format("Transferring %d files", fileCount));
 
-        //String regexp = fs.getRegexp();
+        int threads = getIntProperty("transferThreads", 1);
+        if(threads > 1) {
+            return transferChunksConcurrently(index, threads, chunkSize, fileCount, totalSize);
+        }
+
         do {
-            int thisChunkSize = 0;
             List<FileRecord> chunkList = new ArrayList();
-            endIndex = fileList.size()-1;
-            for(int j = index; j < fileList.size(); j++) {
-                FileRecord fr = fileList.get(j);
-                if(fr == null) {
-                    continue;
-                }
-                //if(regexp != null) {
-                    // Should always match if server applied regexp
-                    //if(!fileList.get(j).getName().matches(regexp)) {
-                    //    continue;
-                    //}
-                //}
-                chunkList.add(fr);
-                thisChunkSize += fr.getSize();
-                if(thisChunkSize >= chunkSize) {
-                    endIndex = j;
-                    break;
-                }
-            }
-            log.info(String.format("Requesting chunk of %d files (size %.0f KB)", chunkList.size(), thisChunkSize/1024.0));
-            if(log.isTraceEnabled()) {
-                int t = 0;
-                for(FileRecord fr: chunkList) {
-                    log.trace(String.format("#%3d: %8d bytes: %s", ++t, fr.getSize(), fr.getName()));
-                }
-            }
-            transferChunk(chunkList);
+            endIndex = buildChunk(index, chunkSize, chunkList);
+            transferChunk(chunkList, endIndex < fileList.size()-1);
 
             index = endIndex+1;
             chunks++;
             totalFiles += chunkList.size();
             // totalBytes updated by transferChunk()
-            progress(fileCount, totalFiles, totalSize, totalBytes);
+            progress(fileCount, totalFiles, totalSize, totalBytes.get());
 
             if(suspendOrAbort()) {
                 // Technically we could resume an aborted job, but choice made
@@ -662,7 +1606,7 @@ public class FilesetSyncer {
                     log.info(String.format("Suspending job (transferred %d chunks, %d files and %d KB total, %d%% of files transferred)",
                             chunks,
                             index,
-                            totalBytes/1024,
+                            totalBytes.get()/1024,
                             Math.round((index) / (double)fileList.size() * 100)
                             ));
                     state.setResumeFileListIndex(index);
@@ -676,7 +1620,131 @@ public class FilesetSyncer {
 
         } while(endIndex < fileList.size()-1);
 
-        log.info(String.format("Transfer complete, %d chunks, %d KB total", chunks, totalBytes/1024));
+        log.info(String.format("Transfer complete, %d chunks, %d KB total", chunks, totalBytes.get()/1024));
+        logTransferSummary();
+        return true;
+    }
+
+    private void logTransferSummary() {
+        long elapsed = System.currentTimeMillis() - transferStartTime;
+        if(receivedBytes.get() > 0 && elapsed > 0) {
+            log.info(String.format("Received %d KB in %s, effective rate %.0f KB/s",
+                    receivedBytes.get() / 1024,
+                    DurationFormatUtils.formatDurationWords(elapsed, true, false),
+                    receivedBytes.get() / 1024.0 / (elapsed / 1000.0)));
+        }
+        if(adaptiveChunkSize != null) {
+            log.info("Adaptive chunk size: " + adaptiveChunkSize);
+        }
+    }
+
+    /**
+     * Limit the rate at which bytes are read from a response according to the
+     * bandwidth limits and count the bytes received.
+     */
+    private InputStream limitBandwidth(InputStream in) {
+        return BandwidthLimiter.limit(in, receivedBytes, bandwidthLimiter, globalBandwidthLimiter);
+    }
+
+    /**
+     * @return the chunkSize global property, which is the initial chunk size
+     * when chunkSizeAdaptive is enabled
+     */
+    private long getChunkSize() {
+        long chunkSize = FormatUtil.parseByteSize(SyncConfig.getInstance().getProperty("chunkSize","5M"));
+        if(adaptiveChunkSize == null && "true".equals(SyncConfig.getInstance().getProperty("chunkSizeAdaptive", "false"))) {
+            adaptiveChunkSize = new AdaptiveChunkSize(chunkSize);
+        }
+        return chunkSize;
+    }
+
+    /**
+     * Add the file list records for the next chunk starting at index to
+     * chunkList.
+     *
+     * @return the file list index of the last record in the chunk, the last
+     * index of the file list if the chunk was cut short by its end
+     */
+    private int buildChunk(int index, long chunkSize, List<FileRecord> chunkList) {
+        int maxFiles = Integer.MAX_VALUE;
+        if(adaptiveChunkSize != null) {
+            chunkSize = adaptiveChunkSize.getChunkBytes();
+            maxFiles = adaptiveChunkSize.getChunkFiles();
+        }
+        long thisChunkSize = 0;
+        int endIndex = fileList.size()-1;
+        //String regexp = fs.getRegexp();
+        for(int j = index; j < fileList.size(); j++) {
+            FileRecord fr = fileList.get(j);
+            if(fr == null) {
+                continue;
+            }
+            //if(regexp != null) {
+                // Should always match if server applied regexp
+                //if(!fileList.get(j).getName().matches(regexp)) {
+                //    continue;
+                //}
+            //}
+            chunkList.add(fr);
+            thisChunkSize += fr.getSize();
+            if(thisChunkSize >= chunkSize || chunkList.size() >= maxFiles) {
+                endIndex = j;
+                break;
+            }
+        }
+        log.info(String.format("Requesting chunk of %d files (size %.0f KB)", chunkList.size(), thisChunkSize/1024.0));
+        if(log.isTraceEnabled()) {
+            int t = 0;
+            for(FileRecord fr: chunkList) {
+                log.trace(String.format("#%3d: %8d bytes: %s", ++t, fr.getSize(), fr.getName()));
+            }
+        }
+        return endIndex;
+    }
+
+    /**
+     * Transfer chunks using multiple concurrent requests.
+     *
+     * @return true if finished, false if unfinished (state status updated)
+     */
+    private boolean transferChunksConcurrently(int index, int threads, final long chunkSize, final long fileCount, final long totalSize) throws IOException {
+        ConcurrentChunkTransfer transfer = new ConcurrentChunkTransfer(state, activeRequests, threads, fileList.size()) {
+            @Override
+            protected int buildChunk(int index, List<FileRecord> chunkList) {
+                return FilesetSyncer.this.buildChunk(index, chunkSize, chunkList);
+            }
+
+            @Override
+            protected void transferChunk(List<FileRecord> chunkList, boolean full) throws IOException {
+                FilesetSyncer.this.transferChunk(chunkList, full);
+            }
+
+            @Override
+            protected void progress(long files) {
+                // totalBytes updated by transferChunk() while in flight
+                FilesetSyncer.this.progress(fileCount, files, totalSize, totalBytes.get());
+            }
+
+            @Override
+            protected boolean suspendOrAbort() {
+                return FilesetSyncer.this.suspendOrAbort();
+            }
+        };
+
+        if(!transfer.transfer(index)) {
+            if(transfer.isSuspended()) {
+                log.info(String.format("Suspending job (transferred %d chunks, %d files and %d KB total, %d%% of files transferred)",
+                        transfer.getChunks(),
+                        transfer.getCompletedIndex(),
+                        totalBytes.get()/1024,
+                        Math.round(transfer.getCompletedIndex() / (double)fileList.size() * 100)
+                        ));
+            }
+            return false;
+        }
+
+        log.info(String.format("Transfer complete, %d chunks, %d KB total", transfer.getChunks(), totalBytes.get()/1024));
+        logTransferSummary();
         return true;
     }
 
@@ -693,121 +1761,366 @@ public class FilesetSyncer {
         }
     }
 
-    private void transferChunk(List<FileRecord> chunkList) throws IOException {
-        boolean verbose = "true".equals(fs.getProperty("verbose"));
+    /**
+     * Produce a file to transfer from a local file with the same hash, by
+     * copying or hardlinking it.
+     *
+     * @return true if the file was produced, false if it should be transferred
+     */
+    private boolean produceFromLocalFile(FileRecord fr, boolean verbose) {
+        String sourceName = localFilesByHash.get(fr.getHash());
+        if(sourceName == null || sourceName.equals(fr.getName()) || ".".equals(fr.getName())) {
+            return false;
+        }
+        File source = new File(fs.getLocal() + File.separator + sourceName);
+        File target = new File(fs.getLocal() + File.separator + fr.getName());
+        if(source.length() != fr.getSize()) {
+            // Modified after comparing
+            localFilesByHash.remove(fr.getHash(), sourceName);
+            return false;
+        }
+        try {
+            if(!target.getCanonicalPath().startsWith(localCanonicalPath)) {
+                return false;
+            }
+            target.getParentFile().mkdirs();
+            if("hardlink".equals(localDedup)) {
+                if(verbose) {
+                    log.info("link      " + fr.getName() + " to " + sourceName);
+                }
+                Files.deleteIfExists(target.toPath());
+                Files.createLink(target.toPath(), source.toPath());
+            } else {
+                if(verbose) {
+                    log.info("copy      " + sourceName + " to " + fr.getName());
+                }
+                Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(IOException e) {
+            log.warn(String.format("Error creating local %s of \"%s\" for \"%s\", transferring file instead: %s",
+                    localDedup, sourceName, fr.getName(), ExceptionUtils.getMessage(e)));
+            return false;
+        }
+        target.setLastModified(fr.getLastModified());
+        filesUpdated = true;
+        localDedupFiles.incrementAndGet();
+        localDedupBytes.addAndGet(fr.getSize());
+        if(hashCache != null) {
+            hashCache.put(fr.getName(), hashAlgorithm.getName(), target.length(), target.lastModified(), LocalHashCache.getFileKey(target), fr.getHash());
+        }
+        return true;
+    }
+
+    private class TransferContext implements FileTransferContext {
+        @Override
+        public File getLocalFile(FileRecord fr) throws IOException {
+            if(".".equals(fr.getName())) {
+                // single file sync
+                return new File(fs.getLocal());
+            }
+            File local = new File(fs.getLocal() + File.separator + fr.getName());
+            if(!local.getCanonicalPath().startsWith(localCanonicalPath)) {
+                throw new IOException("Invalid filename: " + fr.getName());
+            }
+            return local;
+        }
+
+        @Override
+        public String getUrl(String action, FileRecord fr) throws IOException {
+            String url = serverUrl + action + "/" + fs.getRemote();
+            if(!".".equals(fr.getName())) {
+                url += "/" + encodePath(fr.getName());
+            }
+            return url;
+        }
+
+        @Override
+        public ActiveRequests getActiveRequests() {
+            return activeRequests;
+        }
+
+        @Override
+        public HashAlgorithm getHashAlgorithm() {
+            return hashAlgorithm;
+        }
+
+        @Override
+        public void addExtraHeaders(HttpUriRequest r) {
+            FilesetSyncer.this.addExtraHeaders(r);
+        }
+
+        @Override
+        public void checkServerTooBusy(HttpResponse response) throws IOException {
+            FilesetSyncer.this.checkServerTooBusy(response);
+        }
+
+        @Override
+        public InputStream limitBandwidth(InputStream in) {
+            return FilesetSyncer.this.limitBandwidth(in);
+        }
 
-        try(CloseableHttpClient httpClient = HttpClientUtil.get()) {
-            HttpPost post = new HttpPost(serverUrl + "get/" + fs.getRemote());
+        @Override
+        public void addTransferredBytes(long bytes) {
+            totalBytes.addAndGet(bytes);
+        }
 
-            ByteArrayOutputStream b = new ByteArrayOutputStream();
-            new BufferedFileListEncoder(new GZIPOutputStream(b)).writeAll(chunkList).close();
+        @Override
+        public void replaceLocalFile(FileRecord fr, File temp, File local, long lastModified) throws IOException {
+            FilesetSyncer.this.replaceLocalFile(fr, temp, local, lastModified);
+        }
+    }
 
-            post.setEntity(new ByteArrayEntity(b.toByteArray()));
-            post.setHeader(HttpHeaders.CONTENT_TYPE, Protocol.FILELIST_V2_MIME_TYPE);
-            post.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
-            addExtraHeaders(post);
+    /**
+     * Transfer the files in a chunk.
+     *
+     * @param full false if the chunk was cut short by the end of the file list
+     */
+    private void transferChunk(List<FileRecord> chunkList, boolean full) throws IOException {
+        boolean verbose = "true".equals(fs.getProperty("verbose"));
 
-            log.info("> " + post.getRequestLine());
-            try(CloseableHttpResponse response = httpClient.execute(post)) {
-                log.info("< " + response.getStatusLine());
+        // Files with the same hash as a local file or another file in this
+        // chunk are not requested from the server
+        List<FileRecord> duplicates = new ArrayList();
+        if(localFilesByHash != null) {
+            List<FileRecord> requestList = new ArrayList();
+            Set<String> requestedHashes = new HashSet();
+            for(FileRecord fr: chunkList) {
+                if(fr.getType() == TYPE_FILE && fr.getHash() != null) {
+                    if(produceFromLocalFile(fr, verbose)) {
+                        continue;
+                    }
+                    if(!requestedHashes.add(fr.getHash())) {
+                        duplicates.add(fr);
+                        continue;
+                    }
+                }
+                requestList.add(fr);
+            }
+            chunkList = requestList;
+        }
 
+        // Modified files of which the local file is large enough are
+        // transferred as a delta, or normally if that fails
+        if(deltaTransfer != null && deltaTransfer.getMinSize() > 0) {
+            List<FileRecord> requestList = new ArrayList();
+            for(FileRecord fr: chunkList) {
                 if(Shutdown.isHappening()) {
                     return;
                 }
+                if(fr.getType() == TYPE_FILE && fr.getSize() >= deltaTransfer.getMinSize() && deltaTransfer.transfer(fr, verbose)) {
+                    continue;
+                }
+                requestList.add(fr);
+            }
+            chunkList = requestList;
+        }
 
-                int status = response.getStatusLine().getStatusCode();
-
-                if(status == SC_TOO_MANY_REQUESTS) {
-                    String message = EntityUtils.toString(response.getEntity());
-                    EntityUtils.consumeQuietly(response.getEntity());
-                    Integer retry = null;
-                    try {
-                        retry = Integer.parseInt(response.getFirstHeader("Retry-After").getValue());
-                    } catch(Exception e) {
-                    }
-                    throw new ServerTooBusyException(response.getStatusLine().toString(), message, retry);
+        // Large files are transferred with separate requests which can be
+        // resumed
+        List<FileRecord> largeFiles = new ArrayList();
+        if(largeFileTransfer != null) {
+            List<FileRecord> requestList = new ArrayList();
+            for(FileRecord fr: chunkList) {
+                if(fr.getType() == TYPE_FILE && fr.getSize() >= largeFileTransfer.getMinSize()) {
+                    largeFiles.add(fr);
                 } else {
-                    state.setBusyFailedTries(0);
+                    requestList.add(fr);
                 }
+            }
+            chunkList = requestList;
+        }
 
-                if(status < 200 || status >= 300) {
-                    throw new IOException(String.format("Server returned \"%s\" for request \"%s\", body: %s",
-                            response.getStatusLine(),
-                            post.getRequestLine(),
-                            EntityUtils.toString(response.getEntity())));
-                }
+        if(!chunkList.isEmpty()) {
+            requestChunk(chunkList, verbose, full);
+        }
 
-                try(MultiFileDecoder decoder = new MultiFileDecoder(response.getEntity().getContent(), 2)) {
-                    int i = 0;
-                    for(MultiFileHeader mfh: decoder) {
-                        if(Shutdown.isHappening()) {
-                            post.abort();
-                            return;
-                        }
+        for(FileRecord fr: largeFiles) {
+            if(Shutdown.isHappening()) {
+                return;
+            }
+            largeFileTransfer.transfer(fr, verbose);
+        }
 
-                        if(mfh.getStatus() != HttpStatus.SC_OK) {
-                            log.warn(String.format("Server returned not OK status for file %s: %d %s",
-                                    mfh.getFilename(),
-                                    mfh.getStatus(),
-                                    mfh.getStatusLine()));
-                            continue;
-                        }
+        for(FileRecord fr: duplicates) {
+            if(Shutdown.isHappening()) {
+                return;
+            }
+            if(!produceFromLocalFile(fr, verbose)) {
+                log.warn("Could not produce file from local file with the same hash, will be transferred next run: " + fr.getName());
+            }
+        }
+    }
 
-                        log.trace(String.format("File #%3d: %8d bytes, %s, %s", ++i, mfh.getContentLength(), mfh.getContentType(), mfh.getFilename()));
-                        File local;
-                        if(mfh.getFilename().equals(".")) {
-                            if(mfh.isDirectory()) {
-                                // skip root directory
-                                continue;
-                            } else {
-                                // single file sync, write to local file
-                                local = new File(fs.getLocal());
-                            }
+    /**
+     * Encode each segment of a relative path for use in an URL.
+     */
+    private static String encodePath(String path) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for(String segment: path.split("/")) {
+            if(sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(URLEncoder.encode(segment, "UTF-8").replace("+", "%20"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replace the local file with a file transferred to a temporary file next
+     * to it.
+     */
+    private void replaceLocalFile(FileRecord fr, File temp, File local, long lastModified) throws IOException {
+        if("hardlink".equals(localDedup)) {
+            // Do not overwrite the contents of other files hardlinked to
+            // this file
+            Files.deleteIfExists(local.toPath());
+        }
+        Files.move(temp.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        local.setLastModified(lastModified);
+        filesUpdated = true;
+
+        if(lastModified == fr.getLastModified() && local.length() == fr.getSize() && fr.getHash() != null) {
+            if(hashCache != null) {
+                hashCache.put(fr.getName(), hashAlgorithm.getName(), local.length(), local.lastModified(), LocalHashCache.getFileKey(local), fr.getHash());
+            }
+            if(localFilesByHash != null) {
+                localFilesByHash.putIfAbsent(fr.getHash(), fr.getName());
+            }
+        }
+    }
+
+    private void requestChunk(List<FileRecord> chunkList, boolean verbose, boolean full) throws IOException {
+        Map<String,FileRecord> chunkRecords = new HashMap();
+        for(FileRecord fr: chunkList) {
+            chunkRecords.put(fr.getName(), fr);
+        }
+
+        CloseableHttpClient httpClient = HttpClientUtil.get();
+        HttpPost post = new HttpPost(serverUrl + "get/" + fs.getRemote());
+
+        post.setEntity(new FileListEntity(chunkList));
+        post.setHeader(HttpHeaders.CONTENT_TYPE, Protocol.FILELIST_V2_MIME_TYPE);
+        post.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        addExtraHeaders(post);
+
+        log.info("> " + post.getRequestLine());
+        long startTime = System.currentTimeMillis();
+        activeRequests.add(post);
+        try(CloseableHttpResponse response = httpClient.execute(post)) {
+            long firstByteTime = System.currentTimeMillis();
+            log.info("< " + response.getStatusLine());
+
+            if(Shutdown.isHappening()) {
+                return;
+            }
+
+            int status = response.getStatusLine().getStatusCode();
+
+            checkServerTooBusy(response);
+
+            if(status < 200 || status >= 300) {
+                throw new IOException(String.format("Server returned \"%s\" for request \"%s\", body: %s",
+                        response.getStatusLine(),
+                        post.getRequestLine(),
+                        EntityUtils.toString(response.getEntity())));
+            }
+
+            try(MultiFileDecoder decoder = new MultiFileDecoder(limitBandwidth(response.getEntity().getContent()), 2)) {
+                int i = 0;
+                long bytes = 0;
+                for(MultiFileHeader mfh: decoder) {
+                    if(Shutdown.isHappening()) {
+                        post.abort();
+                        return;
+                    }
+
+                    if(mfh.getStatus() != HttpStatus.SC_OK) {
+                        log.warn(String.format("Server returned not OK status for file %s: %d %s",
+                                mfh.getFilename(),
+                                mfh.getStatus(),
+                                mfh.getStatusLine()));
+                        continue;
+                    }
+
+                    log.trace(String.format("File #%3d: %8d bytes, %s, %s", ++i, mfh.getContentLength(), mfh.getContentType(), mfh.getFilename()));
+                    File local;
+                    if(mfh.getFilename().equals(".")) {
+                        if(mfh.isDirectory()) {
+                            // skip root directory
+                            continue;
                         } else {
-                            local = new File(fs.getLocal() + File.separator + mfh.getFilename());
-                            // Detect if server tries to overwrite file in parent of local path
-                            if(!local.getCanonicalPath().startsWith(localCanonicalPath)) {
-                                throw new IOException("Server returned invalid filename: " + mfh.getFilename());
-                            }
+                            // single file sync, write to local file
+                            local = new File(fs.getLocal());
                         }
+                    } else {
+                        local = new File(fs.getLocal() + File.separator + mfh.getFilename());
+                        // Detect if server tries to overwrite file in parent of local path
+                        if(!local.getCanonicalPath().startsWith(localCanonicalPath)) {
+                            throw new IOException("Server returned invalid filename: " + mfh.getFilename());
+                        }
+                    }
 
-                        if(mfh.isDirectory()) {
-                            if(local.exists() && local.isDirectory()) {
-                                continue;
-                            }
-                            if(verbose) {
-                                log.info("mkdir     " + mfh.getFilename());
-                            }
-                            local.mkdirs();
-                            directoriesLastModifiedTimes.add(Pair.of(local, mfh.getLastModified()));
+                    if(mfh.isDirectory()) {
+                        if(local.exists() && local.isDirectory()) {
                             continue;
                         }
+                        if(verbose) {
+                            log.info("mkdir     " + mfh.getFilename());
+                        }
+                        local.mkdirs();
+                        directoriesLastModifiedTimes.add(Pair.of(local, mfh.getLastModified()));
+                        continue;
+                    }
 
-                        if(local.exists()) {
-                            if(verbose) {
-                                log.info("overwrite " + mfh.getFilename());
-                            }
-                        } else {
-                            if(verbose) {
-                                log.info("write     " + mfh.getFilename());
-                            }
-                            local.getParentFile().mkdirs();
+                    if(local.exists()) {
+                        if(verbose) {
+                            log.info("overwrite " + mfh.getFilename());
+                        }
+                        if("hardlink".equals(localDedup)) {
+                            // Do not overwrite the contents of other files
+                            // hardlinked to this file
+                            local.delete();
                         }
-                        try(FileOutputStream out = new FileOutputStream(local)) {
-                            IOUtils.copy(mfh.getBody(), out);
-                            totalBytes += mfh.getContentLength();
-                            filesUpdated = true;
-                        } catch(IOException e) {
-                            log.error(String.format("Error writing to local file \"%s\": %s", fs.getLocal(), ExceptionUtils.getMessage(e)));
-                            throw e;
+                    } else {
+                        if(verbose) {
+                            log.info("write     " + mfh.getFilename());
                         }
-                        local.setLastModified(mfh.getLastModified());
+                        local.getParentFile().mkdirs();
                     }
-                    if(decoder.getIOException() != null) {
-                        throw decoder.getIOException();
+                    try(FileChannel out = FileChannel.open(local.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        long written = mfh.writeBody(out);
+                        bytes += written;
+                        totalBytes.addAndGet(written);
+                        filesUpdated = true;
+                    } catch(IOException e) {
+                        log.error(String.format("Error writing to local file \"%s\": %s", fs.getLocal(), ExceptionUtils.getMessage(e)));
+                        throw e;
                     }
+                    local.setLastModified(mfh.getLastModified());
+
+                    // Cache the server hash if the written file is the file
+                    // from the file list
+                    FileRecord fr = chunkRecords.get(mfh.getFilename());
+                    if(fr != null && fr.getHash() != null
+                            && fr.getSize() == mfh.getContentLength()
+                            && fr.getLastModified() == mfh.getLastModified()) {
+                        if(hashCache != null) {
+                            hashCache.put(fr.getName(), hashAlgorithm.getName(), local.length(), local.lastModified(), LocalHashCache.getFileKey(local), fr.getHash());
+                        }
+                        if(localFilesByHash != null) {
+                            localFilesByHash.putIfAbsent(fr.getHash(), fr.getName());
+                        }
+                    }
+                }
+                if(decoder.getIOException() != null) {
+                    throw decoder.getIOException();
+                }
+                if(adaptiveChunkSize != null) {
+                    adaptiveChunkSize.update(bytes, chunkList.size(), System.currentTimeMillis() - startTime, firstByteTime - startTime, full);
                 }
             }
+        } finally {
+            activeRequests.remove(post);
         }
     }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.client.util.HttpClientUtil;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import nl.opengeogroep.filesetsync.util.HttpUtil;
+import org.apache.commons.lang3.mutable.MutableLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import static org.apache.http.HttpStatus.*;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Transfers large files with a separate request each, so an interrupted
+ * transfer can be resumed instead of transferring the whole file again.
+ */
+public class LargeFileTransfer {
+    private static final Log log = LogFactory.getLog(LargeFileTransfer.class);
+
+    /**
+     * Suffix of the partial file a large file is transferred to, which is kept
+     * when the transfer is interrupted to resume it with a Range request.
+     */
+    static final String PART_SUFFIX = ".filesetsync-part";
+
+    private final FileTransferContext context;
+
+    private final long minSize;
+
+    /**
+     * @param minSize minimum size of files to transfer separately
+     */
+    public LargeFileTransfer(FileTransferContext context, long minSize) {
+        this.context = context;
+        this.minSize = minSize;
+    }
+
+    /**
+     * @return the minimum size of files to transfer separately
+     */
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Transfer a single large file to a partial file next to the local file,
+     * which is renamed to the local file when complete. An interrupted
+     * transfer is resumed with a Range request. While not being written the
+     * partial file has the last modified time of the file record, so a
+     * partial file of another version of the file is not resumed. A resumed
+     * file is verified using the hash from the file list, if available.
+     */
+    public void transfer(FileRecord fr, boolean verbose) throws IOException {
+        File local = context.getLocalFile(fr);
+        String url = context.getUrl("get", fr);
+        File part = new File(local.getPath() + PART_SUFFIX);
+
+        long offset = 0;
+        if(part.exists()) {
+            if(part.lastModified() == fr.getLastModified() && part.length() < fr.getSize()) {
+                offset = part.length();
+            } else {
+                log.info("Not resuming partial file of other version: " + part);
+            }
+        }
+
+        HttpGet get = new HttpGet(url);
+        HttpUtil httpUtil = new HttpUtil();
+        if(offset > 0) {
+            get.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+            // Server returns the whole file if modified
+            get.setHeader(HttpHeaders.IF_RANGE, httpUtil.formatDate(new Date(fr.getLastModified())));
+        }
+        context.addExtraHeaders(get);
+
+        log.info("> " + get.getRequestLine() + (offset > 0 ? String.format(" (resuming at %d KB of %d KB)", offset / 1024, fr.getSize() / 1024) : ""));
+        long lastModified = fr.getLastModified();
+        boolean resumed = false;
+        context.getActiveRequests().add(get);
+        try(CloseableHttpResponse response = HttpClientUtil.get().execute(get)) {
+            log.info("< " + response.getStatusLine());
+
+            if(Shutdown.isHappening()) {
+                return;
+            }
+
+            int status = response.getStatusLine().getStatusCode();
+
+            context.checkServerTooBusy(response);
+
+            if(status == SC_PARTIAL_CONTENT) {
+                Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+                if(contentRange == null || !contentRange.getValue().startsWith("bytes " + offset + "-")
+                        || !contentRange.getValue().endsWith("/" + fr.getSize())) {
+                    throw new IOException(String.format("Server returned invalid Content-Range \"%s\" for request \"%s\" from byte %d",
+                            contentRange == null ? null : contentRange.getValue(),
+                            get.getRequestLine(),
+                            offset));
+                }
+                resumed = true;
+            } else if(status == SC_OK) {
+                // File modified or server does not support ranges
+                offset = 0;
+                try {
+                    long serverLastModified = httpUtil.parseDate(response.getFirstHeader(HttpHeaders.LAST_MODIFIED).getValue()).getTime();
+                    // Header has a resolution of seconds
+                    if(Math.abs(serverLastModified - lastModified) >= 1000) {
+                        lastModified = serverLastModified;
+                    }
+                } catch(Exception e) {
+                }
+            } else {
+                throw new IOException(String.format("Server returned \"%s\" for request \"%s\", body: %s",
+                        response.getStatusLine(),
+                        get.getRequestLine(),
+                        EntityUtils.toString(response.getEntity())));
+            }
+
+            if(verbose) {
+                log.info((resumed ? "resume    " : local.exists() ? "overwrite " : "write     ") + fr.getName());
+            }
+            local.getAbsoluteFile().getParentFile().mkdirs();
+
+            HttpEntity entity = response.getEntity();
+            long written = 0;
+            try(FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    InputStream in = context.limitBandwidth(entity.getContent())) {
+                out.truncate(offset);
+                out.position(offset);
+                ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+                byte[] array = buffer.array();
+                int read;
+                while((read = in.read(array)) != -1) {
+                    if(Shutdown.isHappening()) {
+                        get.abort();
+                        return;
+                    }
+                    buffer.clear();
+                    buffer.limit(read);
+                    while(buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    written += read;
+                    context.addTransferredBytes(read);
+                }
+            } finally {
+                // Mark the partial file as belonging to this version
+                part.setLastModified(fr.getLastModified());
+            }
+            if(entity.getContentLength() >= 0 && written != entity.getContentLength()) {
+                throw new IOException(String.format("Received %d bytes instead of %d for %s", written, entity.getContentLength(), fr.getName()));
+            }
+        } finally {
+            context.getActiveRequests().remove(get);
+        }
+
+        if(resumed) {
+            long size = part.length();
+            if(size != fr.getSize()) {
+                part.delete();
+                throw new IOException(String.format("Size of resumed file %s is %d instead of %d, transferring again", fr.getName(), size, fr.getSize()));
+            }
+            HashAlgorithm hashAlgorithm = context.getHashAlgorithm();
+            if(fr.getHash() != null && hashAlgorithm != null) {
+                String hash = FileRecord.calculateHash(part, hashAlgorithm, new MutableLong());
+                if(!hash.equals(fr.getHash())) {
+                    part.delete();
+                    throw new IOException(String.format("Hash of resumed file %s does not match, transferring again", fr.getName()));
+                }
+            }
+        }
+
+        context.replaceLocalFile(fr, part, local, lastModified);
+    }
+}
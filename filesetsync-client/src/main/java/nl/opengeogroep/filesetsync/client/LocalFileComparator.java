@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import nl.opengeogroep.filesetsync.FileRecord;
+import static nl.opengeogroep.filesetsync.FileRecord.TYPE_DIRECTORY;
+import static nl.opengeogroep.filesetsync.FileRecord.TYPE_FILE;
+import nl.opengeogroep.filesetsync.client.config.Fileset;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import nl.opengeogroep.filesetsync.hash.HashStatistics;
+import static nl.opengeogroep.filesetsync.util.FormatUtil.dateToString;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.mutable.MutableLong;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Compares a single record from the server file list to the local file. Does
+ * not modify any shared state except the last modified time of the local file,
+ * so multiple records can be compared concurrently.
+ */
+public class LocalFileComparator {
+    private static final Log log = LogFactory.getLog(LocalFileComparator.class);
+
+    private final Fileset fs;
+
+    private final boolean singleFile;
+
+    private final boolean setLastModifiedToServer;
+
+    private final HashAlgorithm hashAlgorithm;
+
+    private final LocalHashCache hashCache;
+
+    private final HashStatistics hashStatistics;
+
+    public static class Result {
+        private boolean upToDate;
+        private boolean newerLocal;
+        private Pair<File,Long> directoryLastModified;
+        private long hashBytes;
+        private long hashTimeMillis;
+        private boolean hashCacheHit;
+        private boolean sizeMismatch;
+        private long hashSkippedBytes;
+
+        public boolean isUpToDate() {
+            return upToDate;
+        }
+
+        public boolean isNewerLocal() {
+            return newerLocal;
+        }
+
+        /**
+         * @return local directory and the last modified time to set after the
+         * transfer, or null
+         */
+        public Pair<File, Long> getDirectoryLastModified() {
+            return directoryLastModified;
+        }
+
+        public long getHashBytes() {
+            return hashBytes;
+        }
+
+        public long getHashTimeMillis() {
+            return hashTimeMillis;
+        }
+
+        public boolean isHashCacheHit() {
+            return hashCacheHit;
+        }
+
+        /**
+         * @return whether the local file was not hashed because its size
+         * differs from the file on the server
+         */
+        public boolean isSizeMismatch() {
+            return sizeMismatch;
+        }
+
+        /**
+         * @return size of the local file if it was not hashed because of a
+         * size mismatch or a hash cache hit
+         */
+        public long getHashSkippedBytes() {
+            return hashSkippedBytes;
+        }
+    }
+
+    /**
+     * @param fs the fileset
+     * @param singleFile whether the file list is for a single file, in which
+     * case the local path of the fileset is the file itself
+     * @param hashAlgorithm algorithm of the hashes in the file list
+     * @param hashCache cache for local file hashes, may be null
+     * @param hashStatistics statistics for hashing local files, may be null
+     */
+    public LocalFileComparator(Fileset fs, boolean singleFile, HashAlgorithm hashAlgorithm, LocalHashCache hashCache, HashStatistics hashStatistics) {
+        this.fs = fs;
+        this.singleFile = singleFile;
+        this.hashAlgorithm = hashAlgorithm;
+        this.hashCache = hashCache;
+        this.hashStatistics = hashStatistics;
+        this.setLastModifiedToServer = "true".equals(fs.getProperty("setLastModifiedToServer"));
+    }
+
+    /**
+     * Read the attributes of a file with a single call, following symbolic
+     * links like java.io.File does.
+     *
+     * @return the attributes or null if the file does not exist or can not be
+     * accessed
+     */
+    public static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    public Result compare(FileRecord fr) throws IOException {
+        Result result = new Result();
+
+        File localFile;
+        if(singleFile && fr.getType() == TYPE_FILE) {
+            localFile = new File(fs.getLocal());
+        } else {
+            localFile = new File(fs.getLocal() + File.separator + fr.getName());
+        }
+
+        // Read all attributes needed to compare at once instead of a separate
+        // stat for exists(), isFile(), length() and lastModified()
+        BasicFileAttributes attrs = readAttributes(localFile.toPath());
+        if(attrs == null) {
+            return result;
+        }
+        long localLastModified = attrs.lastModifiedTime().toMillis();
+
+        if(fr.getType() == TYPE_DIRECTORY) {
+            if(!attrs.isDirectory()) {
+                log.error("Local file in is the way for remote directory: " + localFile.getCanonicalPath());
+            }
+            if(fr.getLastModified() != localLastModified) {
+                log.trace(String.format("later updating last modified for directory %s", localFile.getCanonicalPath()));
+                result.directoryLastModified = Pair.of(localFile, fr.getLastModified());
+            }
+            result.upToDate = true;
+        }
+        if(fr.getType() == TYPE_FILE) {
+            if(!attrs.isRegularFile()) {
+                log.error("Local non-file is in the way for remote file: " + localFile.getCanonicalPath());
+            }
+            if(fs.isHash()) {
+                // Cheapest check first: a file with a different size can not
+                // have the same hash, no need to read it
+                if(attrs.size() != fr.getSize()) {
+                    if(log.isTraceEnabled()) {
+                        log.trace("Size mismatch for " + fr.getName());
+                    }
+                    result.sizeMismatch = true;
+                    result.hashSkippedBytes = attrs.size();
+                    return result;
+                }
+                try {
+                    String fileKey = null;
+                    String hash = null;
+                    if(hashCache != null) {
+                        fileKey = LocalHashCache.getFileKey(attrs);
+                        hash = hashCache.getHash(fr.getName(), hashAlgorithm.getName(), attrs.size(), localLastModified, fileKey);
+                        result.hashCacheHit = hash != null;
+                        if(result.hashCacheHit) {
+                            result.hashSkippedBytes = attrs.size();
+                        }
+                    }
+                    if(hash == null) {
+                        MutableLong hashTime = new MutableLong();
+                        hash = FileRecord.calculateHash(localFile, hashAlgorithm, hashTime, hashStatistics);
+                        result.hashTimeMillis = hashTime.longValue();
+                        result.hashBytes = attrs.size();
+                    }
+                    boolean lastModifiedUpdated = false;
+                    if(hash.equals(fr.getHash())) {
+                        if(log.isTraceEnabled()) {
+                            log.trace("Same hash for " + fr.getName());
+                        }
+                        if(fr.getLastModified() > localLastModified) {
+                            if(log.isTraceEnabled()) {
+                                log.trace("Same hash, updating last modified for " + fr.getName());
+                            }
+                            lastModifiedUpdated = localFile.setLastModified(fr.getLastModified());
+                        }
+                        result.upToDate = true;
+                    } else {
+                        if(log.isTraceEnabled()) {
+                            log.trace("Hash mismatch for " + fr.getName());
+                        }
+                    }
+                    if(hashCache != null && (!result.hashCacheHit || lastModifiedUpdated)) {
+                        hashCache.put(fr.getName(), hashAlgorithm.getName(), attrs.size(), lastModifiedUpdated ? localFile.lastModified() : localLastModified, fileKey, hash);
+                    }
+                } catch(Exception e) {
+                    log.error("Error hashing " + localFile.getCanonicalPath() + ": " + ExceptionUtils.getMessage(e));
+                }
+            } else {
+                if(fr.getLastModified() > localLastModified) {
+                    if(log.isTraceEnabled()) {
+                        log.trace("Remote file newer: " + fr.getName());
+                    }
+                } else if(fr.getLastModified() < localLastModified) {
+                    if(setLastModifiedToServer) {
+                        localFile.setLastModified(fr.getLastModified());
+                    } else {
+                        if(log.isTraceEnabled()) {
+                            log.trace(String.format("Keeping local file last modified at %s, later than remote file at %s: ", dateToString(new Date(localLastModified)), dateToString(new Date(fr.getLastModified())), fr.getName()));
+                        }
+                    }
+                    result.newerLocal = true;
+                    result.upToDate = true;
+                } else {
+                    if(log.isTraceEnabled()) {
+                        log.trace("Local file unmodified: " + fr.getName());
+                    }
+                    result.upToDate = true;
+                }
+            }
+        }
+        return result;
+    }
+}
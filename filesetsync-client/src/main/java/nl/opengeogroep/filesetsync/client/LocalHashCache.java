@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Persistent cache of hashes of local files for filesets with hash=true, so
+ * unchanged local files are not hashed again on every run. Entries are keyed
+ * by the path relative to the fileset root and are only valid when the size,
+ * last modified time and (where the filesystem provides one) the file key of
+ * the local file are unchanged.
+ * <p>
+ * The cache is saved in the var directory in its own versioned format, so it
+ * is kept when the sync job state is discarded after a version upgrade.
+ */
+public class LocalHashCache {
+    private static final Log log = LogFactory.getLog(LocalHashCache.class);
+
+    private static final String HEADER = "filesetsync:hashcache:2";
+
+    /**
+     * Format without hash algorithm, all hashes are MD5.
+     */
+    private static final String HEADER_V1 = "filesetsync:hashcache:1";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final String filesetName;
+
+    private final Map<String,Entry> entries = new ConcurrentHashMap();
+
+    private volatile boolean modified = false;
+
+    private static class Entry {
+        final String algorithm;
+        final long size;
+        final long lastModified;
+        final String fileKey;
+        final String hash;
+        volatile boolean used;
+
+        Entry(String algorithm, long size, long lastModified, String fileKey, String hash) {
+            this.algorithm = algorithm;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+        }
+    }
+
+    private LocalHashCache(String filesetName) {
+        this.filesetName = filesetName;
+    }
+
+    private static File getCacheFile(String filesetName) {
+        return new File(SyncConfig.getInstance().getVarDir() + File.separator + filesetName + ".hashcache.txt.gz");
+    }
+
+    /**
+     * Return the file key (inode on Unix) of a file as a string or null if
+     * the filesystem does not provide one.
+     */
+    public static String getFileKey(File f) {
+        try {
+            return getFileKey(Files.readAttributes(f.toPath(), BasicFileAttributes.class));
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    public static String getFileKey(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? null : key.toString();
+    }
+
+    /**
+     * Load the persisted cache for a fileset. Returns an empty cache if there
+     * is no persisted cache or it could not be read.
+     */
+    public static LocalHashCache load(String filesetName) {
+        LocalHashCache cache = new LocalHashCache(filesetName);
+
+        File f = getCacheFile(filesetName);
+        if(!f.exists()) {
+            return cache;
+        }
+
+        long startTime = System.currentTimeMillis();
+        try(BufferedReader br = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(f)), CHARSET))) {
+            String line = br.readLine();
+            boolean v1 = HEADER_V1.equals(line);
+            if(!HEADER.equals(line) && !v1) {
+                log.warn("Ignoring local hash cache with unknown format: " + f);
+                return cache;
+            }
+            while((line = br.readLine()) != null) {
+                if(v1) {
+                    line = HashAlgorithm.MD5 + "|" + line;
+                }
+                // The name is last because it may contain the separator
+                String[] s = line.split("\\|", 6);
+                if(s.length != 6) {
+                    continue;
+                }
+                cache.entries.put(s[5], new Entry(s[0], Long.parseLong(s[1]), Long.parseLong(s[2]), "null".equals(s[3]) ? null : s[3], s[4]));
+            }
+            log.info(String.format("Read local hash cache with %d entries in %s",
+                    cache.entries.size(),
+                    DurationFormatUtils.formatDurationWords(System.currentTimeMillis() - startTime, true, false)));
+        } catch(Exception e) {
+            log.error("Error reading local hash cache " + f + ", starting with empty cache: " + e.getClass() + ": " + e.getMessage());
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * @return the cached hash if the local file is unchanged since it was
+     * hashed with the same algorithm, or null
+     */
+    public String getHash(String name, String algorithm, long size, long lastModified, String fileKey) {
+        Entry e = entries.get(name);
+        if(e == null) {
+            return null;
+        }
+        if(!e.algorithm.equals(algorithm) || e.size != size || e.lastModified != lastModified || !Objects.equals(e.fileKey, fileKey)) {
+            return null;
+        }
+        e.used = true;
+        return e.hash;
+    }
+
+    public void put(String name, String algorithm, long size, long lastModified, String fileKey, String hash) {
+        Entry e = new Entry(algorithm, size, lastModified, fileKey, hash);
+        e.used = true;
+        entries.put(name, e);
+        modified = true;
+    }
+
+    /**
+     * Save the cache if it was modified.
+     *
+     * @param removeUnused if true, do not save entries which were not looked
+     * up or updated since the cache was loaded. Only use this after all local
+     * files were compared, otherwise entries are needlessly lost.
+     */
+    public void save(boolean removeUnused) {
+        if(!modified && !removeUnused) {
+            return;
+        }
+        File f = getCacheFile(filesetName);
+        File temp = new File(f.getPath() + ".tmp");
+        long startTime = System.currentTimeMillis();
+        int count = 0;
+        try {
+            try(BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(temp)), CHARSET))) {
+                writer.write(HEADER);
+                writer.newLine();
+                for(Map.Entry<String,Entry> me: entries.entrySet()) {
+                    Entry e = me.getValue();
+                    if(removeUnused && !e.used) {
+                        continue;
+                    }
+                    writer.write(e.algorithm + "|" + e.size + "|" + e.lastModified + "|" + e.fileKey + "|" + e.hash + "|" + me.getKey());
+                    writer.newLine();
+                    count++;
+                }
+            }
+            if(f.exists() && !f.delete()) {
+                throw new IOException("Can't delete old cache file " + f);
+            }
+            if(!temp.renameTo(f)) {
+                throw new IOException("Can't rename " + temp + " to " + f);
+            }
+            modified = false;
+            log.info(String.format("Saved local hash cache with %d entries in %s",
+                    count,
+                    DurationFormatUtils.formatDurationWords(System.currentTimeMillis() - startTime, true, false)));
+        } catch(IOException e) {
+            log.error("Error saving local hash cache to " + f + ": " + e.getClass() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Deletes local files and directory trees using a bounded number of threads.
+ * The entries of a directory are split into batches and subdirectories are
+ * deleted as separate tasks, so independent subtrees and large directories
+ * are deleted in parallel. Symbolic links are deleted and not followed.
+ * <p>
+ * Stops deleting when the client is shutting down.
+ */
+public class LocalTreeDeleter implements AutoCloseable {
+    private static final Log log = LogFactory.getLog(LocalTreeDeleter.class);
+
+    /**
+     * Maximum number of entries deleted by a single task.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private final ForkJoinPool pool;
+
+    private final AtomicLong deletedFiles = new AtomicLong();
+
+    private final AtomicLong deletedDirectories = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    public LocalTreeDeleter(int threads) {
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+
+    public long getDeletedFiles() {
+        return deletedFiles.get();
+    }
+
+    public long getDeletedDirectories() {
+        return deletedDirectories.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Delete files and directory trees and wait until they are deleted or the
+     * client is shutting down. Errors are logged.
+     */
+    public void delete(List<Path> paths) {
+        if(!paths.isEmpty()) {
+            pool.invoke(new DeleteTask(paths, 0, paths.size()));
+        }
+    }
+
+    private class DeleteTask extends RecursiveAction {
+        private final List<Path> paths;
+        private final int from, to;
+
+        DeleteTask(List<Path> paths, int from, int to) {
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DeleteTask(paths, from, middle), new DeleteTask(paths, middle, to));
+                return;
+            }
+            for(int i = from; i < to; i++) {
+                if(Shutdown.isHappening()) {
+                    return;
+                }
+                Path p = paths.get(i);
+                if(Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                    deleteTree(p);
+                } else {
+                    deletePath(p, deletedFiles);
+                }
+            }
+        }
+    }
+
+    private void deleteTree(Path dir) {
+        List<Path> children = new ArrayList();
+        try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for(Path p: ds) {
+                children.add(p);
+            }
+        } catch(NoSuchFileException e) {
+            return;
+        } catch(IOException e) {
+            errors.incrementAndGet();
+            log.error("Error listing local directory to delete " + dir + ": " + ExceptionUtils.getMessage(e));
+            return;
+        }
+        // Runs in the current thread, idle threads steal the split batches
+        // and subdirectories
+        new DeleteTask(children, 0, children.size()).invoke();
+        if(!Shutdown.isHappening()) {
+            deletePath(dir, deletedDirectories);
+        }
+    }
+
+    private void deletePath(Path p, AtomicLong counter) {
+        try {
+            if(Files.deleteIfExists(p)) {
+                counter.incrementAndGet();
+            }
+        } catch(IOException e) {
+            errors.incrementAndGet();
+            log.error("Exception deleting file " + p + ": " + ExceptionUtils.getMessage(e));
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
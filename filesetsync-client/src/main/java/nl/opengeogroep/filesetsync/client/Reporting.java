@@ -33,7 +33,6 @@ import static org.apache.http.HttpStatus.SC_OK;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
 import org.json.JSONObject;
 
 /**
@@ -96,8 +95,8 @@ public class Reporting {
 
         log.trace("> " + post.getRequestLine());
 
-        try(CloseableHttpClient httpClient = HttpClientUtil.get()) {
-            Boolean ok = httpClient.execute(post, new ResponseHandler<Boolean>() {
+        try {
+            Boolean ok = HttpClientUtil.get().execute(post, new ResponseHandler<Boolean>() {
                 @Override
                 public Boolean handleResponse(HttpResponse hr) {
                     log.trace("< " + hr.getStatusLine());
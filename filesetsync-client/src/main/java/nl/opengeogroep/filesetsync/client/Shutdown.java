@@ -27,7 +27,7 @@ import org.apache.commons.logging.LogFactory;
 public class Shutdown extends Thread {
     private static final Log log = LogFactory.getLog(Shutdown.class);
 
-    private static boolean happening = false;
+    private static volatile boolean happening = false;
 
     public static boolean isHappening() {
         return happening;
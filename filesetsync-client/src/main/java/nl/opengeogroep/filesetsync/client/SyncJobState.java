@@ -17,31 +17,47 @@
 
 package nl.opengeogroep.filesetsync.client;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import nl.opengeogroep.filesetsync.FileRecord;
 import nl.opengeogroep.filesetsync.client.config.Fileset;
 import static nl.opengeogroep.filesetsync.client.config.Fileset.*;
 import nl.opengeogroep.filesetsync.protocol.Protocol;
 import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import nl.opengeogroep.filesetsync.encoding.ContentEncoding;
+import nl.opengeogroep.filesetsync.protocol.BinaryFileList;
 import nl.opengeogroep.filesetsync.protocol.BufferedFileListEncoder;
+import org.apache.commons.lang3.SystemUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.http.Header;
 import org.json.JSONObject;
 
@@ -52,6 +68,8 @@ import org.json.JSONObject;
 public class SyncJobState implements Serializable {
     private static final long serialVersionUID = 2L;
 
+    private static final Log log = LogFactory.getLog(SyncJobState.class);
+
     public static final String STATE_WAITING = "waiting";
     public static final String STATE_SCHEDULED = "scheduled";
     public static final String STATE_STARTED = "started";
@@ -82,6 +100,7 @@ public class SyncJobState implements Serializable {
     private transient Long progressCount;
     private transient Long progressSizeTotal;
     private transient Long progressSize;
+    private transient Long transferRate;
 
     private Date lastFinished;
 
@@ -97,8 +116,42 @@ public class SyncJobState implements Serializable {
 
     private boolean fileListHashed;
 
+    /**
+     * Hash algorithm of the cached file list if hashed, null for the default
+     * algorithm.
+     */
+    private String fileListHashAlgorithm;
+
     private Integer resumeFileListIndex;
 
+    /**
+     * Number of directories already checked when the delete phase was
+     * suspended, null if not suspended during delete.
+     */
+    private Integer resumeDeleteDirectoryIndex;
+
+    /**
+     * Index in the file list to continue comparing from when the compare phase
+     * was suspended, null if not suspended during compare.
+     */
+    private Integer resumeCompareIndex;
+
+    /**
+     * Indexes in the cached file list of files which were compared and found
+     * up-to-date, so they are not compared or transferred again when resuming.
+     */
+    private BitSet resumeUpToDateIndexes;
+
+    private List<Pair<File,Long>> resumeDirectoriesLastModified;
+
+    /**
+     * Date of the file list for which the local snapshot was saved after a
+     * completed run, null if there is no valid snapshot.
+     */
+    private Date localSnapshotFileListDate;
+
+    private Date lastFullCompare;
+
     private transient int failedTries;
 
     private transient Integer busyRetryAfter;
@@ -202,6 +255,14 @@ public class SyncJobState implements Serializable {
         this.fileListHashed = fileListHashed;
     }
 
+    public String getFileListHashAlgorithm() {
+        return fileListHashAlgorithm;
+    }
+
+    public void setFileListHashAlgorithm(String fileListHashAlgorithm) {
+        this.fileListHashAlgorithm = fileListHashAlgorithm;
+    }
+
     public Integer getResumeFileListIndex() {
         return resumeFileListIndex;
     }
@@ -210,6 +271,54 @@ public class SyncJobState implements Serializable {
         this.resumeFileListIndex = resumeFileListIndex;
     }
 
+    public Integer getResumeDeleteDirectoryIndex() {
+        return resumeDeleteDirectoryIndex;
+    }
+
+    public void setResumeDeleteDirectoryIndex(Integer resumeDeleteDirectoryIndex) {
+        this.resumeDeleteDirectoryIndex = resumeDeleteDirectoryIndex;
+    }
+
+    public Integer getResumeCompareIndex() {
+        return resumeCompareIndex;
+    }
+
+    public void setResumeCompareIndex(Integer resumeCompareIndex) {
+        this.resumeCompareIndex = resumeCompareIndex;
+    }
+
+    public BitSet getResumeUpToDateIndexes() {
+        return resumeUpToDateIndexes;
+    }
+
+    public void setResumeUpToDateIndexes(BitSet resumeUpToDateIndexes) {
+        this.resumeUpToDateIndexes = resumeUpToDateIndexes;
+    }
+
+    public List<Pair<File, Long>> getResumeDirectoriesLastModified() {
+        return resumeDirectoriesLastModified;
+    }
+
+    public void setResumeDirectoriesLastModified(List<Pair<File, Long>> resumeDirectoriesLastModified) {
+        this.resumeDirectoriesLastModified = resumeDirectoriesLastModified;
+    }
+
+    public Date getLocalSnapshotFileListDate() {
+        return localSnapshotFileListDate;
+    }
+
+    public void setLocalSnapshotFileListDate(Date localSnapshotFileListDate) {
+        this.localSnapshotFileListDate = localSnapshotFileListDate;
+    }
+
+    public Date getLastFullCompare() {
+        return lastFullCompare;
+    }
+
+    public void setLastFullCompare(Date lastFullCompare) {
+        this.lastFullCompare = lastFullCompare;
+    }
+
     public int getFailedTries() {
         return failedTries;
     }
@@ -276,30 +385,185 @@ public class SyncJobState implements Serializable {
     public void setProgressSize(Long progressSize) {
         this.progressSize = progressSize;
     }
+
+    /**
+     * @return the effective rate in bytes per second at which files are
+     * received in the current run, or null if not transferring
+     */
+    public Long getTransferRate() {
+        return transferRate;
+    }
+
+    public void setTransferRate(Long transferRate) {
+        this.transferRate = transferRate;
+    }
     // </editor-fold>
 
+    /**
+     * @return compression for the snapshots and the cached file lists in text
+     * format, which are rewritten on every run so fast compression is the
+     * default
+     */
+    private static ContentEncoding getCacheCompression() {
+        String name = SyncConfig.getInstance().getProperty("cacheCompression", ContentEncoding.LZ4);
+        ContentEncoding encoding = ContentEncoding.get(name);
+        if(encoding == null) {
+            log.warn(String.format("Compression \"%s\" for cached files not supported or not available, using %s", name, ContentEncoding.GZIP));
+            encoding = ContentEncoding.getDefault();
+        }
+        return encoding;
+    }
+
+    private static OutputStream compressCacheFile(File f) throws IOException {
+        ContentEncoding encoding = getCacheCompression();
+        return encoding.compress(new FileOutputStream(f), encoding.parseLevel(SyncConfig.getInstance().getProperty("cacheCompressionLevel", "fast")));
+    }
+
+    /**
+     * @param baseName file name in the var directory without the extension
+     * of the compression
+     * @return the file with the extension of the configured compression
+     */
+    private static File getCompressedCacheFile(String baseName) {
+        return new File(SyncConfig.getInstance().getVarDir() + File.separator + baseName + getCacheCompression().getFileExtension());
+    }
+
+    /**
+     * @return the existing file with the extension of any compression, or
+     * null if it does not exist
+     */
+    private static File findCompressedCacheFile(String baseName) {
+        for(ContentEncoding encoding: ContentEncoding.getAll()) {
+            File f = new File(SyncConfig.getInstance().getVarDir() + File.separator + baseName + encoding.getFileExtension());
+            if(f.exists()) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Delete the file with the extension of any compression.
+     */
+    private static void deleteCompressedCacheFiles(String baseName) throws IOException {
+        for(ContentEncoding encoding: ContentEncoding.getAll()) {
+            Files.deleteIfExists(new File(SyncConfig.getInstance().getVarDir() + File.separator + baseName + encoding.getFileExtension()).toPath());
+        }
+    }
+
+    /**
+     * Write the file list cache in the binary format, so it can be read
+     * without parsing. The list is written to a temporary file which replaces
+     * the previous cache, so a mapped view of the previous cache which may
+     * still be in use is not affected. Falls back to the compressed text
+     * format if the list can not be written in the binary format.
+     */
     public static void writeCachedFileList(String name, List<FileRecord> fileList) throws IOException {
+        File binary = getBinaryFileListCacheFile(name);
+        File temp = new File(binary.getPath() + ".tmp");
+        try {
+            BinaryFileList.write(temp.toPath(), fileList);
+            Files.move(temp.toPath(), binary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            deleteCompressedCacheFiles(getFileListCacheBaseName(name));
+            return;
+        } catch(IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            log.warn("Error writing binary file list cache, using text format: " + e.getMessage());
+        }
+        Files.deleteIfExists(binary.toPath());
+        deleteCompressedCacheFiles(getFileListCacheBaseName(name));
         try(
-                GZIPOutputStream gzOut = new GZIPOutputStream(new FileOutputStream(getFileListCacheFile(name)));
-                BufferedFileListEncoder encoder = new BufferedFileListEncoder(gzOut)) {
+                OutputStream out = compressCacheFile(getCompressedCacheFile(getFileListCacheBaseName(name)));
+                BufferedFileListEncoder encoder = new BufferedFileListEncoder(out)) {
             for (FileRecord fr: fileList) {
                 encoder.write(fr);
             }
         }
     }
 
-    private static File getFileListCacheFile(String name) {
-        return new File(SyncConfig.getInstance().getVarDir() + File.separator + name + ".filelist.txt.gz");
+    private static String getFileListCacheBaseName(String name) {
+        return name + ".filelist.txt";
+    }
+
+    private static File getBinaryFileListCacheFile(String name) {
+        return new File(SyncConfig.getInstance().getVarDir() + File.separator + name + ".filelist.bin");
     }
 
     public static boolean haveCachedFileList(String name) {
-        File f = getFileListCacheFile(name);
-        return f.exists() && f.canRead();
+        File f = getBinaryFileListCacheFile(name);
+        if(f.exists() && f.canRead()) {
+            return true;
+        }
+        f = findCompressedCacheFile(getFileListCacheBaseName(name));
+        return f != null && f.canRead();
     }
 
+    /**
+     * Read the cached file list. The binary format is memory-mapped and file
+     * records are only created when accessed, except on Windows where a
+     * mapped file can not be replaced while the mapping is in use. A cache in
+     * the text format written by a previous version is still read.
+     */
     public static List<FileRecord> readCachedFileList(String name) throws IOException {
-        try(GZIPInputStream gzIn = new GZIPInputStream(new FileInputStream(getFileListCacheFile(name)))) {
-            return Protocol.decodeFilelist(gzIn);
+        File binary = getBinaryFileListCacheFile(name);
+        if(binary.exists()) {
+            return BinaryFileList.read(binary.toPath(), !SystemUtils.IS_OS_WINDOWS);
+        }
+        File f = findCompressedCacheFile(getFileListCacheBaseName(name));
+        if(f == null) {
+            throw new FileNotFoundException("No cached file list for " + name);
+        }
+        try(InputStream in = ContentEncoding.decompressAny(new FileInputStream(f))) {
+            return Protocol.decodeFilelist(in);
+        }
+    }
+
+    private static String getLocalSnapshotBaseName(String name) {
+        return name + ".snapshot.txt";
+    }
+
+    /**
+     * Save the last modified times of local directories after a completed run.
+     * The first line is the local path of the fileset, so the snapshot is not
+     * used when the local path is changed.
+     *
+     * @param name fileset name
+     * @param local local path of the fileset
+     * @param lastModifiedTimes last modified time by directory name relative
+     * to the local path
+     */
+    public static void writeLocalSnapshot(String name, String local, Map<String,Long> lastModifiedTimes) throws IOException {
+        deleteCompressedCacheFiles(getLocalSnapshotBaseName(name));
+        try(BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(compressCacheFile(getCompressedCacheFile(getLocalSnapshotBaseName(name))), "UTF-8"))) {
+            writer.write(local);
+            writer.newLine();
+            for(Map.Entry<String,Long> entry: lastModifiedTimes.entrySet()) {
+                writer.write(entry.getValue() + "|" + entry.getKey());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @return the last modified times of local directories saved by
+     * writeLocalSnapshot() or null if there is no snapshot for the local path
+     */
+    public static Map<String,Long> readLocalSnapshot(String name, String local) throws IOException {
+        File f = findCompressedCacheFile(getLocalSnapshotBaseName(name));
+        if(f == null) {
+            return null;
+        }
+        try(BufferedReader br = new BufferedReader(new InputStreamReader(ContentEncoding.decompressAny(new FileInputStream(f)), "UTF-8"))) {
+            if(!local.equals(br.readLine())) {
+                return null;
+            }
+            Map<String,Long> lastModifiedTimes = new LinkedHashMap();
+            String line;
+            while((line = br.readLine()) != null) {
+                int i = line.indexOf('|');
+                lastModifiedTimes.put(line.substring(i+1), Long.parseLong(line.substring(0, i)));
+            }
+            return lastModifiedTimes;
         }
     }
 
@@ -322,6 +586,7 @@ public class SyncJobState implements Serializable {
         j.put("progress_count", progressCount);
         j.put("progress_size_total", progressSizeTotal);
         j.put("progress_size", progressSize);
+        j.put("transfer_rate", transferRate);
         return j;
     }
 
@@ -335,6 +600,21 @@ public class SyncJobState implements Serializable {
         SyncJobStatePersistence.persist();
     }
 
+    /**
+     * @return whether a previous run saved a point to resume from
+     */
+    boolean canResume() {
+        return resumeDeleteDirectoryIndex != null || resumeCompareIndex != null || resumeFileListIndex != null;
+    }
+
+    void clearResumeState() {
+        resumeDeleteDirectoryIndex = null;
+        resumeCompareIndex = null;
+        resumeFileListIndex = null;
+        resumeUpToDateIndexes = null;
+        resumeDirectoriesLastModified = null;
+    }
+
     void endRun(String state) {
         endRun(state, null);
     }
@@ -359,6 +639,7 @@ public class SyncJobState implements Serializable {
         setProgressCount(null);
         setProgressSizeTotal(null);
         setProgressSize(null);
+        setTransferRate(null);
 
         SyncJobStatePersistence.persist();
     }
@@ -30,6 +30,7 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
+import nl.opengeogroep.filesetsync.util.FormatUtil;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.commons.logging.Log;
@@ -183,6 +184,45 @@ public class SyncConfig {
         return defaultValue;
     }
 
+    /**
+     * @return the global property as an integer, or the default value if the
+     * property is not set or is not an integer of at least minValue, in which
+     * case a warning is logged
+     */
+    public int getIntProperty(String name, int defaultValue, int minValue) {
+        String value = getProperty(name, null);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value.trim());
+            if(i >= minValue) {
+                return i;
+            }
+        } catch(NumberFormatException e) {
+        }
+        log.warn(String.format("Invalid value for global property %s: \"%s\", using default %d", name, value, defaultValue));
+        return defaultValue;
+    }
+
+    /**
+     * @return the global property as a number of bytes with an optional suffix
+     * such as "M", or the default value if the property is not set or is not
+     * a positive size, in which case a warning is logged
+     */
+    public long getByteSizeProperty(String name, String defaultValue) {
+        String value = getProperty(name, defaultValue);
+        try {
+            long size = FormatUtil.parseByteSize(value);
+            if(size > 0) {
+                return size;
+            }
+        } catch(NumberFormatException e) {
+        }
+        log.warn(String.format("Invalid value for global property %s: \"%s\", using default %s", name, value, defaultValue));
+        return FormatUtil.parseByteSize(defaultValue);
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this, ToStringStyle.MULTI_LINE_STYLE);
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.protocol.BufferedFileListEncoder;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Request entity for a file list which is gzip compressed and encoded while
+ * it is written to the connection, instead of buffering the encoded list in
+ * memory first. The length is unknown so the entity is sent using chunked
+ * transfer encoding. The entity is repeatable because the records are kept in
+ * memory and can be encoded again when a request is retried.
+ */
+public class FileListEntity extends AbstractHttpEntity {
+    private final List<FileRecord> records;
+
+    public FileListEntity(List<FileRecord> records) {
+        this.records = records;
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        writeTo(b);
+        return new ByteArrayInputStream(b.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        // Closing the encoder finishes the gzip stream, the caller closes the
+        // connection output stream
+        new BufferedFileListEncoder(new GZIPOutputStream(new CloseShieldOutputStream(out))).writeAll(records).close();
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
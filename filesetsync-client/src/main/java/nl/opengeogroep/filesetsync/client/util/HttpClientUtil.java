@@ -17,18 +17,132 @@
 
 package nl.opengeogroep.filesetsync.client.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import nl.opengeogroep.filesetsync.encoding.ContentEncoding;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateInputStreamFactory;
+import org.apache.http.client.entity.GZIPInputStreamFactory;
+import org.apache.http.client.entity.InputStreamFactory;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 
 /**
+ * Provides a single HTTP client shared by all requests, so connections to the
+ * server are kept alive and reused between requests instead of paying for a
+ * new TCP and TLS handshake for every request.
+ * <p>
+ * The client is configured using the global properties httpMaxConnections,
+ * httpMaxConnectionsPerRoute and httpKeepAliveSeconds. Closing the client
+ * returned by {@link #get()} does not close the pooled connections.
+ * <p>
+ * Responses are accepted and decompressed in all content encodings available
+ * on this platform.
  *
  * @author Matthijs Laan
  */
 public class HttpClientUtil {
+    private static final Log log = LogFactory.getLog(HttpClientUtil.class);
 
-    public static CloseableHttpClient get() {
-        return HttpClients.custom()
+    private static CloseableHttpClient client;
+
+    private static PoolingHttpClientConnectionManager connectionManager;
+
+    private static final AtomicLong requests = new AtomicLong();
+
+    private static final AtomicLong connections = new AtomicLong();
+
+    /**
+     * Connection manager counting the number of new connections, the other
+     * requests reused a pooled connection.
+     */
+    private static class CountingConnectionManager extends PoolingHttpClientConnectionManager {
+        @Override
+        public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+            connections.incrementAndGet();
+            super.connect(managedConn, route, connectTimeout, context);
+        }
+    }
+
+    public static synchronized CloseableHttpClient get() {
+        if(client != null) {
+            return client;
+        }
+
+        SyncConfig config = SyncConfig.getInstance();
+        int maxConnections = config.getIntProperty("httpMaxConnections", 20, 1);
+        int maxPerRoute = config.getIntProperty("httpMaxConnectionsPerRoute", 10, 1);
+        final long keepAliveMillis = config.getIntProperty("httpKeepAliveSeconds", 60, 1) * 1000L;
+
+        connectionManager = new CountingConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        // Check whether a pooled connection was closed by the server before
+        // reusing it after being idle for a while
+        connectionManager.setValidateAfterInactivity(2000);
+
+        log.debug(String.format("Creating HTTP client with max %d connections, max %d per server and %d seconds keep-alive",
+                maxConnections, maxPerRoute, keepAliveMillis / 1000));
+
+        // Keep connections alive for the time the server specifies, but not
+        // longer than configured
+        ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                return duration < 0 ? keepAliveMillis : Math.min(duration, keepAliveMillis);
+            }
+        };
+
+        // The evictor thread is a daemon thread
+        IdleConnectionEvictor evictor = new IdleConnectionEvictor(connectionManager, keepAliveMillis, TimeUnit.MILLISECONDS);
+        evictor.start();
+
+        // Accept the compression encodings available on this platform, the
+        // server chooses which one to use
+        Map<String,InputStreamFactory> decoders = new LinkedHashMap();
+        for(final ContentEncoding encoding: ContentEncoding.getAvailable()) {
+            decoders.put(encoding.getName(), new InputStreamFactory() {
+                @Override
+                public InputStream create(InputStream in) throws IOException {
+                    return encoding.decompress(in);
+                }
+            });
+        }
+        decoders.put("x-gzip", GZIPInputStreamFactory.getInstance());
+        decoders.put("deflate", DeflateInputStreamFactory.getInstance());
+
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setContentDecoderRegistry(decoders)
+                // Callers close the client after use as if it were not
+                // shared, do not close the pooled connections
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .addInterceptorLast(new HttpRequestInterceptor() {
+                    @Override
+                    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                        requests.incrementAndGet();
+                    }
+                })
                 .setDefaultRequestConfig(RequestConfig.custom()
                         .setConnectTimeout(15 * 1000)
                         // The server may take a while to respond... wait 5 minutes
@@ -37,5 +151,29 @@ public class HttpClientUtil {
                 )
                 .setUserAgent(Version.getProperty("project.name") + "/" + Version.getProperty("project.version"))
                 .build();
+        return client;
+    }
+
+    /**
+     * @return the number of requests sent by the shared client
+     */
+    public static long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of connections opened by the shared client, requests
+     * not opening a connection reused a pooled connection
+     */
+    public static long getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * @return statistics of the connection pool, or null if no client was
+     * created
+     */
+    public static synchronized String getPoolStats() {
+        return connectionManager == null ? null : connectionManager.getTotalStats().toString();
     }
 }
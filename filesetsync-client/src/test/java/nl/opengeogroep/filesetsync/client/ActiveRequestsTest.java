@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActiveRequestsTest {
+
+    private ServerSocket serverSocket;
+
+    private CloseableHttpClient httpClient;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        // Accepts connections but never responds
+        serverSocket = new ServerSocket(0);
+        httpClient = HttpClients.createDefault();
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        httpClient.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void testTerminateAbortsRequests() throws Exception {
+        final ActiveRequests activeRequests = new ActiveRequests();
+        final CountDownLatch executing = new CountDownLatch(2);
+        final AtomicBoolean returned = new AtomicBoolean();
+        Future[] futures = new Future[2];
+        for(int i = 0; i < futures.length; i++) {
+            futures[i] = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    HttpGet get = new HttpGet("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+                    activeRequests.add(get);
+                    executing.countDown();
+                    try {
+                        httpClient.execute(get).close();
+                        returned.set(true);
+                    } catch(Exception e) {
+                    } finally {
+                        activeRequests.remove(get);
+                    }
+                }
+            });
+        }
+        assertTrue(executing.await(10, TimeUnit.SECONDS));
+        Socket s1 = serverSocket.accept();
+        Socket s2 = serverSocket.accept();
+
+        long start = System.currentTimeMillis();
+        assertTrue(activeRequests.terminate(executor));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(executor.isTerminated());
+        assertFalse(returned.get());
+        for(Future f: futures) {
+            assertTrue(f.isDone());
+        }
+        s1.close();
+        s2.close();
+    }
+
+    @Test
+    public void testTerminateTimeout() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                // Ignores interrupts
+                while(true) {
+                    try {
+                        release.await();
+                        return;
+                    } catch(InterruptedException e) {
+                    }
+                }
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        assertFalse(new ActiveRequests().terminate(executor, 300));
+        assertFalse(executor.isTerminated());
+        release.countDown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import nl.opengeogroep.filesetsync.client.config.Property;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveChunkSizeTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private List<Property> properties;
+
+    @Before
+    public void setUp() throws Exception {
+        properties = new ArrayList();
+        property("chunkSizeMin", "1M");
+        property("chunkSizeMax", "8M");
+        property("chunkMaxFiles", "4000");
+        property("chunkTargetSeconds", "10");
+
+        SyncConfig config = new SyncConfig();
+        config.setProperties(properties);
+        Field f = SyncConfig.class.getDeclaredField("instance");
+        f.setAccessible(true);
+        f.set(null, config);
+    }
+
+    private void property(String name, String value) {
+        Property p = new Property();
+        p.setName(name);
+        p.setValue(value);
+        properties.add(p);
+    }
+
+    @Test
+    public void testInitialSizeClamped() {
+        AdaptiveChunkSize size = new AdaptiveChunkSize(100 * MB);
+        assertEquals(8 * MB, size.getChunkBytes());
+        assertEquals(1000, size.getChunkFiles());
+
+        size = new AdaptiveChunkSize(1024);
+        assertEquals(1 * MB, size.getChunkBytes());
+    }
+
+    @Test
+    public void testGrow() {
+        AdaptiveChunkSize size = new AdaptiveChunkSize(2 * MB);
+        size.update(2 * MB, 1000, 8000, 100, true);
+        assertEquals(2 * MB * 10 / 8, size.getChunkBytes());
+        assertEquals(1250, size.getChunkFiles());
+    }
+
+    @Test
+    public void testGrowAtMostDoubled() {
+        AdaptiveChunkSize size = new AdaptiveChunkSize(2 * MB);
+        size.update(2 * MB, 1000, 100, 10, true);
+        assertEquals(4 * MB, size.getChunkBytes());
+        assertEquals(2000, size.getChunkFiles());
+    }
+
+    @Test
+    public void testShrink() {
+        AdaptiveChunkSize size = new AdaptiveChunkSize(4 * MB);
+        size.update(4 * MB, 1000, 16000, 100, true);
+        assertEquals(4 * MB * 10 / 16, size.getChunkBytes());
+        assertEquals(625, size.getChunkFiles());
+    }
+
+    @Test
+    public void testShrinkAtMostHalved() {
+        AdaptiveChunkSize size = new AdaptiveChunkSize(4 * MB);
+        size.update(4 * MB, 1000, 600000, 100, true);
+        assertEquals(2 * MB, size.getChunkBytes());
+        assertEquals(500, size.getChunkFiles());
+    }
+
+    @Test
+    public void testClamp() {
+        AdaptiveChunkSize size = new AdaptiveChunkSize(2 * MB);
+        for(int i = 0; i < 10; i++) {
+            size.update(size.getChunkBytes(), size.getChunkFiles(), 100, 10, true);
+        }
+        assertEquals(8 * MB, size.getChunkBytes());
+        assertEquals(4000, size.getChunkFiles());
+
+        for(int i = 0; i < 20; i++) {
+            size.update(size.getChunkBytes(), size.getChunkFiles(), 600000, 100, true);
+        }
+        assertEquals(1 * MB, size.getChunkBytes());
+        assertEquals(10, size.getChunkFiles());
+    }
+
+    @Test
+    public void testChunkMinFiles() {
+        property("chunkMinFiles", "50");
+        AdaptiveChunkSize size = new AdaptiveChunkSize(2 * MB);
+        for(int i = 0; i < 20; i++) {
+            size.update(size.getChunkBytes(), size.getChunkFiles(), 600000, 100, true);
+        }
+        assertEquals(50, size.getChunkFiles());
+    }
+
+    @Test
+    public void testLatencyBound() {
+        AdaptiveChunkSize size = new AdaptiveChunkSize(2 * MB);
+        // Most of the time spent waiting for the first byte: not shrunk
+        size.update(2 * MB, 1000, 30000, 20000, true);
+        assertEquals(2 * MB, size.getChunkBytes());
+        assertEquals(1000, size.getChunkFiles());
+
+        // Fast chunks still grow
+        size.update(2 * MB, 1000, 5000, 4000, true);
+        assertEquals(4 * MB, size.getChunkBytes());
+    }
+
+    @Test
+    public void testChunkCutShortIgnored() {
+        AdaptiveChunkSize size = new AdaptiveChunkSize(2 * MB);
+        size.update(10 * 1024, 5, 100, 10, false);
+        assertEquals(2 * MB, size.getChunkBytes());
+        assertEquals(1000, size.getChunkFiles());
+
+        size.update(2 * MB, 1000, 600000, 100, false);
+        assertEquals(2 * MB, size.getChunkBytes());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.lang.reflect.Field;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+public class BandwidthLimiterTest {
+
+    private static final long K = 1024;
+
+    private static void setShutdownHappening(boolean happening) throws Exception {
+        Field f = Shutdown.class.getDeclaredField("happening");
+        f.setAccessible(true);
+        f.set(null, happening);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        setShutdownHappening(false);
+    }
+
+    @Test
+    public void testParseRate() {
+        assertEquals(0, BandwidthLimiter.parseRate("unlimited"));
+        assertEquals(0, BandwidthLimiter.parseRate(" Unlimited "));
+        assertEquals(0, BandwidthLimiter.parseRate("0"));
+        assertEquals(1000, BandwidthLimiter.parseRate("1000"));
+        assertEquals(100 * K, BandwidthLimiter.parseRate("100K"));
+        assertEquals(2 * K * K, BandwidthLimiter.parseRate("2M"));
+        assertEquals(512 * K / 8, BandwidthLimiter.parseRate("512kbit"));
+        assertEquals(2 * K * K / 8, BandwidthLimiter.parseRate("2Mbit"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidRate() {
+        BandwidthLimiter.parseRate("fast");
+    }
+
+    @Test
+    public void testInvalidSpec() {
+        assertNull(BandwidthLimiter.create("08:00=1M", "test"));
+        assertNull(BandwidthLimiter.create("08:00-25:00=1M", "test"));
+        assertNull(BandwidthLimiter.create("08:60-18:00=1M", "test"));
+        assertNull(BandwidthLimiter.create("8h-18h=1M", "test"));
+        assertNull(BandwidthLimiter.create("08:00-18:00=fast", "test"));
+        assertNotNull(BandwidthLimiter.create("08:00-18:00=1M,unlimited", "test"));
+    }
+
+    @Test
+    public void testTimeRanges() {
+        BandwidthLimiter limiter = new BandwidthLimiter("08:00-18:00=2Mbit, 18:00-20:30=1M, 100K");
+        assertEquals(100 * K, limiter.getRate(0));
+        assertEquals(100 * K, limiter.getRate(8 * 60 - 1));
+        assertEquals(2 * K * K / 8, limiter.getRate(8 * 60));
+        assertEquals(2 * K * K / 8, limiter.getRate(18 * 60 - 1));
+        assertEquals(K * K, limiter.getRate(18 * 60));
+        assertEquals(K * K, limiter.getRate(20 * 60 + 29));
+        assertEquals(100 * K, limiter.getRate(20 * 60 + 30));
+    }
+
+    @Test
+    public void testTimeRangeCrossingMidnight() {
+        BandwidthLimiter limiter = new BandwidthLimiter("22:00-06:00=unlimited,1M");
+        assertEquals(K * K, limiter.getRate(22 * 60 - 1));
+        assertEquals(0, limiter.getRate(22 * 60));
+        assertEquals(0, limiter.getRate(23 * 60 + 59));
+        assertEquals(0, limiter.getRate(0));
+        assertEquals(0, limiter.getRate(6 * 60 - 1));
+        assertEquals(K * K, limiter.getRate(6 * 60));
+        assertEquals(K * K, limiter.getRate(12 * 60));
+    }
+
+    @Test
+    public void testFirstMatchingRangeApplies() {
+        BandwidthLimiter limiter = new BandwidthLimiter("08:00-18:00=1M,12:00-13:00=2M");
+        assertEquals(K * K, limiter.getRate(12 * 60 + 30));
+        assertEquals(0, limiter.getRate(7 * 60));
+    }
+
+    @Test
+    public void testUnlimitedDoesNotWait() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter("unlimited");
+        long start = System.currentTimeMillis();
+        limiter.acquire(1024 * K * K);
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
+
+    @Test
+    public void testTokenBucket() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter("100K");
+        long start = System.currentTimeMillis();
+        limiter.acquire(50 * K);
+        limiter.acquire(50 * K);
+        long duration = System.currentTimeMillis() - start;
+        assertTrue("duration " + duration, duration >= 900 && duration < 2000);
+    }
+
+    @Test
+    public void testBurstLimitedToOneSecond() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter("100K");
+        Thread.sleep(1500);
+        long start = System.currentTimeMillis();
+        limiter.acquire(100 * K);
+        assertTrue(System.currentTimeMillis() - start < 100);
+        limiter.acquire(50 * K);
+        long duration = System.currentTimeMillis() - start;
+        assertTrue("duration " + duration, duration >= 400 && duration < 1500);
+    }
+
+    @Test
+    public void testReturnsOnShutdown() throws Exception {
+        final BandwidthLimiter limiter = new BandwidthLimiter("1K");
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                    setShutdownHappening(true);
+                } catch(Exception e) {
+                }
+            }
+        }.start();
+        long start = System.currentTimeMillis();
+        limiter.acquire(1000 * K);
+        long duration = System.currentTimeMillis() - start;
+        assertTrue("duration " + duration, duration >= 250 && duration < 1000);
+    }
+}
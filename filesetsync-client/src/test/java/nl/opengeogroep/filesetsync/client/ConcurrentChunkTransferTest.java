@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import nl.opengeogroep.filesetsync.FileRecord;
+import static nl.opengeogroep.filesetsync.client.SyncJobState.*;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentChunkTransferTest {
+
+    private static final int FILES = 10;
+
+    private static final int CHUNK_FILES = 2;
+
+    private File varDir;
+
+    private List<FileRecord> fileList;
+
+    private SyncJobState state;
+
+    /**
+     * Transferred chunks by the file list index of their first record, with
+     * whether the chunk was full.
+     */
+    private final Map<Integer,Boolean> transferred = new ConcurrentHashMap();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicBoolean suspend = new AtomicBoolean();
+
+    private final AtomicBoolean abort = new AtomicBoolean();
+
+    @Before
+    public void setUp() throws Exception {
+        varDir = Files.createTempDirectory("concurrentchunktransfertest").toFile();
+        SyncConfig config = new SyncConfig();
+        config.setVarDir(varDir.getAbsolutePath());
+        Field f = SyncConfig.class.getDeclaredField("instance");
+        f.setAccessible(true);
+        f.set(null, config);
+        SyncJobStatePersistence.initialize();
+
+        fileList = new ArrayList();
+        for(int i = 0; i < FILES; i++) {
+            FileRecord fr = new FileRecord();
+            fr.setName("file" + i);
+            fileList.add(fr);
+        }
+        state = new SyncJobState();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(varDir);
+    }
+
+    private class TestTransfer extends ConcurrentChunkTransfer {
+        TestTransfer(int threads) {
+            super(state, new ActiveRequests(), threads, FILES);
+        }
+
+        @Override
+        protected int buildChunk(int index, List<FileRecord> chunkList) {
+            int end = Math.min(index + CHUNK_FILES, FILES);
+            chunkList.addAll(fileList.subList(index, end));
+            return end - 1;
+        }
+
+        @Override
+        protected void transferChunk(List<FileRecord> chunkList, boolean full) throws IOException {
+            running.incrementAndGet();
+            try {
+                transferFiles(fileList.indexOf(chunkList.get(0)));
+                transferred.put(fileList.indexOf(chunkList.get(0)), full);
+            } catch(InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        protected void transferFiles(int index) throws IOException, InterruptedException {
+        }
+
+        @Override
+        protected void progress(long files) {
+        }
+
+        @Override
+        protected boolean suspendOrAbort() {
+            if(abort.get()) {
+                state.endRun(STATE_ABORTED);
+                return true;
+            }
+            if(suspend.get()) {
+                state.endRun(STATE_SUSPENDED);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void testTransferAllChunks() throws Exception {
+        TestTransfer transfer = new TestTransfer(3);
+        assertTrue(transfer.transfer(0));
+
+        assertEquals(5, transfer.getChunks());
+        assertEquals(FILES, transfer.getFiles());
+        assertEquals(FILES, (int)state.getResumeFileListIndex());
+        assertEquals(5, transferred.size());
+        for(int i = 0; i < FILES; i += CHUNK_FILES) {
+            // Last chunk ends at the end of the file list
+            assertEquals(i < FILES - CHUNK_FILES, transferred.get(i));
+        }
+    }
+
+    @Test
+    public void testResumeIndexNotAdvancedPastIncompleteChunk() throws Exception {
+        final CountDownLatch secondChunkDone = new CountDownLatch(1);
+        TestTransfer transfer = new TestTransfer(2) {
+            @Override
+            protected void transferFiles(int index) throws IOException, InterruptedException {
+                if(index == 0) {
+                    secondChunkDone.await();
+                    throw new IOException("Test failure");
+                } else if(index == CHUNK_FILES) {
+                    secondChunkDone.countDown();
+                } else {
+                    // Still in flight when the first chunk fails
+                    Thread.sleep(60000);
+                }
+            }
+        };
+        try {
+            transfer.transfer(0);
+            fail("Expected IOException");
+        } catch(IOException e) {
+            assertEquals("Test failure", e.getMessage());
+        }
+        assertNull(state.getResumeFileListIndex());
+        assertEquals(0, transfer.getChunks());
+        assertEquals(0, running.get());
+        assertEquals(Collections.singleton(CHUNK_FILES), transferred.keySet());
+    }
+
+    @Test
+    public void testSuspendCompletesChunksInFlight() throws Exception {
+        TestTransfer transfer = new TestTransfer(2) {
+            @Override
+            protected void transferFiles(int index) throws IOException, InterruptedException {
+                if(index == 0) {
+                    suspend.set(true);
+                } else {
+                    Thread.sleep(300);
+                }
+            }
+        };
+        assertFalse(transfer.transfer(0));
+
+        assertTrue(transfer.isSuspended());
+        assertEquals(STATE_SUSPENDED, state.getCurrentState());
+        // No chunks submitted after suspending
+        assertEquals(2, transfer.getChunks());
+        assertEquals(2 * CHUNK_FILES, transfer.getCompletedIndex());
+        assertEquals(2 * CHUNK_FILES, (int)state.getResumeFileListIndex());
+        assertEquals(2, transferred.size());
+    }
+
+    @Test
+    public void testAbortStopsWorkers() throws Exception {
+        TestTransfer transfer = new TestTransfer(2) {
+            @Override
+            protected void transferFiles(int index) throws IOException, InterruptedException {
+                abort.set(true);
+                Thread.sleep(60000);
+            }
+        };
+        long start = System.currentTimeMillis();
+        assertFalse(transfer.transfer(0));
+
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertFalse(transfer.isSuspended());
+        assertEquals(STATE_ABORTED, state.getCurrentState());
+        assertNull(state.getResumeFileListIndex());
+        assertEquals(0, running.get());
+        assertTrue(transferred.isEmpty());
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import nl.opengeogroep.filesetsync.FileRecord;
+import static nl.opengeogroep.filesetsync.FileRecord.TYPE_FILE;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import nl.opengeogroep.filesetsync.delta.DeltaEncoder;
+import nl.opengeogroep.filesetsync.delta.Signature;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaTransferTest {
+
+    private static final int MIN_SIZE = 64 * 1024;
+
+    private HttpServer server;
+
+    private File remoteDir;
+
+    private File localDir;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile int status = 200;
+
+    private volatile boolean deltaSupported = true;
+
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    private final ActiveRequests activeRequests = new ActiveRequests();
+
+    private final FileTransferContext context = new FileTransferContext() {
+        @Override
+        public File getLocalFile(FileRecord fr) throws IOException {
+            return new File(localDir, fr.getName());
+        }
+
+        @Override
+        public String getUrl(String action, FileRecord fr) throws IOException {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + action + "/test/" + fr.getName();
+        }
+
+        @Override
+        public ActiveRequests getActiveRequests() {
+            return activeRequests;
+        }
+
+        @Override
+        public HashAlgorithm getHashAlgorithm() {
+            return null;
+        }
+
+        @Override
+        public void addExtraHeaders(HttpUriRequest r) {
+        }
+
+        @Override
+        public void checkServerTooBusy(HttpResponse response) throws IOException {
+        }
+
+        @Override
+        public InputStream limitBandwidth(InputStream in) {
+            return in;
+        }
+
+        @Override
+        public void addTransferredBytes(long bytes) {
+            transferredBytes.addAndGet(bytes);
+        }
+
+        @Override
+        public void replaceLocalFile(FileRecord fr, File temp, File local, long lastModified) throws IOException {
+            Files.move(temp.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            local.setLastModified(lastModified);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        remoteDir = Files.createTempDirectory("filesetsyncremote").toFile();
+        localDir = Files.createTempDirectory("filesetsynclocal").toFile();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/delta/test/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                try {
+                    delta(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+
+        Field f = SyncConfig.class.getDeclaredField("instance");
+        f.setAccessible(true);
+        f.set(null, new SyncConfig());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        FileUtils.deleteDirectory(remoteDir);
+        FileUtils.deleteDirectory(localDir);
+    }
+
+    private void delta(HttpExchange exchange) throws IOException {
+        File f = new File(remoteDir, exchange.getRequestURI().getPath().substring("/delta/test/".length()));
+        if(deltaSupported) {
+            exchange.getResponseHeaders().set(DeltaEncoder.HTTP_HEADER, "1");
+        }
+        if(!deltaSupported || status != 200) {
+            IOUtils.copy(exchange.getRequestBody(), new NullOutputStream());
+            exchange.sendResponseHeaders(deltaSupported ? status : 404, -1);
+            return;
+        }
+        Signature signature = Signature.read(exchange.getRequestBody(), f.length());
+        exchange.getResponseHeaders().set("Content-Type", DeltaEncoder.MIME_TYPE);
+        exchange.sendResponseHeaders(200, 0);
+        try(InputStream in = new FileInputStream(f); OutputStream out = exchange.getResponseBody()) {
+            new DeltaEncoder(signature).encode(in, out);
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] b = new byte[length];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private FileRecord createFiles(String name, byte[] local, byte[] remote) throws IOException {
+        FileUtils.writeByteArrayToFile(new File(localDir, name), local);
+        File f = new File(remoteDir, name);
+        FileUtils.writeByteArrayToFile(f, remote);
+        FileRecord fr = new FileRecord();
+        fr.setName(name);
+        fr.setType(TYPE_FILE);
+        fr.setSize(f.length());
+        fr.setLastModified(1400000000000L);
+        return fr;
+    }
+
+    @Test
+    public void testTransfer() throws Exception {
+        byte[] local = random(256 * 1024, 1);
+        byte[] remote = Arrays.copyOf(local, 300 * 1024);
+        System.arraycopy(random(300 * 1024 - 100000, 2), 0, remote, 100000, 300 * 1024 - 100000);
+        FileRecord fr = createFiles("test.dat", local, remote);
+
+        DeltaTransfer transfer = new DeltaTransfer(context, MIN_SIZE);
+        assertTrue(transfer.transfer(fr, false));
+
+        File f = new File(localDir, "test.dat");
+        assertArrayEquals(remote, FileUtils.readFileToByteArray(f));
+        assertEquals(fr.getLastModified(), f.lastModified());
+        assertFalse(new File(localDir, "test.dat" + DeltaTransfer.DELTA_SUFFIX).exists());
+        assertEquals(1, transfer.getFiles());
+        assertTrue(transfer.getCopiedBytes() >= 90000);
+        assertTrue(transfer.getCopiedBytes() <= 100000);
+        assertEquals(remote.length, transferredBytes.get());
+    }
+
+    @Test
+    public void testLocalFileTooSmall() throws Exception {
+        FileRecord fr = createFiles("test.dat", random(1024, 1), random(MIN_SIZE * 2, 2));
+
+        DeltaTransfer transfer = new DeltaTransfer(context, MIN_SIZE);
+        assertFalse(transfer.transfer(fr, false));
+        assertEquals(0, requests.get());
+        assertEquals(0, transfer.getFiles());
+    }
+
+    @Test
+    public void testDisabledWhenNotSupported() throws Exception {
+        deltaSupported = false;
+        byte[] local = random(MIN_SIZE * 2, 1);
+        FileRecord fr = createFiles("test.dat", local, random(MIN_SIZE * 2, 2));
+
+        DeltaTransfer transfer = new DeltaTransfer(context, MIN_SIZE);
+        assertFalse(transfer.transfer(fr, false));
+        assertEquals(0, transfer.getMinSize());
+        assertEquals(1, requests.get());
+
+        assertFalse(transfer.transfer(fr, false));
+        assertEquals(1, requests.get());
+        assertArrayEquals(local, FileUtils.readFileToByteArray(new File(localDir, "test.dat")));
+    }
+
+    @Test
+    public void testServerError() throws Exception {
+        status = 500;
+        byte[] local = random(MIN_SIZE * 2, 1);
+        FileRecord fr = createFiles("test.dat", local, random(MIN_SIZE * 2, 2));
+
+        DeltaTransfer transfer = new DeltaTransfer(context, MIN_SIZE);
+        assertFalse(transfer.transfer(fr, false));
+        // Still enabled for other files
+        assertEquals(MIN_SIZE, transfer.getMinSize());
+        assertArrayEquals(local, FileUtils.readFileToByteArray(new File(localDir, "test.dat")));
+    }
+}
@@ -0,0 +1,581 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.client.config.Fileset;
+import nl.opengeogroep.filesetsync.client.config.Property;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import nl.opengeogroep.filesetsync.client.plugin.api.PluginContext;
+import nl.opengeogroep.filesetsync.protocol.BufferedFileListEncoder;
+import nl.opengeogroep.filesetsync.protocol.MultiFileEncoder;
+import nl.opengeogroep.filesetsync.protocol.Protocol;
+import nl.opengeogroep.filesetsync.util.ByteRange;
+import nl.opengeogroep.filesetsync.util.HttpUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.lang3.mutable.MutableInt;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs a sync job against an embedded server which simulates a shutdown while
+ * a chunk is being transferred, then resumes the job.
+ */
+public class FilesetSyncerResumeTest {
+    private static final Log log = LogFactory.getLog(FilesetSyncerResumeTest.class);
+
+    private static final int FILES = 6;
+
+    private static final int FILE_SIZE = 600;
+
+    private static final long LAST_MODIFIED = 1400000000000L;
+
+    private File remoteDir;
+
+    private File localDir;
+
+    private File varDir;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private final AtomicInteger getRequests = new AtomicInteger();
+
+    /**
+     * The get request during which to simulate a shutdown after the first
+     * file, or 0 for none.
+     */
+    private volatile int shutdownAtRequest;
+
+    /**
+     * The get request after which to simulate a shutdown when all files are
+     * written, or 0 for none.
+     */
+    private volatile int shutdownAfterRequest;
+
+    /**
+     * If true, the request for the first chunk fails when a request for
+     * another chunk arrived, which is held until released.
+     */
+    private volatile boolean failFirstChunk;
+
+    private final CountDownLatch heldRequest = new CountDownLatch(1);
+
+    private final CountDownLatch releaseHeldRequest = new CountDownLatch(1);
+
+    private final CountDownLatch heldRequestDone = new CountDownLatch(1);
+
+    private volatile List<FileRecord> heldRequested;
+
+    /**
+     * Name of the first file in the file list returned by the server.
+     */
+    private volatile String firstFile;
+
+    /**
+     * Range headers of requests for a single file.
+     */
+    private final List<String> fileRanges = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * If true, ignore the Range header of requests for a single file.
+     */
+    private volatile boolean ignoreRange;
+
+    /**
+     * If true, simulate a shutdown halfway the first request for a single
+     * file.
+     */
+    private volatile boolean shutdownInFile;
+
+    @Before
+    public void setUp() throws Exception {
+        remoteDir = Files.createTempDirectory("filesetsyncremote").toFile();
+        localDir = Files.createTempDirectory("filesetsynclocal").toFile();
+        varDir = Files.createTempDirectory("filesetsyncvar").toFile();
+
+        for(int i = 0; i < FILES; i++) {
+            File f = new File(remoteDir, "file" + i + ".dat");
+            byte[] b = new byte[FILE_SIZE];
+            Arrays.fill(b, (byte)('a' + i));
+            FileUtils.writeByteArrayToFile(f, b);
+            f.setLastModified(LAST_MODIFIED);
+        }
+        remoteDir.setLastModified(LAST_MODIFIED);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/fileset/list/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                list(exchange);
+            }
+        });
+        server.createContext("/fileset/get/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                get(exchange);
+            }
+        });
+        server.createContext("/report", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                IOUtils.copy(exchange.getRequestBody(), new NullOutputStream());
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        SyncConfig config = new SyncConfig();
+        config.setVarDir(varDir.getAbsolutePath());
+        config.setReportingURL(getServerUrl() + "report");
+        config.setProperties(new ArrayList(Arrays.asList(property("chunkSize", "1k"))));
+        setStaticField(SyncConfig.class, "instance", config);
+        SyncJobStatePersistence.initialize();
+        PluginContext.initialize();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        setShutdownHappening(false);
+        server.stop(0);
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(remoteDir);
+        FileUtils.deleteDirectory(localDir);
+        FileUtils.deleteDirectory(varDir);
+    }
+
+    private String getServerUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    private static Property property(String name, String value) {
+        Property p = new Property();
+        p.setName(name);
+        p.setValue(value);
+        return p;
+    }
+
+    private static void setStaticField(Class c, String name, Object value) throws Exception {
+        Field f = c.getDeclaredField(name);
+        f.setAccessible(true);
+        f.set(null, value);
+    }
+
+    private static void setShutdownHappening(boolean happening) throws Exception {
+        setStaticField(Shutdown.class, "happening", happening);
+    }
+
+    private void list(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.getResponseHeaders().set("Last-Modified", new HttpUtil().formatDate(new Date(LAST_MODIFIED)));
+        exchange.sendResponseHeaders(200, 0);
+        List<FileRecord> fileList = new ArrayList();
+        for(FileRecord fr: FileRecord.getFileRecordsInDir(remoteDir.getPath(), null, new MutableInt())) {
+            if(firstFile == null && fr.getType() == FileRecord.TYPE_FILE) {
+                firstFile = fr.getName();
+            }
+            fileList.add(fr);
+        }
+        try(BufferedFileListEncoder encoder = new BufferedFileListEncoder(exchange.getResponseBody())) {
+            encoder.writeAll(fileList);
+        }
+        exchange.close();
+    }
+
+    private void get(HttpExchange exchange) throws IOException {
+        if("GET".equals(exchange.getRequestMethod())) {
+            getFile(exchange);
+            return;
+        }
+        InputStream in = exchange.getRequestBody();
+        if("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        List<FileRecord> requested = Protocol.decodeFilelist(in);
+        int request = getRequests.incrementAndGet();
+        boolean shutdown = request == shutdownAtRequest;
+        boolean held = false;
+        if(failFirstChunk) {
+            try {
+                if(requested.get(0).getName().equals(firstFile)) {
+                    heldRequest.await(10, TimeUnit.SECONDS);
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+                if(heldRequested == null) {
+                    heldRequested = requested;
+                    held = true;
+                    heldRequest.countDown();
+                    releaseHeldRequest.await(10, TimeUnit.SECONDS);
+                }
+            } catch(InterruptedException e) {
+            }
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", MultiFileEncoder.MULTIFILE_MIME_TYPE);
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            writeFiles(exchange.getResponseBody(), requested, shutdown);
+            if(request == shutdownAfterRequest) {
+                setShutdownHappening(true);
+            }
+        } catch(IOException e) {
+            // Client aborted the request
+        } catch(Exception e) {
+            throw new IOException(e);
+        } finally {
+            exchange.close();
+            if(held) {
+                heldRequestDone.countDown();
+            }
+        }
+    }
+
+    private void getFile(HttpExchange exchange) throws IOException {
+        String name = exchange.getRequestURI().getPath().substring("/fileset/get/test/".length());
+        File f = new File(remoteDir, name);
+        byte[] b = FileUtils.readFileToByteArray(f);
+        String lastModified = new HttpUtil().formatDate(new Date(f.lastModified()));
+        String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+        fileRanges.add(rangeHeader);
+
+        int start = 0;
+        int status = 200;
+        exchange.getResponseHeaders().set("Last-Modified", lastModified);
+        ByteRange range = ignoreRange ? null : ByteRange.parse(rangeHeader, exchange.getRequestHeaders().getFirst("If-Range"), lastModified, b.length);
+        if(range != null) {
+            exchange.getResponseHeaders().set("Content-Range", range.getContentRange());
+            start = (int)range.getStart();
+            status = 206;
+        }
+        boolean shutdown = shutdownInFile && fileRanges.size() == 1;
+        try {
+            exchange.sendResponseHeaders(status, b.length - start);
+            OutputStream out = exchange.getResponseBody();
+            if(shutdown) {
+                int half = start + (b.length - start) / 2;
+                out.write(b, start, half - start);
+                out.flush();
+                // Shut down while the client waits for the rest
+                Thread.sleep(200);
+                setShutdownHappening(true);
+                start = half;
+            }
+            out.write(b, start, b.length - start);
+        } catch(IOException e) {
+            // Client aborted the request
+        } catch(Exception e) {
+            throw new IOException(e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void writeFiles(OutputStream out, List<FileRecord> requested, boolean shutdown) throws Exception {
+        try(MultiFileEncoder encoder = new MultiFileEncoder(out, 2, log)) {
+            for(FileRecord fr: requested) {
+                fr.setFile(new File(remoteDir, fr.getName()));
+                encoder.write(fr);
+                if(shutdown) {
+                    out.flush();
+                    setShutdownHappening(true);
+                    shutdown = false;
+                }
+            }
+        }
+    }
+
+    private Fileset createFileset() {
+        Fileset fs = new Fileset();
+        fs.setName("test");
+        fs.setServer(getServerUrl());
+        fs.setDirection(Fileset.DIRECTION_DOWNLOAD);
+        fs.setRemote("test");
+        fs.setLocal(localDir.getAbsolutePath());
+        fs.getProperties().add(property("pipeline", "true"));
+        SyncConfig.getInstance().setFilesets(new ArrayList(Arrays.asList(fs)));
+        return fs;
+    }
+
+    private void assertAllFilesTransferred() throws IOException {
+        for(int i = 0; i < FILES; i++) {
+            String name = "file" + i + ".dat";
+            File local = new File(localDir, name);
+            assertTrue("missing " + name, local.exists());
+            assertArrayEquals("content of " + name, FileUtils.readFileToByteArray(new File(remoteDir, name)), FileUtils.readFileToByteArray(local));
+        }
+    }
+
+    @Test
+    public void testPipelineResumeAfterShutdownDuringChunk() throws Exception {
+        Fileset fs = createFileset();
+
+        // Two files per chunk, shut down after the first file of the second
+        // chunk
+        shutdownAtRequest = 2;
+        new FilesetSyncer(fs, null).sync();
+
+        SyncJobState state = SyncJobStatePersistence.getInstance().getState(fs.getName(), false);
+        assertEquals(SyncJobState.STATE_ABORTED, state.getCurrentState());
+        assertTrue(state.canResume());
+        assertTrue(localDir.list().length < FILES);
+
+        setShutdownHappening(false);
+        shutdownAtRequest = 0;
+        new FilesetSyncer(fs, null).sync();
+
+        assertEquals(SyncJobState.STATE_COMPLETED, state.getCurrentState());
+        assertAllFilesTransferred();
+    }
+
+    @Test
+    public void testPipelineResumeDirectoriesOfInterruptedChunk() throws Exception {
+        for(int i = 0; i < FILES; i++) {
+            File f = new File(remoteDir, "dir" + i + "/sub.dat");
+            FileUtils.writeByteArrayToFile(f, new byte[FILE_SIZE]);
+            f.setLastModified(LAST_MODIFIED);
+            f.getParentFile().setLastModified(LAST_MODIFIED);
+            // Compared as existing directory, of which the last modified
+            // time is set at the end of the run
+            new File(localDir, "dir" + i).mkdir();
+        }
+        Fileset fs = createFileset();
+        SyncConfig.getInstance().setProperties(new ArrayList(Arrays.asList(property("chunkSize", "1G"))));
+
+        // All files of the single chunk are written, but the chunk is not
+        // completed
+        shutdownAfterRequest = 1;
+        new FilesetSyncer(fs, null).sync();
+
+        SyncJobState state = SyncJobStatePersistence.getInstance().getState(fs.getName(), false);
+        assertEquals(SyncJobState.STATE_ABORTED, state.getCurrentState());
+        assertEquals(Integer.valueOf(0), state.getResumeCompareIndex());
+
+        // Directories compared after the start of the interrupted chunk are
+        // compared again after resuming, so are not saved
+        assertEquals(0, state.getResumeDirectoriesLastModified().size());
+
+        setShutdownHappening(false);
+        shutdownAfterRequest = 0;
+        new FilesetSyncer(fs, null).sync();
+
+        assertEquals(SyncJobState.STATE_COMPLETED, state.getCurrentState());
+        assertAllFilesTransferred();
+        for(int i = 0; i < FILES; i++) {
+            assertEquals(LAST_MODIFIED, new File(localDir, "dir" + i).lastModified());
+        }
+    }
+
+    @Test
+    public void testRegexpDeleteThreads() throws Exception {
+        Fileset fs = createFileset();
+        fs.setRegexp(".*\\.dat");
+        fs.setDelete(true);
+        fs.getProperties().add(property("deleteThreads", "2"));
+
+        String[] stale = new String[] { "stale.dat", "a/stale.dat", "b.dat/stale.dat", "c/stale.dat" };
+        for(String name: stale) {
+            FileUtils.writeStringToFile(new File(localDir, name), name, "UTF-8");
+        }
+        FileUtils.writeStringToFile(new File(localDir, "a/keep.txt"), "keep", "UTF-8");
+
+        new FilesetSyncer(fs, null).sync();
+
+        SyncJobState state = SyncJobStatePersistence.getInstance().getState(fs.getName(), false);
+        assertEquals(SyncJobState.STATE_COMPLETED, state.getCurrentState());
+        for(String name: stale) {
+            assertFalse(name, new File(localDir, name).exists());
+        }
+        assertFalse(new File(localDir, "b.dat").exists());
+        assertTrue(new File(localDir, "a/keep.txt").exists());
+        assertTrue(new File(localDir, "c").exists());
+        assertAllFilesTransferred();
+    }
+
+    private File createLargeFile() throws IOException {
+        File f = new File(remoteDir, "large.dat");
+        byte[] b = new byte[1024 * 1024];
+        new Random(1).nextBytes(b);
+        FileUtils.writeByteArrayToFile(f, b);
+        f.setLastModified(LAST_MODIFIED);
+        SyncConfig.getInstance().setProperties(new ArrayList(Arrays.asList(
+                property("chunkSize", "1k"),
+                property("largeFileSize", "100k"))));
+        return f;
+    }
+
+    @Test
+    public void testLargeFileResumeAfterShutdown() throws Exception {
+        File remote = createLargeFile();
+        Fileset fs = createFileset();
+
+        shutdownInFile = true;
+        new FilesetSyncer(fs, null).sync();
+
+        SyncJobState state = SyncJobStatePersistence.getInstance().getState(fs.getName(), false);
+        assertEquals(SyncJobState.STATE_ABORTED, state.getCurrentState());
+        File part = new File(localDir, "large.dat" + LargeFileTransfer.PART_SUFFIX);
+        assertTrue(part.exists());
+        long partLength = part.length();
+        assertTrue(partLength > 0 && partLength < remote.length());
+        assertEquals(LAST_MODIFIED, part.lastModified());
+
+        setShutdownHappening(false);
+        shutdownInFile = false;
+        new FilesetSyncer(fs, null).sync();
+
+        assertEquals(SyncJobState.STATE_COMPLETED, state.getCurrentState());
+        assertEquals(Arrays.asList(null, "bytes=" + partLength + "-"), fileRanges);
+        assertFalse(part.exists());
+        assertArrayEquals(FileUtils.readFileToByteArray(remote), FileUtils.readFileToByteArray(new File(localDir, "large.dat")));
+        assertEquals(LAST_MODIFIED, new File(localDir, "large.dat").lastModified());
+        assertAllFilesTransferred();
+    }
+
+    @Test
+    public void testLargeFileRangeNotSupported() throws Exception {
+        File remote = createLargeFile();
+        Fileset fs = createFileset();
+
+        // Partial file with other contents, overwritten by the whole file
+        File part = new File(localDir, "large.dat" + LargeFileTransfer.PART_SUFFIX);
+        FileUtils.writeByteArrayToFile(part, new byte[1000]);
+        part.setLastModified(LAST_MODIFIED);
+
+        ignoreRange = true;
+        new FilesetSyncer(fs, null).sync();
+
+        SyncJobState state = SyncJobStatePersistence.getInstance().getState(fs.getName(), false);
+        assertEquals(SyncJobState.STATE_COMPLETED, state.getCurrentState());
+        assertEquals(Arrays.asList("bytes=1000-"), fileRanges);
+        assertArrayEquals(FileUtils.readFileToByteArray(remote), FileUtils.readFileToByteArray(new File(localDir, "large.dat")));
+    }
+
+    @Test
+    public void testLargeFilePartOfOtherVersion() throws Exception {
+        File remote = createLargeFile();
+        Fileset fs = createFileset();
+
+        File part = new File(localDir, "large.dat" + LargeFileTransfer.PART_SUFFIX);
+        FileUtils.writeByteArrayToFile(part, new byte[1000]);
+        part.setLastModified(LAST_MODIFIED - 1000);
+
+        new FilesetSyncer(fs, null).sync();
+
+        assertEquals(Arrays.asList((String)null), fileRanges);
+        assertArrayEquals(FileUtils.readFileToByteArray(remote), FileUtils.readFileToByteArray(new File(localDir, "large.dat")));
+    }
+
+    @Test
+    public void testConcurrentTransferStopsWorkers() throws Exception {
+        Fileset fs = createFileset();
+        fs.getProperties().clear();
+        fs.getProperties().add(property("transferThreads", "2"));
+
+        // The first chunk fails while the second chunk is in flight
+        failFirstChunk = true;
+        new FilesetSyncer(fs, null).sync();
+
+        SyncJobState state = SyncJobStatePersistence.getInstance().getState(fs.getName(), false);
+        assertNotEquals(SyncJobState.STATE_COMPLETED, state.getCurrentState());
+
+        // The request for the second chunk was aborted before returning, so
+        // its files are not written after the job ended
+        releaseHeldRequest.countDown();
+        assertTrue(heldRequestDone.await(10, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        assertNotNull(heldRequested);
+        for(FileRecord fr: heldRequested) {
+            assertFalse(fr.getName(), new File(localDir, fr.getName()).exists());
+        }
+    }
+
+    @Test
+    public void testRegexpDeleteResume() throws Exception {
+        Fileset fs = createFileset();
+        fs.setRegexp(".*\\.dat");
+        fs.setDelete(true);
+
+        // Directories are walked in sorted order: the root (0), a (1),
+        // b.dat (2) and c (3). b.dat matches the regexp and is deleted when
+        // empty
+        String[] stale = new String[] { "stale.dat", "a/stale.dat", "b.dat/stale.dat", "c/stale.dat" };
+        for(String name: stale) {
+            FileUtils.writeStringToFile(new File(localDir, name), name, "UTF-8");
+        }
+        FileUtils.writeStringToFile(new File(localDir, "a/keep.txt"), "keep", "UTF-8");
+
+        // Suspended before checking the first directory
+        new FilesetSyncer(fs, new Date(0)).sync();
+
+        SyncJobState state = SyncJobStatePersistence.getInstance().getState(fs.getName(), false);
+        assertEquals(SyncJobState.STATE_SUSPENDED, state.getCurrentState());
+        assertEquals(Integer.valueOf(0), state.getResumeDeleteDirectoryIndex());
+        for(String name: stale) {
+            assertTrue(name, new File(localDir, name).exists());
+        }
+
+        // Resume at directory b.dat, the files in the directories before it
+        // were already checked
+        state.setResumeDeleteDirectoryIndex(2);
+        new FilesetSyncer(fs, null).sync();
+
+        assertEquals(SyncJobState.STATE_COMPLETED, state.getCurrentState());
+        assertTrue(new File(localDir, "stale.dat").exists());
+        assertTrue(new File(localDir, "a/stale.dat").exists());
+        assertTrue(new File(localDir, "a/keep.txt").exists());
+        assertFalse(new File(localDir, "b.dat").exists());
+        assertFalse(new File(localDir, "c/stale.dat").exists());
+        assertTrue(new File(localDir, "c").exists());
+        assertAllFilesTransferred();
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import nl.opengeogroep.filesetsync.FileRecord;
+import static nl.opengeogroep.filesetsync.FileRecord.TYPE_FILE;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import nl.opengeogroep.filesetsync.util.ByteRange;
+import nl.opengeogroep.filesetsync.util.HttpUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.mutable.MutableLong;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LargeFileTransferTest {
+
+    private static final long LAST_MODIFIED = 1400000000000L;
+
+    private static final int SIZE = 256 * 1024;
+
+    private HttpServer server;
+
+    private File remoteDir;
+
+    private File localDir;
+
+    private byte[] content;
+
+    private FileRecord fr;
+
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile String contentRange;
+
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    private final ActiveRequests activeRequests = new ActiveRequests();
+
+    private final FileTransferContext context = new FileTransferContext() {
+        @Override
+        public File getLocalFile(FileRecord fr) throws IOException {
+            return new File(localDir, fr.getName());
+        }
+
+        @Override
+        public String getUrl(String action, FileRecord fr) throws IOException {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + action + "/test/" + fr.getName();
+        }
+
+        @Override
+        public ActiveRequests getActiveRequests() {
+            return activeRequests;
+        }
+
+        @Override
+        public HashAlgorithm getHashAlgorithm() {
+            return HashAlgorithm.getDefault();
+        }
+
+        @Override
+        public void addExtraHeaders(HttpUriRequest r) {
+        }
+
+        @Override
+        public void checkServerTooBusy(HttpResponse response) throws IOException {
+        }
+
+        @Override
+        public InputStream limitBandwidth(InputStream in) {
+            return in;
+        }
+
+        @Override
+        public void addTransferredBytes(long bytes) {
+            transferredBytes.addAndGet(bytes);
+        }
+
+        @Override
+        public void replaceLocalFile(FileRecord fr, File temp, File local, long lastModified) throws IOException {
+            Files.move(temp.toPath(), local.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            local.setLastModified(lastModified);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        remoteDir = Files.createTempDirectory("filesetsyncremote").toFile();
+        localDir = Files.createTempDirectory("filesetsynclocal").toFile();
+
+        content = new byte[SIZE];
+        new Random(1).nextBytes(content);
+        File f = new File(remoteDir, "large.dat");
+        FileUtils.writeByteArrayToFile(f, content);
+        f.setLastModified(LAST_MODIFIED);
+
+        fr = new FileRecord();
+        fr.setName("large.dat");
+        fr.setType(TYPE_FILE);
+        fr.setSize(SIZE);
+        fr.setLastModified(LAST_MODIFIED);
+        fr.setHash(FileRecord.calculateHash(f, HashAlgorithm.getDefault(), new MutableLong()));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/get/test/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                getFile(exchange);
+            }
+        });
+        server.start();
+
+        Field field = SyncConfig.class.getDeclaredField("instance");
+        field.setAccessible(true);
+        field.set(null, new SyncConfig());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        FileUtils.deleteDirectory(remoteDir);
+        FileUtils.deleteDirectory(localDir);
+    }
+
+    private void getFile(HttpExchange exchange) throws IOException {
+        String lastModified = new HttpUtil().formatDate(new Date(LAST_MODIFIED));
+        String rangeHeader = exchange.getRequestHeaders().getFirst("Range");
+        ranges.add(rangeHeader);
+
+        int start = 0;
+        int status = 200;
+        exchange.getResponseHeaders().set("Last-Modified", lastModified);
+        ByteRange range = ByteRange.parse(rangeHeader, exchange.getRequestHeaders().getFirst("If-Range"), lastModified, content.length);
+        if(range != null) {
+            exchange.getResponseHeaders().set("Content-Range", contentRange != null ? contentRange : range.getContentRange());
+            start = (int)range.getStart();
+            status = 206;
+        }
+        try {
+            exchange.sendResponseHeaders(status, content.length - start);
+            OutputStream out = exchange.getResponseBody();
+            out.write(content, start, content.length - start);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private File createPart(byte[] b, long lastModified) throws IOException {
+        File part = new File(localDir, "large.dat" + LargeFileTransfer.PART_SUFFIX);
+        FileUtils.writeByteArrayToFile(part, b);
+        part.setLastModified(lastModified);
+        return part;
+    }
+
+    private void assertTransferred() throws IOException {
+        File local = new File(localDir, "large.dat");
+        assertArrayEquals(content, FileUtils.readFileToByteArray(local));
+        assertEquals(LAST_MODIFIED, local.lastModified());
+        assertFalse(new File(localDir, "large.dat" + LargeFileTransfer.PART_SUFFIX).exists());
+    }
+
+    @Test
+    public void testTransfer() throws Exception {
+        new LargeFileTransfer(context, 1).transfer(fr, false);
+
+        assertTransferred();
+        assertEquals(Arrays.asList((String)null), ranges);
+        assertEquals(SIZE, transferredBytes.get());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        createPart(Arrays.copyOf(content, SIZE / 2), LAST_MODIFIED);
+
+        new LargeFileTransfer(context, 1).transfer(fr, false);
+
+        assertTransferred();
+        assertEquals(Arrays.asList("bytes=" + SIZE / 2 + "-"), ranges);
+        assertEquals(SIZE / 2, transferredBytes.get());
+    }
+
+    @Test
+    public void testPartOfOtherVersionNotResumed() throws Exception {
+        createPart(Arrays.copyOf(content, SIZE / 2), LAST_MODIFIED - 60000);
+
+        new LargeFileTransfer(context, 1).transfer(fr, false);
+
+        assertTransferred();
+        assertEquals(Arrays.asList((String)null), ranges);
+    }
+
+    @Test
+    public void testResumedHashMismatch() throws Exception {
+        File part = createPart(new byte[SIZE / 2], LAST_MODIFIED);
+
+        try {
+            new LargeFileTransfer(context, 1).transfer(fr, false);
+            fail("Expected IOException");
+        } catch(IOException e) {
+            assertTrue(e.getMessage().contains("does not match"));
+        }
+        assertFalse(part.exists());
+        assertFalse(new File(localDir, "large.dat").exists());
+
+        // Transferred completely next time
+        ranges.clear();
+        new LargeFileTransfer(context, 1).transfer(fr, false);
+        assertTransferred();
+        assertEquals(Arrays.asList((String)null), ranges);
+    }
+
+    @Test
+    public void testInvalidContentRange() throws Exception {
+        File part = createPart(Arrays.copyOf(content, SIZE / 2), LAST_MODIFIED);
+        contentRange = "bytes 0-" + (SIZE - 1) + "/" + SIZE;
+
+        try {
+            new LargeFileTransfer(context, 1).transfer(fr, false);
+            fail("Expected IOException");
+        } catch(IOException e) {
+            assertTrue(e.getMessage().contains("invalid Content-Range"));
+        }
+        assertEquals(SIZE / 2, part.length());
+        assertFalse(new File(localDir, "large.dat").exists());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import nl.opengeogroep.filesetsync.client.config.SyncConfig;
+import static nl.opengeogroep.filesetsync.hash.HashAlgorithm.MD5;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalHashCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("localhashcachetest").toFile();
+        SyncConfig config = new SyncConfig();
+        config.setVarDir(dir.getAbsolutePath());
+        Field f = SyncConfig.class.getDeclaredField("instance");
+        f.setAccessible(true);
+        f.set(null, config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testUnchanged() {
+        LocalHashCache cache = LocalHashCache.load("test");
+        assertNull(cache.getHash("a", MD5, 10, 1000, "key"));
+        cache.put("a", MD5, 10, 1000, "key", "hash");
+        assertEquals("hash", cache.getHash("a", MD5, 10, 1000, "key"));
+    }
+
+    @Test
+    public void testInvalidatedBySize() {
+        LocalHashCache cache = LocalHashCache.load("test");
+        cache.put("a", MD5, 10, 1000, "key", "hash");
+        assertNull(cache.getHash("a", MD5, 11, 1000, "key"));
+    }
+
+    @Test
+    public void testInvalidatedByLastModified() {
+        LocalHashCache cache = LocalHashCache.load("test");
+        cache.put("a", MD5, 10, 1000, "key", "hash");
+        assertNull(cache.getHash("a", MD5, 10, 2000, "key"));
+    }
+
+    @Test
+    public void testInvalidatedByFileKey() {
+        LocalHashCache cache = LocalHashCache.load("test");
+        cache.put("a", MD5, 10, 1000, "key", "hash");
+        assertNull(cache.getHash("a", MD5, 10, 1000, "otherkey"));
+        assertNull(cache.getHash("a", MD5, 10, 1000, null));
+
+        cache.put("b", MD5, 10, 1000, null, "hash");
+        assertEquals("hash", cache.getHash("b", MD5, 10, 1000, null));
+        assertNull(cache.getHash("b", MD5, 10, 1000, "key"));
+    }
+
+    @Test
+    public void testInvalidatedByAlgorithm() {
+        LocalHashCache cache = LocalHashCache.load("test");
+        cache.put("a", MD5, 10, 1000, "key", "hash");
+        assertNull(cache.getHash("a", "other", 10, 1000, "key"));
+    }
+
+    @Test
+    public void testFileReplacedWithSameSizeAndLastModified() throws Exception {
+        File a = new File(dir, "a");
+        File b = new File(dir, "b");
+        FileUtils.writeStringToFile(a, "content", "UTF-8");
+        FileUtils.writeStringToFile(b, "CONTENT", "UTF-8");
+        a.setLastModified(1000000);
+        b.setLastModified(1000000);
+        String key = LocalHashCache.getFileKey(a);
+        assumeNotNull(key);
+
+        LocalHashCache cache = LocalHashCache.load("test");
+        cache.put("a", MD5, a.length(), a.lastModified(), key, "hash");
+
+        Files.move(b.toPath(), a.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertEquals(1000000, a.lastModified());
+        assertNull(cache.getHash("a", MD5, a.length(), a.lastModified(), LocalHashCache.getFileKey(a)));
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        LocalHashCache cache = LocalHashCache.load("test");
+        cache.put("dir/a|b", MD5, 10, 1000, "key", "hash1");
+        cache.put("c", MD5, 20, 2000, null, "hash2");
+        cache.save(false);
+
+        cache = LocalHashCache.load("test");
+        assertEquals("hash1", cache.getHash("dir/a|b", MD5, 10, 1000, "key"));
+        assertEquals("hash2", cache.getHash("c", MD5, 20, 2000, null));
+    }
+
+    @Test
+    public void testSaveRemoveUnused() {
+        LocalHashCache cache = LocalHashCache.load("test");
+        cache.put("a", MD5, 10, 1000, "key", "hash1");
+        cache.put("b", MD5, 20, 2000, "key", "hash2");
+        cache.save(false);
+
+        cache = LocalHashCache.load("test");
+        assertEquals("hash1", cache.getHash("a", MD5, 10, 1000, "key"));
+        cache.save(true);
+
+        cache = LocalHashCache.load("test");
+        assertEquals("hash1", cache.getHash("a", MD5, 10, 1000, "key"));
+        assertNull(cache.getHash("b", MD5, 20, 2000, "key"));
+    }
+}
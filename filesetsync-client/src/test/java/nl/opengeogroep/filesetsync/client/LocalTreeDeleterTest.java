@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalTreeDeleterTest {
+
+    private File dir;
+
+    private LocalTreeDeleter deleter;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("localtreedeletertest").toFile();
+        deleter = new LocalTreeDeleter(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        setShutdownHappening(false);
+        deleter.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private static void setShutdownHappening(boolean happening) throws Exception {
+        Field f = Shutdown.class.getDeclaredField("happening");
+        f.setAccessible(true);
+        f.set(null, happening);
+    }
+
+    private static void createTree(File root, int directories, int files) throws Exception {
+        for(int i = 0; i < directories; i++) {
+            File d = new File(root, "dir" + i + File.separator + "sub");
+            d.mkdirs();
+            for(int j = 0; j < files; j++) {
+                FileUtils.writeStringToFile(new File(d, "file" + j), "test", "UTF-8");
+            }
+        }
+    }
+
+    private static boolean symlinksSupported(File f) {
+        try {
+            Files.createSymbolicLink(new File(f.getParentFile(), "link.test").toPath(), f.toPath());
+            Files.delete(new File(f.getParentFile(), "link.test").toPath());
+            return true;
+        } catch(Exception e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testDeleteTrees() throws Exception {
+        File tree = new File(dir, "tree");
+        createTree(tree, 3, 600);
+        File file = new File(dir, "file");
+        FileUtils.writeStringToFile(file, "test", "UTF-8");
+
+        deleter.delete(Arrays.asList(tree.toPath(), file.toPath(), new File(dir, "missing").toPath()));
+
+        assertFalse(tree.exists());
+        assertFalse(file.exists());
+        assertEquals(3 * 600 + 1, deleter.getDeletedFiles());
+        // tree, dirN and dirN/sub
+        assertEquals(1 + 3 * 2, deleter.getDeletedDirectories());
+        assertEquals(0, deleter.getErrors());
+    }
+
+    @Test
+    public void testSymlinksNotFollowed() throws Exception {
+        File target = new File(dir, "target");
+        createTree(target, 1, 10);
+        assumeTrue(symlinksSupported(target));
+
+        File tree = new File(dir, "tree");
+        tree.mkdir();
+        Path dirLink = new File(tree, "dirlink").toPath();
+        Path fileLink = new File(tree, "filelink").toPath();
+        Path topLink = new File(dir, "toplink").toPath();
+        Files.createSymbolicLink(dirLink, target.toPath());
+        Files.createSymbolicLink(fileLink, new File(target, "dir0/sub/file0").toPath());
+        Files.createSymbolicLink(topLink, target.toPath());
+
+        deleter.delete(Arrays.asList(tree.toPath(), topLink));
+
+        assertFalse(tree.exists());
+        assertFalse(Files.exists(topLink, LinkOption.NOFOLLOW_LINKS));
+        assertEquals(10, new File(target, "dir0/sub").list().length);
+        assertEquals(0, deleter.getErrors());
+    }
+
+    @Test
+    public void testStopsOnShutdown() throws Exception {
+        File tree = new File(dir, "tree");
+        createTree(tree, 2, 10);
+        File file = new File(dir, "file");
+        FileUtils.writeStringToFile(file, "test", "UTF-8");
+
+        setShutdownHappening(true);
+        deleter.delete(Arrays.asList(file.toPath(), tree.toPath()));
+
+        assertTrue(file.exists());
+        assertTrue(tree.exists());
+        assertEquals(0, deleter.getDeletedFiles());
+        assertEquals(0, deleter.getDeletedDirectories());
+    }
+
+    @Test
+    public void testDirectoryNotDeletedAfterShutdown() throws Exception {
+        File tree = new File(dir, "tree");
+        createTree(tree, 20, 100);
+
+        final LocalTreeDeleter d = new LocalTreeDeleter(1);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                d.delete(Collections.singletonList(new File(dir, "tree").toPath()));
+            }
+        };
+        t.start();
+        while(d.getDeletedFiles() == 0) {
+            Thread.sleep(1);
+        }
+        setShutdownHappening(true);
+        t.join(10000);
+        d.close();
+
+        assertFalse(t.isAlive());
+        assertTrue(tree.exists());
+        assertTrue(d.getDeletedFiles() < 20 * 100);
+    }
+}
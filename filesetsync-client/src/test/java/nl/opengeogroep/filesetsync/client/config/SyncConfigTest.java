@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.client.config;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SyncConfigTest {
+
+    private static SyncConfig config(String name, String value) {
+        Property p = new Property();
+        p.setName(name);
+        p.setValue(value);
+        SyncConfig config = new SyncConfig();
+        config.getProperties().add(p);
+        return config;
+    }
+
+    @Test
+    public void testIntProperty() {
+        assertEquals(15, new SyncConfig().getIntProperty("chunkTargetSeconds", 15, 1));
+        assertEquals(30, config("chunkTargetSeconds", " 30 ").getIntProperty("chunkTargetSeconds", 15, 1));
+        assertEquals(15, config("chunkTargetSeconds", "0").getIntProperty("chunkTargetSeconds", 15, 1));
+        assertEquals(15, config("chunkTargetSeconds", "15s").getIntProperty("chunkTargetSeconds", 15, 1));
+    }
+
+    @Test
+    public void testByteSizeProperty() {
+        assertEquals(512 * 1024, new SyncConfig().getByteSizeProperty("chunkSizeMin", "512K"));
+        assertEquals(1024 * 1024, config("chunkSizeMin", "1M").getByteSizeProperty("chunkSizeMin", "512K"));
+        assertEquals(512 * 1024, config("chunkSizeMin", "0").getByteSizeProperty("chunkSizeMin", "512K"));
+        assertEquals(512 * 1024, config("chunkSizeMin", "large").getByteSizeProperty("chunkSizeMin", "512K"));
+    }
+}
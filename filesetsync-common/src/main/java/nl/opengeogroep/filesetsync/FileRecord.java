@@ -30,6 +30,10 @@ import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import nl.opengeogroep.filesetsync.hash.FileHasher;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import nl.opengeogroep.filesetsync.hash.HashStatistics;
+import nl.opengeogroep.filesetsync.util.PathPattern;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
@@ -119,14 +123,14 @@ public class FileRecord implements Serializable {
     public static class FileRecordIterator implements Iterator<FileRecord> {
         private final String rootPath;
         private final Iterator<File> it;
-        private final String regexp;
+        private final PathPattern regexp;
         private final MutableInt noRegexpMatches;
 
         private FileRecord next;
 
         public FileRecordIterator(File startDir, String regexp, MutableInt noRegexpMatches) {
             this.rootPath = startDir.getAbsolutePath();
-            this.regexp = regexp;
+            this.regexp = PathPattern.compile(regexp);
             this.noRegexpMatches = noRegexpMatches;
             it = FileUtils.iterateFilesAndDirs(startDir, new AndFileFilter(FileFileFilter.FILE, CanReadFileFilter.CAN_READ), TrueFileFilter.INSTANCE);
         }
@@ -155,7 +159,7 @@ public class FileRecord implements Serializable {
                     return true;
                 } else {
                     String sub = absolutePath.substring(rootPath.length()+1);
-                    if(regexp == null || sub.matches(regexp)) {
+                    if(regexp == null || regexp.matches(sub)) {
                         next = new FileRecord(f, sub);
                         return true;
                     } else {
@@ -184,17 +188,26 @@ public class FileRecord implements Serializable {
     }
 
     public static String calculateHash(File f, MutableLong hashTimeMillisAccumulator) throws FileNotFoundException, IOException {
+        return calculateHash(f, HashAlgorithm.getDefault(), hashTimeMillisAccumulator);
+    }
 
-        long startTime = hashTimeMillisAccumulator == null ? 0 : System.currentTimeMillis();
+    public static String calculateHash(File f, HashAlgorithm algorithm, MutableLong hashTimeMillisAccumulator) throws FileNotFoundException, IOException {
+        return calculateHash(f, algorithm, hashTimeMillisAccumulator, null);
+    }
 
-        // On Windows do not use memory mapped files, because the client may
-        // want to overwrite a file it has just calculated the checksum of.
-        // http://bugs.java.com/view_bug.do?bug_id=4724038
+    /**
+     * @param statistics if not null, records the I/O strategy used to hash the
+     * file, see FileHasher
+     */
+    public static String calculateHash(File f, HashAlgorithm algorithm, MutableLong hashTimeMillisAccumulator, HashStatistics statistics) throws FileNotFoundException, IOException {
 
-        // Performance difference is minimal or negative in some tests
+        long startTime = hashTimeMillisAccumulator == null ? 0 : System.currentTimeMillis();
 
-        //String hash = SystemUtils.IS_OS_WINDOWS ? calculateHashNormalIO(f) : calculateHashMappedIO(f);
-        String hash = calculateHashNormalIO(f);
+        // FileHasher chooses between normal and memory mapped I/O by file
+        // size. On Windows memory mapped files are not used, because the
+        // client may want to overwrite a file it has just calculated the
+        // checksum of.
+        String hash = FileHasher.hash(f, algorithm, statistics);
 
         if(hashTimeMillisAccumulator != null) {
             hashTimeMillisAccumulator.add(System.currentTimeMillis() - startTime);
@@ -203,10 +216,14 @@ public class FileRecord implements Serializable {
     }
 
     public static String calculateHashNormalIO(File f) throws FileNotFoundException, IOException {
+        return calculateHashNormalIO(f, HashAlgorithm.getDefault());
+    }
+
+    public static String calculateHashNormalIO(File f, HashAlgorithm algorithm) throws FileNotFoundException, IOException {
         try (
             InputStream in = new FileInputStream(f);
         ) {
-            return DigestUtils.md5Hex(in);
+            return algorithm.hash(in);
         }
     }
 
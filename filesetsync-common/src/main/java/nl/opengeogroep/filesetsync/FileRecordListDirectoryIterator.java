@@ -17,12 +17,12 @@
 
 package nl.opengeogroep.filesetsync;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import static nl.opengeogroep.filesetsync.FileRecord.TYPE_DIRECTORY;
 
 /**
@@ -45,27 +45,28 @@ import static nl.opengeogroep.filesetsync.FileRecord.TYPE_DIRECTORY;
  * d dir2
  * f dir2/file3
  * </pre>
- * First return a list of all files and directories in . directory by iterating
- * through the full list as follows:
+ * The constructor builds an index of the direct children of each directory
+ * in a single pass over the list, keeping a stack of the directories the
+ * current entry can be in. An entry which does not start with the name of
+ * the directory on top of the stack ends that directory, so the entries of a
+ * directory must directly follow it in the list:
  * <pre>
- * add  d .
- * add  f file1
- * add  d dir1, add index to deque, skip all following entries starting with dir1/
- * skip d dir1/subdir
- * skip f dir1/file2
- * add  f file2
- * add  d dir2, add index to deque, skip all following entries starting with dir2/
- * skip f dir2/file3
- * </pre>
- * The hasNext() method returns true until the deque is empty. For the next
- * returned list, process the first skipped subdirectory by starting from the
- * index popped from the deque:
- * <pre>
- * add     d dir1
- * add     d dir1/subdir, add index to deque, skip all following entries starting with dir1/subdir/
- * add     f dir1/file2
- * stop at f file2, because it did not start with dir1/
+ * d .            stack: .                    child of .
+ * f file1        stack: .                    child of .
+ * d dir1         stack: . dir1               child of .
+ * d dir1/subdir  stack: . dir1 dir1/subdir   child of dir1
+ * f dir1/file2   stack: . dir1               child of dir1
+ * f file2        stack: .                    child of .
+ * d dir2         stack: . dir2               child of .
+ * f dir2/file3   stack: . dir2               child of dir2
  * </pre>
+ * The first element is always the root directory, all entries without a
+ * slash are its children. Entries which are not a direct child of a
+ * directory in the list are not returned.
+ * <p>
+ * The children are stored in arrays of indexes into the list, and the
+ * returned sublists are views on the list, so the total cost is linear in
+ * the size of the list.
  * <p>
  * @author Matthijs Laan <matthijslaan@b3partners.nl>
  */
@@ -73,62 +74,136 @@ public class FileRecordListDirectoryIterator implements Iterable<List<FileRecord
 
     private final List<FileRecord> list;
 
-    private final ArrayDeque<Integer> deque = new ArrayDeque(Arrays.asList(new Integer[] { 0 }));
+    /**
+     * Directory indexes in breadth-first order.
+     */
+    private final int[] directories;
+
+    /**
+     * The children of the directory at list index i are the list indexes in
+     * children[childOffsets[i]] to children[childOffsets[i+1]], in list
+     * order.
+     */
+    private final int[] childOffsets;
+
+    private final int[] children;
 
-    private List<FileRecord> next;
+    private int position = 0;
 
     public FileRecordListDirectoryIterator(List<FileRecord> list) {
         this.list = list;
-    }
+        int n = list.size();
+
+        // Find the parent of each entry, -1 if it is not a direct child of a
+        // directory in the list
+        int[] parents = new int[n];
+        int[] childCounts = new int[n];
+        int[] stack = new int[16];
+        int depth = 0;
+        if(n > 0) {
+            parents[0] = -1;
+            stack[depth++] = 0;
+        }
+        for(int i = 1; i < n; i++) {
+            FileRecord fr = list.get(i);
+            String name = fr.getName();
+
+            // Pop directories this entry is not in
+            while(depth > 1 && !isIn(name, list.get(stack[depth-1]).getName())) {
+                depth--;
+            }
+            int dir = stack[depth-1];
+            int start = depth == 1 ? 0 : list.get(dir).getName().length() + 1;
 
-    private String dequeToString() {
-        List<String> names = new ArrayList(deque.size());
-        for(Integer i: deque) {
-            names.add(list.get(i).getName());
+            if(name.indexOf('/', start) != -1) {
+                parents[i] = -1;
+                continue;
+            }
+            parents[i] = dir;
+            childCounts[dir]++;
+            if(fr.getType() == TYPE_DIRECTORY) {
+                if(depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = i;
+            }
         }
-        return names.toString();
-    }
 
-    @Override
-    public boolean hasNext() {
-        if(next != null) {
-            return true;
+        childOffsets = new int[n + 1];
+        for(int i = 0; i < n; i++) {
+            childOffsets[i+1] = childOffsets[i] + childCounts[i];
+        }
+        children = new int[childOffsets[n]];
+        // Reuse the counts as the fill position for each directory
+        int[] fill = childCounts;
+        System.arraycopy(childOffsets, 0, fill, 0, n);
+        for(int i = 1; i < n; i++) {
+            if(parents[i] != -1) {
+                children[fill[parents[i]]++] = i;
+            }
         }
 
-        if(deque.isEmpty()) {
-            return false;
+        // Breadth-first order of the directories, starting at the root
+        int count = 0;
+        for(int i = 1; i < n; i++) {
+            if(parents[i] != -1 && list.get(i).getType() == TYPE_DIRECTORY) {
+                count++;
+            }
         }
+        directories = new int[n == 0 ? 0 : count + 1];
+        if(n > 0) {
+            int tail = 0;
+            directories[tail++] = 0;
+            for(int head = 0; head < tail; head++) {
+                int dir = directories[head];
+                for(int c = childOffsets[dir]; c < childOffsets[dir+1]; c++) {
+                    if(list.get(children[c]).getType() == TYPE_DIRECTORY) {
+                        directories[tail++] = children[c];
+                    }
+                }
+            }
+        }
+    }
 
-        int index = deque.removeFirst();
-        int startIndex = index;
-        FileRecord dirRecord = list.get(index);
+    /**
+     * @return whether name is a path below the directory, without allocating
+     * a prefix string
+     */
+    private static boolean isIn(String name, String dirName) {
+        int l = dirName.length();
+        return name.length() > l && name.charAt(l) == '/' && name.startsWith(dirName);
+    }
 
-        next = new ArrayList();
-        next.add(dirRecord);
+    /**
+     * View of a directory and its direct children in the list.
+     */
+    private class DirectoryList extends AbstractList<FileRecord> implements RandomAccess {
+        private final int dir;
 
-        String currentDirName = dirRecord.getName();
-        for(index++; index < list.size(); index++) {
-            FileRecord fr = list.get(index);
+        DirectoryList(int dir) {
+            this.dir = dir;
+        }
 
-            // Is record in current directory?
-            if(startIndex != 0 && !fr.getName().startsWith(currentDirName + "/")) {
-                break;
+        @Override
+        public FileRecord get(int index) {
+            if(index == 0) {
+                return list.get(dir);
             }
-
-            // Look at the path below current dir and / character
-            String subDirPart = startIndex == 0 ? fr.getName() : fr.getName().substring(currentDirName.length()+1);
-
-            // Only add direct subdirectories to the deque and next list and
-            // only files in currentDir to the next list
-            if(!subDirPart.contains("/")) {
-                next.add(fr);
-                if(fr.getType() == TYPE_DIRECTORY) {
-                    // breadth-first
-                    deque.addLast(index);
-                }
+            if(index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
             }
+            return list.get(children[childOffsets[dir] + index - 1]);
+        }
+
+        @Override
+        public int size() {
+            return 1 + childOffsets[dir+1] - childOffsets[dir];
         }
-        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < directories.length;
     }
 
     @Override
@@ -141,10 +216,7 @@ public class FileRecordListDirectoryIterator implements Iterable<List<FileRecord
         if(!hasNext()) {
             throw new NoSuchElementException();
         }
-
-        List<FileRecord> sublist = next;
-        next = null;
-        return sublist;
+        return new DirectoryList(directories[position++]);
     }
 
     @Override
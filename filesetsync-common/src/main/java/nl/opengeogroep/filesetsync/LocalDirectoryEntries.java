@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static nl.opengeogroep.filesetsync.FileRecord.TYPE_DIRECTORY;
+import static nl.opengeogroep.filesetsync.FileRecord.TYPE_FILE;
+
+/**
+ * The entries of a local directory with their attributes, to find the entries
+ * which are not in the file list by removing the entries to keep. Listing and
+ * removing an entry are constant time, so the difference with the file list
+ * is linear in the number of entries.
+ */
+public class LocalDirectoryEntries {
+
+    /**
+     * Attributes by name, in listing order. The attributes are null if they
+     * could not be read.
+     */
+    private final Map<String,BasicFileAttributes> entries;
+
+    LocalDirectoryEntries(Map<String,BasicFileAttributes> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * List the entries of a directory in a single pass. The attributes are
+     * read while listing, which avoids a separate stat per entry on platforms
+     * which return the attributes with the directory listing. Symbolic links
+     * are followed like java.io.File does.
+     *
+     * @throws java.nio.file.NoSuchFileException if the directory does not
+     * exist
+     * @throws java.nio.file.NotDirectoryException if the path is not a
+     * directory
+     */
+    public static LocalDirectoryEntries list(final Path dir) throws IOException {
+        final Map<String,BasicFileAttributes> entries = new LinkedHashMap();
+        Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path p, BasicFileAttributes attrs) {
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException {
+                if(p.equals(dir)) {
+                    // Only visited as a file if it is not a directory
+                    throw new NotDirectoryException(dir.toString());
+                }
+                entries.put(p.getFileName().toString(), attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path p, IOException e) throws IOException {
+                if(p.equals(dir)) {
+                    throw e;
+                }
+                entries.put(p.getFileName().toString(), null);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new LocalDirectoryEntries(entries);
+    }
+
+    /**
+     * @return the type of the entry, TYPE_FILE for anything which is not a
+     * directory or if the attributes could not be read
+     */
+    private static char typeOf(BasicFileAttributes attrs) {
+        return attrs != null && attrs.isDirectory() ? TYPE_DIRECTORY : TYPE_FILE;
+    }
+
+    /**
+     * Keep the entry with the name if it has the same type as the record in
+     * the file list. An entry of another type remains to be deleted.
+     *
+     * @return whether the entry was kept
+     */
+    public boolean keep(String name, char type) {
+        if(!entries.containsKey(name)) {
+            return false;
+        }
+        if(typeOf(entries.get(name)) != type) {
+            return false;
+        }
+        entries.remove(name);
+        return true;
+    }
+
+    /**
+     * Keep the entry with the name regardless of its type.
+     */
+    public void keep(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * @return the entries which were not kept, with the attributes read while
+     * listing or null attributes if they could not be read
+     */
+    public Map<String,BasicFileAttributes> getRemaining() {
+        return entries;
+    }
+}
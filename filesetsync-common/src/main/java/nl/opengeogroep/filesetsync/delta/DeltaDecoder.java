@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.delta;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import static nl.opengeogroep.filesetsync.delta.DeltaEncoder.*;
+
+/**
+ * Rebuilds a new file from the version of the file the signature was
+ * calculated of and a delta from {@link DeltaEncoder}. The MD5 hash of the
+ * rebuilt file is verified against the hash in the delta.
+ */
+public class DeltaDecoder {
+    private long copiedBytes;
+    private long literalBytes;
+
+    /**
+     * @return the number of bytes copied from the basis file
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    /**
+     * @return the number of bytes of literal data received
+     */
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    /**
+     * Write the new file to the output channel.
+     *
+     * @param delta the delta stream
+     * @param basis the file the signature was calculated of
+     * @param basisLength the length the signature was calculated of, which may
+     * be shorter than the basis file: blocks are not copied beyond it
+     * @param out the channel to write the new file to
+     * @throws IOException if the delta is invalid or the hash of the rebuilt
+     * file does not match
+     */
+    public void decode(InputStream delta, FileChannel basis, long basisLength, FileChannel out) throws IOException {
+        if(basisLength > basis.size()) {
+            throw new IOException(String.format("Basis file with size %d shorter than signature length %d", basis.size(), basisLength));
+        }
+        DataInputStream in = new DataInputStream(delta);
+        String header = in.readUTF();
+        if(!HEADER.equals(header)) {
+            throw new IOException("Invalid delta header: " + header);
+        }
+        int blockSize = in.readInt();
+        if(blockSize < Signature.MIN_BLOCK_SIZE || blockSize > Signature.MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid delta block size: " + blockSize);
+        }
+
+        MessageDigest fileHash = Signature.createStrongHash();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(MAX_LITERAL, blockSize));
+        byte[] array = buffer.array();
+
+        while(true) {
+            byte op = in.readByte();
+            if(op == OP_COPY) {
+                long position = (long)in.readInt() * blockSize;
+                long length = (long)in.readInt() * blockSize;
+                // The last block may be shorter
+                length = Math.min(length, basisLength - position);
+                if(position < 0 || length <= 0) {
+                    throw new IOException(String.format("Invalid block copy at %d of basis file with size %d", position, basisLength));
+                }
+                copiedBytes += length;
+                while(length > 0) {
+                    buffer.clear();
+                    buffer.limit((int)Math.min(buffer.capacity(), length));
+                    while(buffer.hasRemaining()) {
+                        if(basis.read(buffer, position + buffer.position()) == -1) {
+                            throw new EOFException("Unexpected end of basis file");
+                        }
+                    }
+                    buffer.flip();
+                    fileHash.update(array, 0, buffer.limit());
+                    position += buffer.limit();
+                    length -= buffer.limit();
+                    write(out, buffer);
+                }
+            } else if(op == OP_LITERAL) {
+                int length = in.readInt();
+                if(length < 0 || length > MAX_LITERAL) {
+                    throw new IOException("Invalid delta literal length: " + length);
+                }
+                in.readFully(array, 0, length);
+                fileHash.update(array, 0, length);
+                literalBytes += length;
+                buffer.clear();
+                buffer.limit(length);
+                write(out, buffer);
+            } else if(op == OP_END) {
+                byte[] expected = new byte[Signature.STRONG_HASH_LENGTH];
+                in.readFully(expected);
+                if(!Arrays.equals(expected, fileHash.digest())) {
+                    throw new IOException("Hash of file rebuilt from delta does not match");
+                }
+                return;
+            } else {
+                throw new IOException("Invalid delta operation: " + op);
+            }
+        }
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.delta;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a file as a delta against the signature of the version of the file
+ * the receiver has: references to blocks of that version the receiver can
+ * copy and the literal data which is not in it. The new file is read once as
+ * a stream, matching blocks at every offset using the rolling checksum.
+ * <p>
+ * Format: a header with the block size, followed by operations: 'C' with the
+ * index of the first block and number of consecutive blocks to copy, 'L' with
+ * the length and literal data, and 'E' with the MD5 hash of the new file.
+ */
+public class DeltaEncoder {
+    static final String HEADER = "filesetsync:delta:1";
+
+    public static final String MIME_TYPE = "application/x-filesetsync-delta";
+
+    /**
+     * HTTP header added to all responses of the delta endpoint, including
+     * errors, so a client can tell a missing file from a server which does
+     * not support delta transfer.
+     */
+    public static final String HTTP_HEADER = "X-Filesetsync-Delta";
+
+    static final byte OP_COPY = 'C';
+    static final byte OP_LITERAL = 'L';
+    static final byte OP_END = 'E';
+
+    /**
+     * Maximum length of a literal operation.
+     */
+    static final int MAX_LITERAL = 64 * 1024;
+
+    /**
+     * Maximum number of blocks with the same weak checksum of which the strong
+     * hash is compared at a single offset, to avoid quadratic time on
+     * repetitive data where many blocks have the same checksum.
+     */
+    static final int MAX_CANDIDATES = 16;
+
+    private final Signature signature;
+    private final int blockSize;
+    private final Map<Integer,List<Integer>> blocksByWeak = new HashMap();
+
+    private DataOutputStream out;
+    private MessageDigest fileHash;
+
+    private byte[] buf;
+    private int start;
+    private int end;
+    private int literalStart = -1;
+    private int copyBlock = -1;
+    private int copyCount;
+
+    private long copiedBytes;
+    private long literalBytes;
+
+    public DeltaEncoder(Signature signature) {
+        this.signature = signature;
+        this.blockSize = signature.getBlockSize();
+        for(int i = 0; i < signature.getBlockCount(); i++) {
+            Integer weak = signature.getWeak(i);
+            List<Integer> blocks = blocksByWeak.get(weak);
+            if(blocks == null) {
+                blocks = new ArrayList(1);
+                blocksByWeak.put(weak, blocks);
+            }
+            blocks.add(i);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the new file encoded as block copies
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    /**
+     * @return the number of bytes of the new file encoded as literal data
+     */
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    /**
+     * Write the delta of the new file read from the input stream. Does not
+     * close the output stream.
+     */
+    public void encode(InputStream in, OutputStream output) throws IOException {
+        out = new DataOutputStream(output);
+        fileHash = Signature.createStrongHash();
+        buf = new byte[Math.max(blockSize * 4, 256 * 1024)];
+        start = 0;
+        end = 0;
+        literalStart = -1;
+        copyBlock = -1;
+        copyCount = 0;
+
+        out.writeUTF(HEADER);
+        out.writeInt(blockSize);
+
+        RollingChecksum checksum = new RollingChecksum();
+        boolean checksumValid = false;
+        boolean eof = false;
+        while(true) {
+            // Keep at least one byte after the block in the buffer to roll
+            if(end - start <= blockSize && !eof) {
+                eof = fill(in);
+            }
+            int available = end - start;
+            if(available == 0) {
+                break;
+            }
+            if(available < blockSize) {
+                // Only at the end of the file: may match a shorter last block
+                int block = findMatch(RollingChecksum.calculate(buf, start, available), available);
+                if(block != -1) {
+                    copy(block, available);
+                } else {
+                    literal(available);
+                }
+                continue;
+            }
+            if(!checksumValid) {
+                checksum.reset(buf, start, blockSize);
+                checksumValid = true;
+            }
+            int block = findMatch(checksum.getValue(), blockSize);
+            if(block != -1) {
+                copy(block, blockSize);
+                checksumValid = false;
+            } else {
+                literal(1);
+                if(start + blockSize - 1 < end) {
+                    checksum.roll(buf[start - 1], buf[start + blockSize - 1]);
+                } else {
+                    checksumValid = false;
+                }
+            }
+        }
+        flushLiteral();
+        flushCopy();
+        fileHash.update(buf, 0, end);
+        out.writeByte(OP_END);
+        out.write(fileHash.digest());
+        out.flush();
+    }
+
+    /**
+     * Move the unprocessed bytes to the start of the buffer and fill it.
+     *
+     * @return true if the end of the stream was reached
+     */
+    private boolean fill(InputStream in) throws IOException {
+        flushLiteral();
+        fileHash.update(buf, 0, start);
+        System.arraycopy(buf, start, buf, 0, end - start);
+        end -= start;
+        start = 0;
+        while(end < buf.length) {
+            int read = in.read(buf, end, buf.length - end);
+            if(read == -1) {
+                return true;
+            }
+            end += read;
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of a block with the same contents as the bytes at the
+     * current position, or -1
+     */
+    private int findMatch(int weak, int length) {
+        List<Integer> blocks = blocksByWeak.get(weak);
+        if(blocks == null) {
+            return -1;
+        }
+        byte[] strong = null;
+        // Prefer the block following the previous copied block, which
+        // continues the copy operation
+        int next = copyBlock == -1 ? -1 : copyBlock + copyCount;
+        if(next != -1 && next < signature.getBlockCount() && signature.getWeak(next) == weak && signature.getBlockLength(next) == length) {
+            strong = strongHash(length);
+            if(Arrays.equals(strong, signature.getStrong(next))) {
+                return next;
+            }
+        }
+        int candidates = 0;
+        for(int block: blocks) {
+            if(block == next || signature.getBlockLength(block) != length) {
+                continue;
+            }
+            if(strong == null) {
+                strong = strongHash(length);
+            }
+            if(Arrays.equals(strong, signature.getStrong(block))) {
+                return block;
+            }
+            if(++candidates == MAX_CANDIDATES) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private byte[] strongHash(int length) {
+        MessageDigest md = Signature.createStrongHash();
+        md.update(buf, start, length);
+        return md.digest();
+    }
+
+    private void copy(int block, int length) throws IOException {
+        flushLiteral();
+        if(copyBlock != -1 && block != copyBlock + copyCount) {
+            flushCopy();
+        }
+        if(copyBlock == -1) {
+            copyBlock = block;
+        }
+        copyCount++;
+        copiedBytes += length;
+        start += length;
+    }
+
+    private void literal(int length) throws IOException {
+        flushCopy();
+        if(literalStart == -1) {
+            literalStart = start;
+        }
+        start += length;
+        literalBytes += length;
+        if(start - literalStart >= MAX_LITERAL) {
+            flushLiteral();
+        }
+    }
+
+    private void flushLiteral() throws IOException {
+        if(literalStart != -1) {
+            out.writeByte(OP_LITERAL);
+            out.writeInt(start - literalStart);
+            out.write(buf, literalStart, start - literalStart);
+            literalStart = -1;
+        }
+    }
+
+    private void flushCopy() throws IOException {
+        if(copyBlock != -1) {
+            out.writeByte(OP_COPY);
+            out.writeInt(copyBlock);
+            out.writeInt(copyCount);
+            copyBlock = -1;
+            copyCount = 0;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.delta;
+
+/**
+ * Weak checksum of a block of bytes which can be updated cheaply when the
+ * block is moved one byte forward, as used by rsync. Used to find candidate
+ * matching blocks at every offset of a file, which are then confirmed with a
+ * strong hash.
+ */
+public class RollingChecksum {
+    private int a;
+    private int b;
+    private int length;
+
+    public void reset(byte[] buf, int off, int len) {
+        a = 0;
+        b = 0;
+        length = len;
+        for(int i = 0; i < len; i++) {
+            int x = buf[off + i] & 0xff;
+            a += x;
+            b += (len - i) * x;
+        }
+        a &= 0xffff;
+        b &= 0xffff;
+    }
+
+    /**
+     * Move the block one byte forward.
+     *
+     * @param out the first byte of the current block
+     * @param in the byte after the current block
+     */
+    public void roll(byte out, byte in) {
+        int o = out & 0xff;
+        a = (a - o + (in & 0xff)) & 0xffff;
+        b = (b - length * o + a) & 0xffff;
+    }
+
+    public int getValue() {
+        return (b << 16) | a;
+    }
+
+    public static int calculate(byte[] buf, int off, int len) {
+        RollingChecksum c = new RollingChecksum();
+        c.reset(buf, off, len);
+        return c.getValue();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.delta;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checksums of the blocks of a file the receiver already has, sent to the
+ * sender to encode a delta against. Each block has a weak rolling checksum
+ * and a strong MD5 hash. The last block is shorter if the file length is not
+ * a multiple of the block size.
+ */
+public class Signature {
+    static final String HEADER = "filesetsync:signature:1";
+
+    public static final String MIME_TYPE = "application/x-filesetsync-signature";
+
+    static final int STRONG_HASH_LENGTH = 16;
+
+    public static final int MIN_BLOCK_SIZE = 2048;
+
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * Maximum number of blocks, to limit the memory used for a signature.
+     */
+    public static final int MAX_BLOCK_COUNT = 4 * 1024 * 1024;
+
+    private final int blockSize;
+    private final long length;
+    private final int[] weak;
+    private final byte[][] strong;
+
+    private Signature(int blockSize, long length) throws IOException {
+        this.blockSize = blockSize;
+        this.length = length;
+        long count = getBlockCount(length, blockSize);
+        if(count > MAX_BLOCK_COUNT) {
+            throw new IOException("Too many blocks for file length " + length + " and block size " + blockSize);
+        }
+        this.weak = new int[(int)count];
+        this.strong = new byte[(int)count][];
+    }
+
+    /**
+     * Choose a block size of about the square root of the file length, as
+     * rsync does, so the signature and the number of blocks to match both
+     * grow slowly with the file length.
+     */
+    public static int chooseBlockSize(long length) {
+        long size = (long)Math.sqrt(length);
+        size = size - size % 1024;
+        return (int)Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    static long getBlockCount(long length, int blockSize) {
+        return (length + blockSize - 1) / blockSize;
+    }
+
+    static MessageDigest createStrongHash() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch(NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calculate the signature of a file.
+     *
+     * @param in the file contents
+     * @param length the length of the file
+     */
+    public static Signature calculate(InputStream in, long length, int blockSize) throws IOException {
+        Signature s = new Signature(blockSize, length);
+        DataInputStream din = new DataInputStream(in);
+        MessageDigest md = createStrongHash();
+        byte[] buf = new byte[blockSize];
+        for(int i = 0; i < s.weak.length; i++) {
+            int len = s.getBlockLength(i);
+            din.readFully(buf, 0, len);
+            s.weak[i] = RollingChecksum.calculate(buf, 0, len);
+            md.update(buf, 0, len);
+            s.strong[i] = md.digest();
+        }
+        return s;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getBlockCount() {
+        return weak.length;
+    }
+
+    public int getBlockLength(int block) {
+        return (int)Math.min(blockSize, length - (long)block * blockSize);
+    }
+
+    public int getWeak(int block) {
+        return weak[block];
+    }
+
+    public byte[] getStrong(int block) {
+        return strong[block];
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeUTF(HEADER);
+        dos.writeInt(blockSize);
+        dos.writeLong(length);
+        for(int i = 0; i < weak.length; i++) {
+            dos.writeInt(weak[i]);
+            dos.write(strong[i]);
+        }
+        dos.flush();
+    }
+
+    public static Signature read(InputStream in) throws IOException {
+        return read(in, Long.MAX_VALUE);
+    }
+
+    /**
+     * Read a signature to encode a file of the given length against. A
+     * signature with more blocks than that file has can not be useful, so it
+     * is rejected before the blocks are allocated.
+     *
+     * @param in the signature
+     * @param targetLength the length of the file to encode
+     */
+    public static Signature read(InputStream in, long targetLength) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        String header = din.readUTF();
+        if(!HEADER.equals(header)) {
+            throw new IOException("Invalid signature header: " + header);
+        }
+        int blockSize = din.readInt();
+        long length = din.readLong();
+        if(blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || length < 0) {
+            throw new IOException(String.format("Invalid signature block size %d or length %d", blockSize, length));
+        }
+        long maxBlockCount = getBlockCount(Math.min(targetLength, Long.MAX_VALUE - blockSize), blockSize);
+        if(getBlockCount(length, blockSize) > maxBlockCount) {
+            throw new IOException(String.format("Signature of %d blocks of %d bytes is larger than the file of %d bytes", getBlockCount(length, blockSize), blockSize, targetLength));
+        }
+        Signature s = new Signature(blockSize, length);
+        for(int i = 0; i < s.weak.length; i++) {
+            s.weak[i] = din.readInt();
+            s.strong[i] = new byte[STRONG_HASH_LENGTH];
+            din.readFully(s.strong[i]);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.encoding;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compression used for HTTP responses (the Content-Encoding) and for files
+ * written by the client. The server chooses the first encoding in its order
+ * of preference which the client accepts in the Accept-Encoding request
+ * header, so clients which only know gzip still get gzip.
+ * <p>
+ * Encodings using a native library are only available if that library can be
+ * loaded on this platform. Zstandard is only available if the optional
+ * zstd-jni dependency is on the classpath.
+ */
+public abstract class ContentEncoding {
+
+    public static final String GZIP = "gzip";
+    public static final String ZSTD = "zstd";
+    public static final String LZ4 = "lz4";
+
+    /**
+     * Default order of preference for responses: zstd compresses about as
+     * well as gzip in a fraction of the time, LZ4 is even faster but
+     * compresses less so it is only preferred when configured.
+     */
+    public static final String DEFAULT_PREFERENCE = ZSTD + "," + GZIP + "," + LZ4;
+
+    private static final Map<String,ContentEncoding> encodings = new LinkedHashMap();
+
+    static {
+        try {
+            register(new ZstdContentEncoding());
+        } catch(LinkageError e) {
+            // zstd-jni is an optional dependency which is not on the classpath
+        }
+        register(new Lz4ContentEncoding());
+        register(new GzipContentEncoding());
+    }
+
+    private static void register(ContentEncoding encoding) {
+        encodings.put(encoding.getName(), encoding);
+    }
+
+    public abstract String getName();
+
+    /**
+     * @return the file name extension of a file compressed with this
+     * encoding, including the dot
+     */
+    public abstract String getFileExtension();
+
+    /**
+     * @return the first bytes of the compressed data, to recognize it
+     */
+    abstract byte[] getMagic();
+
+    /**
+     * @return whether this encoding can be used on this platform
+     */
+    public boolean isAvailable() {
+        return true;
+    }
+
+    public abstract int getDefaultLevel();
+
+    /**
+     * Parse a compression level setting for this encoding: a number, "fast",
+     * "best" or "default".
+     *
+     * @return the parsed level or the default level if the setting is null
+     * or invalid
+     */
+    public abstract int parseLevel(String s);
+
+    public abstract OutputStream compress(OutputStream out, int level) throws IOException;
+
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /**
+     * @return the encoding or null if not supported or not available
+     */
+    public static ContentEncoding get(String name) {
+        if(name == null) {
+            return null;
+        }
+        ContentEncoding encoding = encodings.get(name.trim().toLowerCase());
+        return encoding != null && encoding.isAvailable() ? encoding : null;
+    }
+
+    /**
+     * @return gzip, which is always available
+     */
+    public static ContentEncoding getDefault() {
+        return encodings.get(GZIP);
+    }
+
+    /**
+     * @return all supported encodings, including those which are not
+     * available on this platform
+     */
+    public static List<ContentEncoding> getAll() {
+        return Collections.unmodifiableList(new ArrayList(encodings.values()));
+    }
+
+    /**
+     * @return all encodings which are available on this platform
+     */
+    public static List<ContentEncoding> getAvailable() {
+        List<ContentEncoding> l = new ArrayList();
+        for(ContentEncoding encoding: encodings.values()) {
+            if(encoding.isAvailable()) {
+                l.add(encoding);
+            }
+        }
+        return Collections.unmodifiableList(l);
+    }
+
+    /**
+     * @param names comma separated encoding names
+     * @return the supported and available encodings in the same order
+     */
+    public static List<ContentEncoding> parseList(String names) {
+        List<ContentEncoding> l = new ArrayList();
+        if(names != null) {
+            for(String name: names.split(",")) {
+                ContentEncoding encoding = get(name);
+                if(encoding != null && !l.contains(encoding)) {
+                    l.add(encoding);
+                }
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Choose the encoding for a response.
+     *
+     * @param acceptEncoding the Accept-Encoding request header
+     * @param preference the encodings in order of preference of the server
+     * @return the first encoding in the order of preference which is accepted
+     * by the client with a non-zero quality value, or null if the response
+     * should not be compressed
+     */
+    public static ContentEncoding negotiate(String acceptEncoding, List<ContentEncoding> preference) {
+        if(acceptEncoding == null) {
+            return null;
+        }
+        Map<String,Boolean> accepted = new HashMap();
+        for(String s: acceptEncoding.split(",")) {
+            String[] parts = s.split(";");
+            boolean accept = true;
+            for(int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if(param.startsWith("q=")) {
+                    try {
+                        accept = Double.parseDouble(param.substring(2).trim()) > 0;
+                    } catch(NumberFormatException e) {
+                    }
+                }
+            }
+            accepted.put(parts[0].trim().toLowerCase(), accept);
+        }
+        for(ContentEncoding encoding: preference) {
+            Boolean accept = accepted.get(encoding.getName());
+            if(accept == null) {
+                accept = accepted.get("*");
+            }
+            if(Boolean.TRUE.equals(accept)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decompress a stream with any of the supported encodings, recognized by
+     * the first bytes of the stream.
+     *
+     * @throws IOException if the encoding is not recognized or not available
+     */
+    public static InputStream decompressAny(InputStream in) throws IOException {
+        in = new BufferedInputStream(in);
+        in.mark(4);
+        byte[] magic = new byte[4];
+        int n = 0, read;
+        while(n < magic.length && (read = in.read(magic, n, magic.length - n)) != -1) {
+            n += read;
+        }
+        in.reset();
+        for(ContentEncoding encoding: encodings.values()) {
+            byte[] m = encoding.getMagic();
+            boolean match = n >= m.length;
+            for(int i = 0; match && i < m.length; i++) {
+                match = magic[i] == m[i];
+            }
+            if(match) {
+                if(!encoding.isAvailable()) {
+                    throw new IOException("Compression " + encoding.getName() + " not available on this platform");
+                }
+                return encoding.decompress(in);
+            }
+        }
+        throw new IOException("Unknown compression");
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.encoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import nl.opengeogroep.filesetsync.util.CompressingOutputStream;
+
+/**
+ * Gzip using the JDK deflater. The output stream is a
+ * {@link CompressingOutputStream} so the level can be changed while writing.
+ */
+class GzipContentEncoding extends ContentEncoding {
+
+    @Override
+    public String getName() {
+        return GZIP;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".gz";
+    }
+
+    @Override
+    byte[] getMagic() {
+        return new byte[] { 0x1f, (byte)0x8b };
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    @Override
+    public int parseLevel(String s) {
+        return CompressingOutputStream.parseLevel(s, getDefaultLevel());
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        return new CompressingOutputStream(out, level);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new GZIPInputStream(in);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.encoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+/**
+ * LZ4 frame format using lz4-java, which falls back to a pure Java
+ * implementation if its native library is not available. There is only a
+ * single (fast) compression level. The name "lz4" is not a registered HTTP
+ * content coding, it is only used between filesetsync clients and servers.
+ */
+class Lz4ContentEncoding extends ContentEncoding {
+
+    @Override
+    public String getName() {
+        return LZ4;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".lz4";
+    }
+
+    @Override
+    byte[] getMagic() {
+        return new byte[] { 0x04, 0x22, 0x4d, 0x18 };
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return 0;
+    }
+
+    @Override
+    public int parseLevel(String s) {
+        return 0;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_256KB);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new LZ4FrameInputStream(in);
+    }
+}
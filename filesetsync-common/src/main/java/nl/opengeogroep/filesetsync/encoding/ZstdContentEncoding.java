@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.encoding;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Zstandard using the native library of zstd-jni, which is only available on
+ * the platforms for which zstd-jni includes a library.
+ */
+class ZstdContentEncoding extends ContentEncoding {
+    private static final Log log = LogFactory.getLog(ZstdContentEncoding.class);
+
+    static final int MIN_LEVEL = 1;
+    static final int MAX_LEVEL = 19;
+    static final int DEFAULT_LEVEL = 3;
+
+    private Boolean available;
+
+    @Override
+    public String getName() {
+        return ZSTD;
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".zst";
+    }
+
+    @Override
+    byte[] getMagic() {
+        return new byte[] { 0x28, (byte)0xb5, 0x2f, (byte)0xfd };
+    }
+
+    @Override
+    public synchronized boolean isAvailable() {
+        if(available == null) {
+            try {
+                Native.load();
+                available = true;
+            } catch(Throwable e) {
+                log.warn("Zstandard compression not available: " + e);
+                available = false;
+            }
+        }
+        return available;
+    }
+
+    @Override
+    public int getDefaultLevel() {
+        return DEFAULT_LEVEL;
+    }
+
+    /**
+     * Parse a compression level setting: a number from 1 (fastest) to 19
+     * (best compression), "fast", "best" or "default" (3).
+     */
+    @Override
+    public int parseLevel(String s) {
+        if(s == null) {
+            return DEFAULT_LEVEL;
+        }
+        s = s.trim().toLowerCase();
+        switch(s) {
+            case "fast": return MIN_LEVEL;
+            case "best": return MAX_LEVEL;
+            case "default": return DEFAULT_LEVEL;
+        }
+        try {
+            int level = Integer.parseInt(s);
+            if(level >= MIN_LEVEL && level <= MAX_LEVEL) {
+                return level;
+            }
+        } catch(NumberFormatException e) {
+        }
+        return DEFAULT_LEVEL;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        return new ZstdOutputStream(out, level);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new ZstdInputStream(in);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.hash;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * CRC-32, fastest but only 32 bits. Only suitable for detecting changed
+ * files in filesets with a limited number of files.
+ */
+class Crc32HashAlgorithm extends HashAlgorithm {
+
+    @Override
+    public String getName() {
+        return CRC32;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        final CRC32 crc = new CRC32();
+        return new Hasher() {
+            @Override
+            public void update(byte[] b, int off, int len) {
+                crc.update(b, off, len);
+            }
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                if(buffer.hasArray()) {
+                    crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    buffer.position(buffer.limit());
+                } else {
+                    byte[] b = new byte[Math.min(buffer.remaining(), 64 * 1024)];
+                    while(buffer.hasRemaining()) {
+                        int n = Math.min(b.length, buffer.remaining());
+                        buffer.get(b, 0, n);
+                        crc.update(b, 0, n);
+                    }
+                }
+            }
+
+            @Override
+            public String digest() {
+                return String.format("%08x", crc.getValue());
+            }
+        };
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.hash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.commons.lang3.SystemUtils;
+
+/**
+ * Hashes files choosing the I/O strategy by file size and OS:
+ * <ul>
+ * <li>small files are read with a single read into a reusable direct
+ * buffer, which the channel fills without copying the data from a temporary
+ * direct buffer to a heap array,</li>
+ * <li>larger files are read in a loop with a large reusable buffer,</li>
+ * <li>large files are memory mapped in bounded windows, except on Windows
+ * where a mapped file can not be overwritten until the mapping is garbage
+ * collected (http://bugs.java.com/view_bug.do?bug_id=4724038).</li>
+ * </ul>
+ * Thread-safe.
+ */
+public class FileHasher {
+
+    public enum Strategy {
+        DIRECT("direct"),
+        STREAM("buffered"),
+        MAPPED("mapped");
+
+        private final String description;
+
+        private Strategy(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    static final int DIRECT_MAX_SIZE = 256 * 1024;
+
+    static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+    static final long MAPPED_MIN_SIZE = 16 * 1024 * 1024;
+
+    static final long MAPPED_WINDOW_SIZE = 32 * 1024 * 1024;
+
+    private static final boolean MAPPED_SUPPORTED = !SystemUtils.IS_OS_WINDOWS;
+
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[STREAM_BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<ByteBuffer> directBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(DIRECT_MAX_SIZE);
+        }
+    };
+
+    public static Strategy selectStrategy(long size) {
+        if(size <= DIRECT_MAX_SIZE) {
+            return Strategy.DIRECT;
+        } else if(size >= MAPPED_MIN_SIZE && MAPPED_SUPPORTED) {
+            return Strategy.MAPPED;
+        } else {
+            return Strategy.STREAM;
+        }
+    }
+
+    /**
+     * @param statistics if not null, the strategy used and time taken is
+     * added to the statistics
+     */
+    public static String hash(File f, HashAlgorithm algorithm, HashStatistics statistics) throws IOException {
+        return hash(f, algorithm, null, MAPPED_WINDOW_SIZE, statistics);
+    }
+
+    /**
+     * @param strategy strategy to use, null to select by file size
+     */
+    static String hash(File f, HashAlgorithm algorithm, Strategy strategy, long mappedWindowSize, HashStatistics statistics) throws IOException {
+        long startTime = System.nanoTime();
+        try(RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if(strategy == null) {
+                strategy = selectStrategy(size);
+            }
+            HashAlgorithm.Hasher hasher = algorithm.newHasher();
+            switch(strategy) {
+                case MAPPED:
+                    hashMapped(channel, size, mappedWindowSize, hasher);
+                    break;
+                case DIRECT:
+                    hashDirect(channel, size, hasher);
+                    break;
+                default:
+                    hashRead(channel, hasher);
+            }
+            String hash = hasher.digest();
+            if(statistics != null) {
+                statistics.add(strategy, size, System.nanoTime() - startTime);
+            }
+            return hash;
+        }
+    }
+
+    private static void hashRead(FileChannel channel, HashAlgorithm.Hasher hasher) throws IOException {
+        byte[] buffer = buffers.get();
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        int n;
+        while((n = channel.read(bb)) != -1) {
+            if(n > 0) {
+                hasher.update(buffer, 0, bb.position());
+                bb.clear();
+            }
+        }
+    }
+
+    /**
+     * Files not larger than the direct buffer are hashed with a single read
+     * and update, larger files in buffer sized parts.
+     */
+    private static void hashDirect(FileChannel channel, long size, HashAlgorithm.Hasher hasher) throws IOException {
+        ByteBuffer bb = directBuffers.get();
+        long position = 0;
+        while(position < size) {
+            bb.clear();
+            bb.limit((int)Math.min(bb.capacity(), size - position));
+            while(bb.hasRemaining()) {
+                if(channel.read(bb, position + bb.position()) == -1) {
+                    // Truncated while hashing
+                    break;
+                }
+            }
+            bb.flip();
+            if(!bb.hasRemaining()) {
+                break;
+            }
+            position += bb.remaining();
+            hasher.update(bb);
+        }
+    }
+
+    private static void hashMapped(FileChannel channel, long size, long windowSize, HashAlgorithm.Hasher hasher) throws IOException {
+        for(long position = 0; position < size; position += windowSize) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+            hasher.update(window);
+        }
+    }
+}
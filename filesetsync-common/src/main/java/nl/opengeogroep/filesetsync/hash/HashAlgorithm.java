@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Algorithm used to hash file contents to compare files without transferring
+ * them. The algorithm is negotiated by the client in the list request: the
+ * client sends the algorithms it accepts in order of preference and the server
+ * returns the hashes of the first one it supports in the response header
+ * HEADER. Servers which do not know about negotiation always use MD5.
+ * <p>
+ * Hashes are hex encoded strings, so they can be used in the file list.
+ */
+public abstract class HashAlgorithm {
+
+    public static final String MD5 = "md5";
+    public static final String XXH64 = "xxh64";
+    public static final String CRC32 = "crc32";
+
+    /**
+     * Algorithm used when no algorithm is negotiated, for compatibility with
+     * older clients and servers.
+     */
+    public static final String DEFAULT = MD5;
+
+    public static final String HEADER = "X-Filesetsync-Hash-Algorithm";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<String,HashAlgorithm> algorithms = new LinkedHashMap();
+
+    static {
+        register(new Md5HashAlgorithm());
+        register(new XXHash64Algorithm());
+        register(new Crc32HashAlgorithm());
+    }
+
+    private static void register(HashAlgorithm algorithm) {
+        algorithms.put(algorithm.getName(), algorithm);
+    }
+
+    /**
+     * Incremental hash calculation for a single file. Not thread-safe.
+     */
+    public interface Hasher {
+        void update(byte[] b, int off, int len);
+
+        void update(ByteBuffer buffer);
+
+        /**
+         * @return the hex encoded hash of all bytes updated
+         */
+        String digest();
+    }
+
+    public abstract String getName();
+
+    public abstract Hasher newHasher();
+
+    public String hash(InputStream in) throws IOException {
+        Hasher hasher = newHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while((n = in.read(buffer)) != -1) {
+            hasher.update(buffer, 0, n);
+        }
+        return hasher.digest();
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /**
+     * @return the algorithm or null if not supported
+     */
+    public static HashAlgorithm get(String name) {
+        return name == null ? null : algorithms.get(name.trim().toLowerCase());
+    }
+
+    public static HashAlgorithm getDefault() {
+        return algorithms.get(DEFAULT);
+    }
+
+    public static List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(algorithms.keySet().toArray(new String[] {})));
+    }
+
+    /**
+     * Choose the first supported algorithm from a comma separated list of
+     * algorithms in order of preference.
+     *
+     * @return the first supported algorithm or the default algorithm if none
+     * are supported or the list is null
+     */
+    public static HashAlgorithm negotiate(String preference) {
+        if(preference != null) {
+            for(String name: preference.split(",")) {
+                HashAlgorithm algorithm = get(name);
+                if(algorithm != null) {
+                    return algorithm;
+                }
+            }
+        }
+        return getDefault();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.hash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Number of files, bytes and time spent hashing per FileHasher strategy.
+ * Thread-safe.
+ */
+public class HashStatistics {
+    private static final int STRATEGIES = FileHasher.Strategy.values().length;
+
+    private final AtomicLongArray files = new AtomicLongArray(STRATEGIES);
+    private final AtomicLongArray bytes = new AtomicLongArray(STRATEGIES);
+    private final AtomicLongArray nanos = new AtomicLongArray(STRATEGIES);
+
+    public void add(FileHasher.Strategy strategy, long size, long timeNanos) {
+        files.incrementAndGet(strategy.ordinal());
+        bytes.addAndGet(strategy.ordinal(), size);
+        nanos.addAndGet(strategy.ordinal(), timeNanos);
+    }
+
+    public long getFiles(FileHasher.Strategy strategy) {
+        return files.get(strategy.ordinal());
+    }
+
+    public long getBytes(FileHasher.Strategy strategy) {
+        return bytes.get(strategy.ordinal());
+    }
+
+    public long getTimeNanos(FileHasher.Strategy strategy) {
+        return nanos.get(strategy.ordinal());
+    }
+
+    /**
+     * @return for example "buffered: 10 files, 5120 KB at 250000 KB/s; mapped:
+     * 1 file, 40960 KB at 800000 KB/s", only for strategies used
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for(FileHasher.Strategy strategy: FileHasher.Strategy.values()) {
+            long f = getFiles(strategy);
+            if(f == 0) {
+                continue;
+            }
+            long b = getBytes(strategy);
+            long millis = getTimeNanos(strategy) / 1000000;
+            if(sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(String.format("%s: %d file%s, %d KB at %s",
+                    strategy.getDescription(),
+                    f,
+                    f == 1 ? "" : "s",
+                    b / 1024,
+                    millis < 100 ? "n/a" : Math.round(b / 1024.0 / (millis / 1000.0)) + " KB/s"));
+        }
+        return sb.length() == 0 ? "none" : sb.toString();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * MD5, the only algorithm used by versions without hash negotiation.
+ */
+class Md5HashAlgorithm extends HashAlgorithm {
+
+    @Override
+    public String getName() {
+        return MD5;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        final MessageDigest md = DigestUtils.getMd5Digest();
+        return new Hasher() {
+            @Override
+            public void update(byte[] b, int off, int len) {
+                md.update(b, off, len);
+            }
+
+            @Override
+            public void update(ByteBuffer buffer) {
+                md.update(buffer);
+            }
+
+            @Override
+            public String digest() {
+                return Hex.encodeHexString(md.digest());
+            }
+        };
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pure Java implementation of the 64 bit xxHash (XXH64) non-cryptographic
+ * hash with seed 0, several times faster than MD5.
+ */
+class XXHash64Algorithm extends HashAlgorithm {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    @Override
+    public String getName() {
+        return XXH64;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new XXHash64Hasher();
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    private static class XXHash64Hasher implements Hasher {
+        private long v1 = PRIME1 + PRIME2;
+        private long v2 = PRIME2;
+        private long v3 = 0;
+        private long v4 = -PRIME1;
+
+        private long totalLength = 0;
+
+        /** Bytes not yet processed because less than a 32 byte stripe */
+        private final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            update(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            ByteBuffer in = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            totalLength += in.remaining();
+
+            if(pending.position() > 0) {
+                while(pending.hasRemaining() && in.hasRemaining()) {
+                    pending.put(in.get());
+                }
+                if(pending.hasRemaining()) {
+                    buffer.position(buffer.limit());
+                    return;
+                }
+                pending.flip();
+                processStripe(pending);
+                pending.clear();
+            }
+            while(in.remaining() >= 32) {
+                processStripe(in);
+            }
+            pending.put(in);
+            buffer.position(buffer.limit());
+        }
+
+        private void processStripe(ByteBuffer in) {
+            v1 = round(v1, in.getLong());
+            v2 = round(v2, in.getLong());
+            v3 = round(v3, in.getLong());
+            v4 = round(v4, in.getLong());
+        }
+
+        @Override
+        public String digest() {
+            long h;
+            if(totalLength >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = mergeRound(h, v1);
+                h = mergeRound(h, v2);
+                h = mergeRound(h, v3);
+                h = mergeRound(h, v4);
+            } else {
+                h = PRIME5;
+            }
+            h += totalLength;
+
+            ByteBuffer in = pending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            in.flip();
+            while(in.remaining() >= 8) {
+                h ^= round(0, in.getLong());
+                h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            }
+            if(in.remaining() >= 4) {
+                h ^= (in.getInt() & 0xFFFFFFFFL) * PRIME1;
+                h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+            }
+            while(in.hasRemaining()) {
+                h ^= (in.get() & 0xFF) * PRIME5;
+                h = Long.rotateLeft(h, 11) * PRIME1;
+            }
+
+            h ^= h >>> 33;
+            h *= PRIME2;
+            h ^= h >>> 29;
+            h *= PRIME3;
+            h ^= h >>> 32;
+            return String.format("%016x", h);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import nl.opengeogroep.filesetsync.FileRecord;
+
+/**
+ * Compact binary file list format for caching a file list on disk. The list
+ * can be read through a memory-mapped view, which creates the FileRecords
+ * only when they are accessed instead of parsing the whole list up front.
+ * <p>
+ * The format is a header, fixed-width records and a string table with the
+ * UTF-8 encoded names and hashes. All numbers are big-endian.
+ * <pre>
+ * header (32 bytes):
+ *   int   magic "FSFL"
+ *   int   version
+ *   int   record count
+ *   int   record size
+ *   long  string table offset
+ *   long  string table length
+ * record (32 bytes):
+ *   int   name offset in string table
+ *   int   name length
+ *   int   hash offset in string table, -1 if no hash
+ *   short hash length
+ *   byte  type
+ *   byte  reserved
+ *   long  size
+ *   long  last modified
+ * </pre>
+ */
+public class BinaryFileList {
+    static final int MAGIC = 0x4653464c;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int RECORD_SIZE = 32;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int WRITE_BUFFER_RECORDS = 4096;
+
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Write a file list. The records must not be null.
+     *
+     * @throws IOException if writing fails or the names and hashes are too
+     * large for the format (2 GB)
+     */
+    public static void write(Path file, List<FileRecord> list) throws IOException {
+        int count = list.size();
+        long stringTableOffset = HEADER_SIZE + (long)count * RECORD_SIZE;
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer records = ByteBuffer.allocate(WRITE_BUFFER_RECORDS * RECORD_SIZE);
+            long recordsPosition = HEADER_SIZE;
+            ByteBuffer strings = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            long stringsPosition = stringTableOffset;
+            long stringTableLength = 0;
+
+            for(FileRecord fr: list) {
+                byte[] name = fr.getName().getBytes(UTF8);
+                byte[] hash = fr.getHash() == null ? null : fr.getHash().getBytes(UTF8);
+                long nameOffset = stringTableLength;
+                stringTableLength += name.length;
+                long hashOffset = hash == null ? -1 : stringTableLength;
+                stringTableLength += hash == null ? 0 : hash.length;
+                if(stringTableLength > Integer.MAX_VALUE || (hash != null && hash.length > Short.MAX_VALUE)) {
+                    throw new IOException("File list too large for binary format");
+                }
+
+                stringsPosition = put(channel, strings, stringsPosition, name);
+                if(hash != null) {
+                    stringsPosition = put(channel, strings, stringsPosition, hash);
+                }
+
+                if(!records.hasRemaining()) {
+                    recordsPosition = flush(channel, records, recordsPosition);
+                }
+                records.putInt((int)nameOffset);
+                records.putInt(name.length);
+                records.putInt((int)hashOffset);
+                records.putShort((short)(hash == null ? 0 : hash.length));
+                records.put((byte)fr.getType());
+                records.put((byte)0);
+                records.putLong(fr.getSize());
+                records.putLong(fr.getLastModified());
+            }
+            flush(channel, records, recordsPosition);
+            flush(channel, strings, stringsPosition);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(count);
+            header.putInt(RECORD_SIZE);
+            header.putLong(stringTableOffset);
+            header.putLong(stringTableLength);
+            flush(channel, header, 0);
+        }
+    }
+
+    private static long put(FileChannel channel, ByteBuffer buffer, long position, byte[] b) throws IOException {
+        if(buffer.remaining() < b.length) {
+            position = flush(channel, buffer, position);
+            if(b.length > buffer.capacity()) {
+                ByteBuffer large = ByteBuffer.wrap(b);
+                while(large.hasRemaining()) {
+                    position += channel.write(large, position);
+                }
+                return position;
+            }
+        }
+        buffer.put(b);
+        return position;
+    }
+
+    /**
+     * Write the buffer at the position and clear it.
+     *
+     * @return the position after the written bytes
+     */
+    private static long flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        return position;
+    }
+
+    /**
+     * Read a file list written by write().
+     *
+     * @param map if true the file is memory-mapped, otherwise it is read into
+     * the heap. A mapped file can not be deleted or replaced on Windows until
+     * the mapping is garbage collected, so do not map files which are
+     * replaced on that platform.
+     * @return a list which creates the FileRecords when they are accessed.
+     * The list supports set() so records can be cleared when they are
+     * processed, which does not modify the file.
+     * @throws IOException if the file can not be read or is not a valid binary
+     * file list
+     */
+    public static List<FileRecord> read(Path file, boolean map) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                throw new IOException("Binary file list too large: " + file);
+            }
+            if(map) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int)size);
+                while(buffer.hasRemaining()) {
+                    if(channel.read(buffer) == -1) {
+                        throw new IOException("Unexpected end of file: " + file);
+                    }
+                }
+                buffer.flip();
+            }
+        }
+        return new RecordList(buffer, file);
+    }
+
+    private static class RecordList extends AbstractList<FileRecord> implements RandomAccess {
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int stringTableOffset;
+
+        /**
+         * Set when a record is replaced by set(), written from one thread
+         * while other threads may read other indexes like an ArrayList.
+         */
+        private final boolean[] replaced;
+
+        private final ConcurrentMap<Integer,FileRecord> replacements = new ConcurrentHashMap();
+
+        RecordList(ByteBuffer buffer, Path file) throws IOException {
+            this.buffer = buffer;
+            if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary file list: " + file);
+            }
+            if(buffer.getInt(4) != VERSION) {
+                throw new IOException(String.format("Unsupported binary file list version %d: %s", buffer.getInt(4), file));
+            }
+            count = buffer.getInt(8);
+            long stringTableOffset = buffer.getLong(16);
+            long stringTableLength = buffer.getLong(24);
+            if(count < 0 || buffer.getInt(12) != RECORD_SIZE
+                    || stringTableOffset != HEADER_SIZE + (long)count * RECORD_SIZE
+                    || stringTableOffset + stringTableLength != buffer.limit()) {
+                throw new IOException("Corrupt binary file list: " + file);
+            }
+            this.stringTableOffset = (int)stringTableOffset;
+            this.replaced = new boolean[count];
+        }
+
+        private String getString(int offset, int length) {
+            byte[] b = new byte[length];
+            // Absolute bulk get is not available, use a duplicate to not
+            // change the position of the shared buffer
+            ByteBuffer d = buffer.duplicate();
+            d.position(stringTableOffset + offset);
+            d.get(b);
+            return new String(b, UTF8);
+        }
+
+        @Override
+        public FileRecord get(int index) {
+            if(index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+            }
+            if(replaced[index]) {
+                return replacements.get(index);
+            }
+            int r = HEADER_SIZE + index * RECORD_SIZE;
+            FileRecord fr = new FileRecord();
+            fr.setName(getString(buffer.getInt(r), buffer.getInt(r + 4)));
+            int hashOffset = buffer.getInt(r + 8);
+            if(hashOffset != -1) {
+                fr.setHash(getString(hashOffset, buffer.getShort(r + 12)));
+            }
+            fr.setType((char)buffer.get(r + 14));
+            fr.setSize(buffer.getLong(r + 16));
+            fr.setLastModified(buffer.getLong(r + 24));
+            return fr;
+        }
+
+        @Override
+        public FileRecord set(int index, FileRecord element) {
+            FileRecord previous = get(index);
+            if(element == null) {
+                replacements.remove(index);
+            } else {
+                replacements.put(index, element);
+            }
+            replaced[index] = true;
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.protocol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Decides whether a file is worth compressing, by its extension or if the
+ * extension is not known by compressing a sample of the start of the file.
+ */
+public class Compressibility {
+
+    /**
+     * Extensions of file formats which are already compressed.
+     */
+    static final Set<String> INCOMPRESSIBLE_EXTENSIONS = new HashSet(Arrays.asList(
+            "jpg", "jpeg", "jp2", "j2k", "ecw", "sid", "png", "gif", "webp",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "jar", "war",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp",
+            "mp3", "mp4", "m4a", "m4v", "aac", "ogg", "flac", "avi", "mkv", "mov", "webm",
+            "pbf", "laz"
+    ));
+
+    /**
+     * Extensions of file formats which compress well.
+     */
+    static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet(Arrays.asList(
+            "txt", "xml", "json", "geojson", "csv", "html", "htm", "css", "js",
+            "sql", "svg", "gml", "kml", "shp", "shx", "dbf", "prj", "qml", "sld",
+            "log", "properties"
+    ));
+
+    /**
+     * Files smaller than this are always compressed, storing them saves little
+     * and they benefit from the compression of the surrounding stream.
+     */
+    static final int MIN_PROBE_SIZE = 4096;
+
+    /**
+     * Number of bytes at the start of a file compressed to probe whether it is
+     * compressible.
+     */
+    static final int PROBE_SIZE = 32 * 1024;
+
+    /**
+     * A file is considered incompressible if the compressed sample is larger
+     * than this ratio of the sample.
+     */
+    static final double MAX_RATIO = 0.9;
+
+    private final Deflater probeDeflater = new Deflater(Deflater.BEST_SPEED, true);
+
+    private final byte[] sample = new byte[PROBE_SIZE];
+
+    private final byte[] probeOutput = new byte[PROBE_SIZE];
+
+    /**
+     * @return the lowercase extension of the filename or "other" if there is
+     * no short extension, used as the class of a file in statistics
+     */
+    public static String getFileClass(String name) {
+        int i = name.lastIndexOf('.');
+        if(i == -1 || i < name.lastIndexOf('/') || name.length() - i > 9) {
+            return "other";
+        }
+        return name.substring(i + 1).toLowerCase();
+    }
+
+    /**
+     * Decide whether a file should be compressed. Not thread-safe, the buffers
+     * for probing the file are reused.
+     */
+    public boolean isCompressible(File f, long length) {
+        String fileClass = getFileClass(f.getName());
+        if(INCOMPRESSIBLE_EXTENSIONS.contains(fileClass)) {
+            return false;
+        }
+        if(COMPRESSIBLE_EXTENSIONS.contains(fileClass) || length < MIN_PROBE_SIZE) {
+            return true;
+        }
+        try(InputStream in = new FileInputStream(f)) {
+            int read = IOUtils.read(in, sample);
+            return isCompressible(sample, read);
+        } catch(IOException e) {
+            // Compress by default, reading the file will probably fail too
+            return true;
+        }
+    }
+
+    boolean isCompressible(byte[] b, int length) {
+        probeDeflater.reset();
+        probeDeflater.setInput(b, 0, length);
+        probeDeflater.finish();
+        long maxCompressed = (long)(length * MAX_RATIO);
+        while(!probeDeflater.finished()) {
+            probeDeflater.deflate(probeOutput);
+            if(probeDeflater.getBytesWritten() > maxCompressed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Release the native resources of the probe.
+     */
+    public void end() {
+        probeDeflater.end();
+    }
+}
@@ -7,8 +7,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
 import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.util.CompressingOutputStream;
 import nl.opengeogroep.filesetsync.util.HttpUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -31,10 +39,116 @@ public class MultiFileEncoder implements Closeable, AutoCloseable {
 
     final Log log;
 
+    private final Deflater deflater;
+    private final int compressionLevel;
+    private final Compressibility compressibility;
+    private final Map<String,FileClassStatistics> fileClassStatistics = new HashMap();
+
+    /**
+     * Statistics of the compression of files with the same extension.
+     */
+    public static class FileClassStatistics {
+        private final String fileClass;
+        private int files;
+        private int storedFiles;
+        private long bytes;
+        private long compressedBytes;
+
+        FileClassStatistics(String fileClass) {
+            this.fileClass = fileClass;
+        }
+
+        public String getFileClass() {
+            return fileClass;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public int getStoredFiles() {
+            return storedFiles;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the compressed size, approximate because the deflater
+         * buffers output across files
+         */
+        public long getCompressedBytes() {
+            return compressedBytes;
+        }
+    }
+
     public MultiFileEncoder(OutputStream out, int version, Log log) {
+        this(out, version, log, null);
+    }
+
+    /**
+     * @param out the output stream
+     * @param version the protocol version
+     * @param log log to use
+     * @param compressing the compressing stream the output is written to, if
+     * not null files which are not compressible are written with compression
+     * disabled
+     */
+    public MultiFileEncoder(OutputStream out, int version, Log log, CompressingOutputStream compressing) {
         this.out = new DataOutputStream(out);
         this.version = version;
         this.log = log;
+        if(compressing != null) {
+            this.deflater = compressing.getDeflater();
+            this.compressionLevel = compressing.getLevel();
+            this.compressibility = new Compressibility();
+        } else {
+            this.deflater = null;
+            this.compressionLevel = Deflater.DEFAULT_COMPRESSION;
+            this.compressibility = null;
+        }
+    }
+
+    /**
+     * @return compression statistics per file class, the classes with the
+     * most bytes first
+     */
+    public List<FileClassStatistics> getFileClassStatistics() {
+        List<FileClassStatistics> l = new ArrayList(fileClassStatistics.values());
+        Collections.sort(l, new Comparator<FileClassStatistics>() {
+            @Override
+            public int compare(FileClassStatistics lhs, FileClassStatistics rhs) {
+                return Long.compare(rhs.bytes, lhs.bytes);
+            }
+        });
+        return l;
+    }
+
+    /**
+     * @return a summary of the compression ratio per file class for logging,
+     * for at most the given number of classes with the most bytes
+     */
+    public String getCompressionSummary(int maxClasses) {
+        StringBuilder sb = new StringBuilder();
+        for(FileClassStatistics s: getFileClassStatistics()) {
+            if(maxClasses-- == 0) {
+                break;
+            }
+            if(sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("%s: %d files %d KB", s.fileClass, s.files, s.bytes / 1024));
+            if(s.storedFiles == s.files) {
+                sb.append(" stored");
+            } else {
+                sb.append(String.format(" -> %d KB (%.0f%%%s)",
+                        s.compressedBytes / 1024,
+                        s.bytes == 0 ? 0.0 : 100.0 * s.compressedBytes / s.bytes,
+                        s.storedFiles == 0 ? "" : ", " + s.storedFiles + " stored"));
+            }
+        }
+        return sb.toString();
     }
 
     private void writeFileHeader(int status, String statusLine, String filename) throws IOException {
@@ -103,6 +217,18 @@ public class MultiFileEncoder implements Closeable, AutoCloseable {
                 // XXX input stream could have less or more bytes than length
                 // if file was changed after reading length, use chunked encoding
 
+                boolean compress = true;
+                long compressedStart = 0;
+                if(deflater != null) {
+                    compress = compressibility.isCompressible(f.getFile(), length);
+                    // Changing the level is cheap, the deflater may compress
+                    // the first write after the change with the previous level.
+                    // Do not flush: that would end a deflate block and send a
+                    // chunk of the response for every (small) file
+                    deflater.setLevel(compress ? compressionLevel : Deflater.NO_COMPRESSION);
+                    compressedStart = deflater.getBytesWritten();
+                }
+
                 try {
                     IOUtils.copy(fis, out);
                     fis.close();
@@ -112,6 +238,21 @@ public class MultiFileEncoder implements Closeable, AutoCloseable {
                     // can't recover and read next file without chuncked encoding
                     throw e;
                 }
+
+                if(deflater != null) {
+                    String fileClass = Compressibility.getFileClass(f.getName());
+                    FileClassStatistics s = fileClassStatistics.get(fileClass);
+                    if(s == null) {
+                        s = new FileClassStatistics(fileClass);
+                        fileClassStatistics.put(fileClass, s);
+                    }
+                    s.files++;
+                    s.bytes += length;
+                    s.compressedBytes += deflater.getBytesWritten() - compressedStart;
+                    if(!compress) {
+                        s.storedFiles++;
+                    }
+                }
             } else {
                 log.error("cannot encode file that is not a file or directory: " + f.getFile());
 
@@ -128,5 +269,8 @@ public class MultiFileEncoder implements Closeable, AutoCloseable {
         writeHttpHeader(HttpHeaders.CONTENT_LENGTH, "0");
         writeFileHeaderEnd();
         out.close();
+        if(compressibility != null) {
+            compressibility.end();
+        }
     }
 }
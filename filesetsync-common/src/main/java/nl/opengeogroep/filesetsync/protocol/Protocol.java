@@ -16,6 +16,7 @@ import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.util.PathPattern;
 import org.apache.commons.lang3.mutable.MutableInt;
 
 /**
@@ -70,13 +71,13 @@ public class Protocol {
         private String rootPath, subPath;
         private FileRecord next = null;
         private int records = 0;
-        private String regexp;
+        private PathPattern regexp;
         private MutableInt noRegexpMatches;
 
         public FileListIterator(InputStream in, String rootPath, String subPath, String regexp, MutableInt noRegexpMatches) throws IllegalArgumentException {
             this.rootPath = rootPath;
             this.subPath = subPath;
-            this.regexp = regexp;
+            this.regexp = PathPattern.compile(regexp);
             this.noRegexpMatches = noRegexpMatches == null ? new MutableInt() : noRegexpMatches;
             String line;
             try {
@@ -139,7 +140,7 @@ public class Protocol {
                 r.setHash("null".equals(s[4]) ? null : s[4]);
                 next = r;
 
-                if(regexp == null || r.getName().matches(regexp)) {
+                if(regexp == null || regexp.matches(r.getName())) {
                     return true;
                 } else {
                     noRegexpMatches.increment();
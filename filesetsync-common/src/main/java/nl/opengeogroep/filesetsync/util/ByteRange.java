@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.util;
+
+/**
+ * A single byte range requested with the HTTP Range header (RFC 7233), used
+ * to resume transferring a large file. Requests for multiple ranges are
+ * ignored, so the whole file is returned.
+ */
+public class ByteRange {
+    private final long start;
+    private final long end;
+    private final long length;
+
+    private ByteRange(long start, long end, long length) {
+        this.start = start;
+        this.end = end;
+        this.length = length;
+    }
+
+    /**
+     * Parse the Range header of a request for a file.
+     *
+     * @param range the Range header, may be null
+     * @param ifRange the If-Range header, may be null
+     * @param lastModified the Last-Modified header of the file: the range is
+     * only returned if the If-Range header is absent or equal to it
+     * @param length the length of the file
+     * @return the requested range, or null if the whole file should be
+     * returned because no range is requested, the Range header is invalid or
+     * not supported or the file was modified according to If-Range
+     */
+    public static ByteRange parse(String range, String ifRange, String lastModified, long length) {
+        if(range == null || !range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return null;
+        }
+        if(ifRange != null && !ifRange.equals(lastModified)) {
+            return null;
+        }
+        String[] s = range.substring(6).trim().split("-", 2);
+        if(s.length != 2) {
+            return null;
+        }
+        try {
+            if(!s[0].isEmpty()) {
+                long start = Long.parseLong(s[0]);
+                long end = length - 1;
+                if(!s[1].isEmpty()) {
+                    long last = Long.parseLong(s[1]);
+                    if(last < start) {
+                        // Syntactically invalid, the header is ignored
+                        return null;
+                    }
+                    end = Math.min(end, last);
+                }
+                return start < 0 ? null : new ByteRange(start, end, length);
+            } else if(!s[1].isEmpty()) {
+                // Suffix range: the last bytes of the file
+                long suffix = Long.parseLong(s[1]);
+                return suffix < 0 ? null : new ByteRange(Math.max(0, length - suffix), length - 1, length);
+            }
+        } catch(NumberFormatException e) {
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the range does not overlap the file, which should be
+     * answered with status 416 (Range Not Satisfiable)
+     */
+    public boolean isSatisfiable() {
+        return start < length && start <= end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the position of the last byte of the range, not beyond the end
+     * of the file
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the value of the Content-Range header for a partial response, or
+     * for a 416 response if the range is not satisfiable
+     */
+    public String getContentRange() {
+        if(!isSatisfiable()) {
+            return "bytes */" + length;
+        }
+        return String.format("bytes %d-%d/%d", start, end, length);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * GZIP output stream with a configurable compression level, which gives
+ * access to its deflater so the level can also be changed while writing.
+ */
+public class CompressingOutputStream extends GZIPOutputStream {
+    private final int level;
+
+    public CompressingOutputStream(OutputStream out) throws IOException {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param out the output stream
+     * @param level compression level, from Deflater.BEST_SPEED (1) to
+     * Deflater.BEST_COMPRESSION (9) or Deflater.DEFAULT_COMPRESSION (-1)
+     */
+    public CompressingOutputStream(OutputStream out, int level) throws IOException {
+        super(out);
+        this.level = level;
+        def.setLevel(level);
+    }
+
+    public Deflater getDeflater() {
+        return def;
+    }
+
+    /**
+     * @return the compression level the stream was created with
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Parse a compression level setting: a number from 1 (fastest) to 9
+     * (best compression), "fast", "best" or "default".
+     *
+     * @return the parsed level or the default level if the setting is null
+     * or invalid
+     */
+    public static int parseLevel(String s, int defaultLevel) {
+        if(s == null) {
+            return defaultLevel;
+        }
+        s = s.trim().toLowerCase();
+        switch(s) {
+            case "fast": return Deflater.BEST_SPEED;
+            case "best": return Deflater.BEST_COMPRESSION;
+            case "default": return Deflater.DEFAULT_COMPRESSION;
+        }
+        try {
+            int level = Integer.parseInt(s);
+            if(level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION) {
+                return level;
+            }
+        } catch(NumberFormatException e) {
+        }
+        return defaultLevel;
+    }
+}
@@ -30,13 +30,16 @@ public class FormatUtil {
     private static final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
 
     public static String dateToString(Date d) {
-        return format.format(d);
+        // SimpleDateFormat is not thread-safe
+        synchronized(format) {
+            return format.format(d);
+        }
     }
 
     public static long parseByteSize(String withSuffix) {
         String v = withSuffix.trim().toLowerCase();
         long factor = 1;
-        String n = "";
+        String n = v;
         if(v.endsWith("kb")) {
             factor = 1024;
             n = v.substring(0, v.length() - 2).trim();
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled regular expression for relative paths in a fileset, such as the
+ * regexp of a client fileset. Compiled once instead of for every path like
+ * String.matches() does. Thread-safe.
+ */
+public class PathPattern {
+    private final Pattern pattern;
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if the regexp is invalid
+     */
+    public PathPattern(String regexp) {
+        this.pattern = Pattern.compile(regexp);
+    }
+
+    /**
+     * @return the compiled pattern or null if the regexp is null
+     */
+    public static PathPattern compile(String regexp) {
+        return regexp == null ? null : new PathPattern(regexp);
+    }
+
+    /**
+     * @param path path relative to the fileset root, with '/' as separator
+     * @return whether the whole path matches
+     */
+    public boolean matches(String path) {
+        return pattern.matcher(path).matches();
+    }
+
+    /**
+     * Check whether any path below a directory can match, so a walk can skip
+     * directories of which no entry can match. If matching the directory path
+     * as prefix did not reach the end of the input, no longer path starting
+     * with the prefix can match either.
+     *
+     * @param dirPath directory path relative to the fileset root, "." for the
+     * root
+     * @return false if no path below the directory can match
+     */
+    public boolean canMatchBelow(String dirPath) {
+        if(".".equals(dirPath) || dirPath.isEmpty()) {
+            return true;
+        }
+        Matcher m = pattern.matcher(dirPath + "/");
+        return m.matches() || m.hitEnd();
+    }
+
+    @Override
+    public String toString() {
+        return pattern.pattern();
+    }
+}
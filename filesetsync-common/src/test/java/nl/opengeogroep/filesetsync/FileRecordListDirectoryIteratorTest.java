@@ -8,6 +8,7 @@ package nl.opengeogroep.filesetsync;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import nl.opengeogroep.filesetsync.protocol.Protocol;
 import org.apache.commons.io.IOUtils;
@@ -76,4 +77,33 @@ public class FileRecordListDirectoryIteratorTest {
 
         assertEquals(expOutputs[2], output);
     }
+
+    @org.junit.Test
+    public void testDeepTree() {
+        // Each directory contains a file and the next directory
+        int depth = 1000;
+        List<FileRecord> list = new ArrayList();
+        String name = ".";
+        for(int i = 0; i < depth; i++) {
+            FileRecord dir = new FileRecord();
+            dir.setType(FileRecord.TYPE_DIRECTORY);
+            dir.setName(name);
+            list.add(dir);
+            String prefix = i == 0 ? "" : name + "/";
+            FileRecord file = new FileRecord();
+            file.setType(FileRecord.TYPE_FILE);
+            file.setName(prefix + "file");
+            list.add(file);
+            name = prefix + "d" + i;
+        }
+
+        int count = 0;
+        for(List<FileRecord> dir: new FileRecordListDirectoryIterator(list)) {
+            assertSame(list.get(count * 2), dir.get(0));
+            assertEquals(count == depth - 1 ? 2 : 3, dir.size());
+            assertSame(list.get(count * 2 + 1), dir.get(1));
+            count++;
+        }
+        assertEquals(depth, count);
+    }
 }
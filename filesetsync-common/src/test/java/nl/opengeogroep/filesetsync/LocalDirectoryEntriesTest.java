@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import static nl.opengeogroep.filesetsync.FileRecord.TYPE_DIRECTORY;
+import static nl.opengeogroep.filesetsync.FileRecord.TYPE_FILE;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalDirectoryEntriesTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("localdirectoryentriestest", null);
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testTypes() throws IOException {
+        new File(dir, "file").createNewFile();
+        new File(dir, "dir").mkdir();
+        new File(dir, "file_is_dir").mkdir();
+        new File(dir, "dir_is_file").createNewFile();
+        new File(dir, "part.filesetsync-part").createNewFile();
+        new File(dir, "extra").createNewFile();
+
+        LocalDirectoryEntries entries = LocalDirectoryEntries.list(dir.toPath());
+        assertEquals(6, entries.getRemaining().size());
+        assertTrue(entries.keep("file", TYPE_FILE));
+        assertTrue(entries.keep("dir", TYPE_DIRECTORY));
+        assertFalse(entries.keep("file_is_dir", TYPE_FILE));
+        assertFalse(entries.keep("dir_is_file", TYPE_DIRECTORY));
+        assertFalse(entries.keep("missing", TYPE_FILE));
+        entries.keep("part.filesetsync-part");
+
+        Map<String,BasicFileAttributes> remaining = entries.getRemaining();
+        assertEquals(3, remaining.size());
+        assertTrue(remaining.get("file_is_dir").isDirectory());
+        assertFalse(remaining.get("dir_is_file").isDirectory());
+        assertTrue(remaining.containsKey("extra"));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void testMissing() throws IOException {
+        LocalDirectoryEntries.list(new File(dir, "missing").toPath());
+    }
+
+    @Test(expected = NotDirectoryException.class)
+    public void testNotDirectory() throws IOException {
+        File f = new File(dir, "file");
+        f.createNewFile();
+        LocalDirectoryEntries.list(f.toPath());
+    }
+
+    @Test
+    public void testListing10k() throws IOException {
+        int n = 10000;
+        for(int i = 0; i < n; i++) {
+            new File(dir, i + ".png").createNewFile();
+        }
+        LocalDirectoryEntries entries = LocalDirectoryEntries.list(dir.toPath());
+        assertEquals(n, entries.getRemaining().size());
+        // Keep all but every tenth file
+        for(int i = 0; i < n; i++) {
+            if(i % 10 != 0) {
+                assertTrue(entries.keep(i + ".png", TYPE_FILE));
+            }
+        }
+        assertEquals(n / 10, entries.getRemaining().size());
+    }
+
+    /**
+     * The difference must scale linearly: with the previous list based
+     * implementation one million entries took hours.
+     */
+    @Test(timeout = 30000)
+    public void testScaling() {
+        for(int n: new int[] {10000, 100000, 1000000}) {
+            Map<String,BasicFileAttributes> m = new LinkedHashMap();
+            for(int i = 0; i < n; i++) {
+                m.put(i + ".png", null);
+            }
+            LocalDirectoryEntries entries = new LocalDirectoryEntries(m);
+            // Keep in reverse order, worst case for a list
+            for(int i = n - 1; i >= 0; i--) {
+                if(i % 100 != 0) {
+                    entries.keep(i + ".png", TYPE_FILE);
+                }
+            }
+            assertEquals(n / 100, entries.getRemaining().size());
+        }
+    }
+}
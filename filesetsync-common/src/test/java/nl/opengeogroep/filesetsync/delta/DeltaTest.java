@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.delta;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaTest {
+
+    private static final int BLOCK_SIZE = Signature.MIN_BLOCK_SIZE;
+
+    private File basisFile;
+
+    private File outFile;
+
+    private byte[] basis;
+
+    @Before
+    public void setUp() throws IOException {
+        basisFile = File.createTempFile("deltatest", null);
+        outFile = File.createTempFile("deltatest", null);
+        // Not a multiple of the block size, the last block is shorter
+        basis = random(BLOCK_SIZE * 100 + 123, 1);
+        FileUtils.writeByteArrayToFile(basisFile, basis);
+    }
+
+    @After
+    public void tearDown() {
+        basisFile.delete();
+        outFile.delete();
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] b = new byte[length];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        for(byte[] part: parts) {
+            b.write(part, 0, part.length);
+        }
+        return b.toByteArray();
+    }
+
+    private long roundtrip(byte[] newFile) throws IOException {
+        return roundtrip(newFile, basis.length);
+    }
+
+    /**
+     * Encode the new file against the signature of the first bytes of the
+     * basis, decode it and check the result.
+     *
+     * @return the number of literal bytes
+     */
+    private long roundtrip(byte[] newFile, int signatureLength) throws IOException {
+        Signature signature = Signature.calculate(new ByteArrayInputStream(basis), signatureLength, BLOCK_SIZE);
+
+        // Signature serialization
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        signature.write(b);
+        signature = Signature.read(new ByteArrayInputStream(b.toByteArray()));
+
+        DeltaEncoder encoder = new DeltaEncoder(signature);
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        encoder.encode(new ByteArrayInputStream(newFile), delta);
+        assertEquals(newFile.length, encoder.getCopiedBytes() + encoder.getLiteralBytes());
+
+        DeltaDecoder decoder = new DeltaDecoder();
+        try(FileChannel basisChannel = FileChannel.open(basisFile.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            decoder.decode(new ByteArrayInputStream(delta.toByteArray()), basisChannel, signatureLength, out);
+        }
+        assertTrue(Arrays.equals(newFile, FileUtils.readFileToByteArray(outFile)));
+        assertEquals(encoder.getCopiedBytes(), decoder.getCopiedBytes());
+        assertEquals(encoder.getLiteralBytes(), decoder.getLiteralBytes());
+        return decoder.getLiteralBytes();
+    }
+
+    @Test
+    public void testRollingChecksum() {
+        byte[] b = random(1000, 2);
+        RollingChecksum c = new RollingChecksum();
+        c.reset(b, 0, 100);
+        for(int i = 1; i + 100 <= b.length; i++) {
+            c.roll(b[i - 1], b[i + 99]);
+            assertEquals(RollingChecksum.calculate(b, i, 100), c.getValue());
+        }
+    }
+
+    @Test
+    public void testIdentical() throws IOException {
+        assertEquals(0, roundtrip(basis));
+    }
+
+    @Test
+    public void testModified() throws IOException {
+        byte[] modified = basis.clone();
+        modified[BLOCK_SIZE * 10 + 5] ^= 1;
+        assertEquals(BLOCK_SIZE, roundtrip(modified));
+    }
+
+    @Test
+    public void testInsertedAndRemoved() throws IOException {
+        // Insert data not aligned to a block and remove a block, the other
+        // blocks are still found at the shifted offsets
+        byte[] inserted = random(1000, 3);
+        byte[] newFile = concat(
+                Arrays.copyOfRange(basis, 0, BLOCK_SIZE * 20 + 7),
+                inserted,
+                Arrays.copyOfRange(basis, BLOCK_SIZE * 20 + 7, BLOCK_SIZE * 50),
+                Arrays.copyOfRange(basis, BLOCK_SIZE * 51, basis.length));
+        long literal = roundtrip(newFile);
+        assertTrue("Literal bytes: " + literal, literal <= inserted.length + 2 * BLOCK_SIZE);
+    }
+
+    @Test
+    public void testAppendedAndTruncated() throws IOException {
+        assertTrue(roundtrip(concat(basis, random(5000, 4))) <= 5000 + BLOCK_SIZE);
+        assertTrue(roundtrip(Arrays.copyOfRange(basis, 0, BLOCK_SIZE * 30 + 10)) <= BLOCK_SIZE);
+    }
+
+    @Test
+    public void testBasisLongerThanSignature() throws IOException {
+        // The client only signs the part of a local file which is not longer
+        // than the new file, so the last signed block is shorter than the
+        // block in the basis file
+        int length = BLOCK_SIZE * 30 + 10;
+        byte[] newFile = concat(Arrays.copyOfRange(basis, 0, length - 100), random(100, 6));
+        assertTrue(roundtrip(newFile, length) <= BLOCK_SIZE + 10);
+        assertEquals(0, roundtrip(Arrays.copyOfRange(basis, 0, length), length));
+    }
+
+    @Test
+    public void testRepetitive() throws IOException {
+        // All blocks have the same checksums
+        basis = new byte[BLOCK_SIZE * 4000];
+        FileUtils.writeByteArrayToFile(basisFile, basis);
+        byte[] newFile = new byte[basis.length + 1000];
+        newFile[BLOCK_SIZE * 2000] = 1;
+        assertTrue(roundtrip(newFile) <= BLOCK_SIZE + 1000);
+    }
+
+    @Test
+    public void testUnrelatedAndEmpty() throws IOException {
+        byte[] unrelated = random(BLOCK_SIZE * 3 + 1, 5);
+        assertEquals(unrelated.length, roundtrip(unrelated));
+        assertEquals(0, roundtrip(new byte[0]));
+    }
+
+    @Test
+    public void testSignatureLargerThanTarget() throws IOException {
+        Signature signature = Signature.calculate(new ByteArrayInputStream(basis), basis.length, BLOCK_SIZE);
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        signature.write(b);
+
+        // Same number of blocks: the last block of the target may be shorter
+        assertEquals(101, Signature.read(new ByteArrayInputStream(b.toByteArray()), BLOCK_SIZE * 100 + 1).getBlockCount());
+        try {
+            Signature.read(new ByteArrayInputStream(b.toByteArray()), BLOCK_SIZE * 100);
+            fail("Signature with more blocks than the target file should be rejected");
+        } catch(IOException e) {
+        }
+    }
+}
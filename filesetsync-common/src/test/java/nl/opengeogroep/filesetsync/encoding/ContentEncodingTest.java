@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ContentEncodingTest {
+
+    private static final ContentEncoding GZIP = ContentEncoding.get(ContentEncoding.GZIP);
+    private static final ContentEncoding LZ4 = ContentEncoding.get(ContentEncoding.LZ4);
+
+    private static byte[] text() {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; sb.length() < 100 * 1024; i++) {
+            sb.append("dir/file").append(i).append(".xml|").append(1000 + i).append("|1431000000000\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    @Test
+    public void testNegotiate() {
+        List<ContentEncoding> preference = Arrays.asList(LZ4, GZIP);
+        assertNull(ContentEncoding.negotiate(null, preference));
+        assertNull(ContentEncoding.negotiate("identity", preference));
+        assertEquals(GZIP, ContentEncoding.negotiate("gzip,deflate", preference));
+        assertEquals(LZ4, ContentEncoding.negotiate("deflate, gzip, lz4, x-gzip, zstd", preference));
+        assertEquals(GZIP, ContentEncoding.negotiate("lz4;q=0, gzip;q=0.5", preference));
+        assertEquals(LZ4, ContentEncoding.negotiate("*", preference));
+        assertNull(ContentEncoding.negotiate("*;q=0", preference));
+    }
+
+    @Test
+    public void testParseList() {
+        assertEquals(Arrays.asList(LZ4, GZIP), ContentEncoding.parseList("lz4, unknown,GZIP,lz4"));
+        assertTrue(ContentEncoding.parseList(null).isEmpty());
+    }
+
+    @Test
+    public void testRoundtrip() throws IOException {
+        byte[] data = text();
+        for(ContentEncoding encoding: ContentEncoding.getAvailable()) {
+            for(String level: new String[] { "fast", "default", "best" }) {
+                ByteArrayOutputStream b = new ByteArrayOutputStream();
+                try(OutputStream out = encoding.compress(b, encoding.parseLevel(level))) {
+                    out.write(data);
+                }
+                assertTrue(encoding + " " + level, b.size() < data.length / 2);
+
+                try(InputStream in = encoding.decompress(new ByteArrayInputStream(b.toByteArray()))) {
+                    assertTrue(encoding + " " + level, Arrays.equals(data, IOUtils.toByteArray(in)));
+                }
+                try(InputStream in = ContentEncoding.decompressAny(new ByteArrayInputStream(b.toByteArray()))) {
+                    assertTrue(encoding + " " + level, Arrays.equals(data, IOUtils.toByteArray(in)));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecompressUnknown() throws IOException {
+        ContentEncoding.decompressAny(new ByteArrayInputStream(new byte[] { 1 }));
+    }
+}
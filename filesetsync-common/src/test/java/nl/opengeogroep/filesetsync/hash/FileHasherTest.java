@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.hash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileHasherTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("filehashertest", null);
+        byte[] b = new byte[1024 * 1024 + 123];
+        new Random(42).nextBytes(b);
+        FileUtils.writeByteArrayToFile(file, b);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSelectStrategy() {
+        assertEquals(FileHasher.Strategy.DIRECT, FileHasher.selectStrategy(0));
+        assertEquals(FileHasher.Strategy.DIRECT, FileHasher.selectStrategy(FileHasher.DIRECT_MAX_SIZE));
+        assertEquals(FileHasher.Strategy.STREAM, FileHasher.selectStrategy(FileHasher.DIRECT_MAX_SIZE + 1));
+    }
+
+    @Test
+    public void testStrategiesSameHash() throws IOException {
+        HashStatistics statistics = new HashStatistics();
+        for(String name: HashAlgorithm.getNames()) {
+            HashAlgorithm algorithm = HashAlgorithm.get(name);
+            String expected;
+            try(InputStream in = new FileInputStream(file)) {
+                expected = algorithm.hash(in);
+            }
+            for(FileHasher.Strategy strategy: FileHasher.Strategy.values()) {
+                // Small window so the file is mapped in multiple windows,
+                // the last one partial
+                assertEquals(name + " " + strategy, expected, FileHasher.hash(file, algorithm, strategy, 100 * 1024, statistics));
+            }
+        }
+        int algorithms = HashAlgorithm.getNames().size();
+        for(FileHasher.Strategy strategy: FileHasher.Strategy.values()) {
+            assertEquals(algorithms, statistics.getFiles(strategy));
+            assertEquals(algorithms * file.length(), statistics.getBytes(strategy));
+        }
+    }
+
+    @Test
+    public void testDirectSmallFiles() throws IOException {
+        for(int size: new int[] { 0, 1000, FileHasher.DIRECT_MAX_SIZE }) {
+            byte[] b = new byte[size];
+            new Random(size).nextBytes(b);
+            FileUtils.writeByteArrayToFile(file, b);
+            for(String name: HashAlgorithm.getNames()) {
+                HashAlgorithm algorithm = HashAlgorithm.get(name);
+                assertEquals(name + " " + size,
+                        FileHasher.hash(file, algorithm, FileHasher.Strategy.STREAM, FileHasher.MAPPED_WINDOW_SIZE, null),
+                        FileHasher.hash(file, algorithm, FileHasher.Strategy.DIRECT, FileHasher.MAPPED_WINDOW_SIZE, null));
+            }
+        }
+    }
+}
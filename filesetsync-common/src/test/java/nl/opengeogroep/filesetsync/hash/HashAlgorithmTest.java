@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.hash;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HashAlgorithmTest {
+
+    private static byte[] testData(int length) {
+        byte[] b = new byte[length];
+        for(int i = 0; i < length; i++) {
+            b[i] = (byte)(i % 251);
+        }
+        return b;
+    }
+
+    private static String hash(String algorithm, byte[] b) throws IOException {
+        return HashAlgorithm.get(algorithm).hash(new ByteArrayInputStream(b));
+    }
+
+    @Test
+    public void testKnownHashes() throws IOException {
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", hash(HashAlgorithm.MD5, "abc".getBytes("US-ASCII")));
+        assertEquals("352441c2", hash(HashAlgorithm.CRC32, "abc".getBytes("US-ASCII")));
+        assertEquals("ef46db3751d8e999", hash(HashAlgorithm.XXH64, new byte[0]));
+        assertEquals("44bc2cf5ad770999", hash(HashAlgorithm.XXH64, "abc".getBytes("US-ASCII")));
+        assertEquals("f306f04aa88b54d3", hash(HashAlgorithm.XXH64, testData(1000)));
+    }
+
+    @Test
+    public void testIncrementalUpdates() throws IOException {
+        byte[] b = testData(1000);
+        for(String name: HashAlgorithm.getNames()) {
+            String expected = hash(name, b);
+            for(int split: new int[] { 1, 7, 31, 32, 33, 100 }) {
+                HashAlgorithm.Hasher hasher = HashAlgorithm.get(name).newHasher();
+                for(int i = 0; i < b.length; i += split) {
+                    int len = Math.min(split, b.length - i);
+                    if(i % 2 == 0) {
+                        hasher.update(b, i, len);
+                    } else {
+                        ByteBuffer direct = ByteBuffer.allocateDirect(len);
+                        direct.put(b, i, len).flip();
+                        hasher.update(direct);
+                        assertFalse(direct.hasRemaining());
+                    }
+                }
+                assertEquals(name + " split " + split, expected, hasher.digest());
+            }
+        }
+    }
+
+    @Test
+    public void testNegotiate() {
+        assertEquals(HashAlgorithm.DEFAULT, HashAlgorithm.negotiate(null).getName());
+        assertEquals(HashAlgorithm.DEFAULT, HashAlgorithm.negotiate("unknown").getName());
+        assertEquals(HashAlgorithm.XXH64, HashAlgorithm.negotiate("unknown, XXH64,md5").getName());
+    }
+}
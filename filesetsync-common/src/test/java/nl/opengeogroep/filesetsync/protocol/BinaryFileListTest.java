@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import nl.opengeogroep.filesetsync.FileRecord;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryFileListTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("binaryfilelisttest", null);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static FileRecord record(char type, String name, long size, long lastModified, String hash) {
+        FileRecord fr = new FileRecord();
+        fr.setType(type);
+        fr.setName(name);
+        fr.setSize(size);
+        fr.setLastModified(lastModified);
+        fr.setHash(hash);
+        return fr;
+    }
+
+    private static List<FileRecord> testList() {
+        List<FileRecord> list = new ArrayList();
+        list.add(record(FileRecord.TYPE_DIRECTORY, ".", 0, 1400000000000L, null));
+        list.add(record(FileRecord.TYPE_FILE, "a.txt", 12, 1400000001000L, "d41d8cd98f00b204e9800998ecf8427e"));
+        list.add(record(FileRecord.TYPE_DIRECTORY, "sub\u00e9", 0, 1400000002000L, null));
+        list.add(record(FileRecord.TYPE_FILE, "sub\u00e9/\u65e5\u672c.dat", 5000000000L, 1400000003000L, ""));
+        return list;
+    }
+
+    private static void assertRecordEquals(FileRecord expected, FileRecord actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getSize(), actual.getSize());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(expected.getHash(), actual.getHash());
+    }
+
+    private void testRoundtrip(boolean map) throws IOException {
+        List<FileRecord> list = testList();
+        BinaryFileList.write(file.toPath(), list);
+        List<FileRecord> read = BinaryFileList.read(file.toPath(), map);
+        assertEquals(list.size(), read.size());
+        for(int i = 0; i < list.size(); i++) {
+            assertRecordEquals(list.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    public void testRoundtripMapped() throws IOException {
+        testRoundtrip(true);
+    }
+
+    @Test
+    public void testRoundtripHeap() throws IOException {
+        testRoundtrip(false);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        BinaryFileList.write(file.toPath(), Collections.<FileRecord>emptyList());
+        assertEquals(BinaryFileList.HEADER_SIZE, file.length());
+        assertTrue(BinaryFileList.read(file.toPath(), true).isEmpty());
+    }
+
+    @Test
+    public void testSet() throws IOException {
+        List<FileRecord> list = testList();
+        BinaryFileList.write(file.toPath(), list);
+        List<FileRecord> read = BinaryFileList.read(file.toPath(), true);
+
+        FileRecord previous = read.set(1, null);
+        assertRecordEquals(list.get(1), previous);
+        assertNull(read.get(1));
+
+        FileRecord replacement = record(FileRecord.TYPE_FILE, "b.txt", 1, 2, null);
+        read.set(3, replacement);
+        assertSame(replacement, read.get(3));
+        assertRecordEquals(list.get(2), read.get(2));
+
+        // The file is not modified
+        List<FileRecord> again = BinaryFileList.read(file.toPath(), false);
+        assertRecordEquals(list.get(1), again.get(1));
+        assertRecordEquals(list.get(3), again.get(3));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotBinaryFileList() throws IOException {
+        Files.write(file.toPath(), "f|a.txt|12|1400000001000|\n".getBytes("US-ASCII"));
+        BinaryFileList.read(file.toPath(), true);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.protocol.MultiFileEncoder.FileClassStatistics;
+import nl.opengeogroep.filesetsync.util.CompressingOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.LogFactory;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressibilityTest {
+
+    private File dir;
+
+    private byte[] random;
+
+    private byte[] text;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("compressibilitytest", null);
+        dir.delete();
+        dir.mkdir();
+
+        random = new byte[100 * 1024];
+        new Random(42).nextBytes(random);
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; sb.length() < 100 * 1024; i++) {
+            sb.append("<feature id=\"").append(i).append("\"><name>Feature ").append(i).append("</name></feature>\n");
+        }
+        text = sb.toString().getBytes("UTF-8");
+
+        FileUtils.writeByteArrayToFile(new File(dir, "random.bin"), random);
+        FileUtils.writeByteArrayToFile(new File(dir, "text.dat"), text);
+        FileUtils.writeByteArrayToFile(new File(dir, "text.jpg"), text);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testFileClass() {
+        assertEquals("jpg", Compressibility.getFileClass("dir/photo.JPG"));
+        assertEquals("other", Compressibility.getFileClass("dir.d/README"));
+        assertEquals("other", Compressibility.getFileClass("file.averylongextension"));
+    }
+
+    @Test
+    public void testIsCompressible() {
+        Compressibility c = new Compressibility();
+        try {
+            assertFalse(c.isCompressible(new File(dir, "random.bin"), random.length));
+            assertTrue(c.isCompressible(new File(dir, "text.dat"), text.length));
+            // Decided by the extension without probing
+            assertFalse(c.isCompressible(new File(dir, "text.jpg"), text.length));
+            // Small files are always compressed
+            assertTrue(c.isCompressible(new File(dir, "random.bin"), Compressibility.MIN_PROBE_SIZE - 1));
+        } finally {
+            c.end();
+        }
+    }
+
+    @Test
+    public void testEncodeStoredAndCompressed() throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        final int[] flushes = new int[1];
+        OutputStream flushCounter = new FilterOutputStream(b) {
+            @Override
+            public void flush() throws IOException {
+                flushes[0]++;
+                super.flush();
+            }
+        };
+        MultiFileEncoder encoder;
+        CompressingOutputStream compressing = new CompressingOutputStream(flushCounter);
+        try(MultiFileEncoder e = new MultiFileEncoder(compressing, 2, LogFactory.getLog(getClass()), compressing)) {
+            encoder = e;
+            e.write(new FileRecord(new File(dir, "random.bin"), "random.bin"));
+            e.write(new FileRecord(new File(dir, "text.dat"), "text.dat"));
+            // Switching the compression level must not flush the response
+            assertEquals(0, flushes[0]);
+        }
+
+        // Stored files still decode as a normal gzipped stream
+        MultiFileDecoder decoder = new MultiFileDecoder(new GZIPInputStream(new ByteArrayInputStream(b.toByteArray())), 2);
+        Iterator<MultiFileHeader> it = decoder.iterator();
+        MultiFileHeader header = it.next();
+        assertEquals("random.bin", header.getFilename());
+        assertTrue(Arrays.equals(random, IOUtils.toByteArray(header.getBody())));
+        header = it.next();
+        assertEquals("text.dat", header.getFilename());
+        assertTrue(Arrays.equals(text, IOUtils.toByteArray(header.getBody())));
+        assertFalse(it.hasNext());
+
+        List<FileClassStatistics> stats = encoder.getFileClassStatistics();
+        assertEquals(2, stats.size());
+        for(FileClassStatistics s: stats) {
+            assertEquals(1, s.getFiles());
+            if("bin".equals(s.getFileClass())) {
+                assertEquals(1, s.getStoredFiles());
+            } else {
+                assertEquals("dat", s.getFileClass());
+                assertEquals(0, s.getStoredFiles());
+                assertTrue(s.getCompressedBytes() < text.length / 2);
+            }
+        }
+    }
+}
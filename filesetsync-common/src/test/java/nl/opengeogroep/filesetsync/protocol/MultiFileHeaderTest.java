@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import nl.opengeogroep.filesetsync.FileRecord;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.LogFactory;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiFileHeaderTest {
+
+    private File source;
+
+    private File target;
+
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        source = File.createTempFile("multifileheadertest", null);
+        target = File.createTempFile("multifileheadertest", null);
+        // Larger than the write buffer, the last read partial
+        content = new byte[MultiFileHeader.WRITE_BUFFER_SIZE * 2 + 123];
+        new Random(42).nextBytes(content);
+        FileUtils.writeByteArrayToFile(source, content);
+        // Longer than the body, must be truncated
+        FileUtils.writeByteArrayToFile(target, new byte[content.length + 10]);
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        try(MultiFileEncoder encoder = new MultiFileEncoder(b, 2, LogFactory.getLog(getClass()))) {
+            encoder.write(new FileRecord(source, "a"));
+            encoder.write(new FileRecord(source, "b"));
+        }
+        return b.toByteArray();
+    }
+
+    private long writeBody(MultiFileHeader header) throws IOException {
+        try(FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return header.writeBody(channel);
+        }
+    }
+
+    @Test
+    public void testWriteBody() throws IOException {
+        try(MultiFileDecoder decoder = new MultiFileDecoder(new ByteArrayInputStream(encode()), 2)) {
+            Iterator<MultiFileHeader> it = decoder.iterator();
+            for(String name: new String[] {"a", "b"}) {
+                assertTrue(it.hasNext());
+                MultiFileHeader header = it.next();
+                assertEquals(name, header.getFilename());
+                assertEquals(content.length, writeBody(header));
+                assertTrue(name, Arrays.equals(content, FileUtils.readFileToByteArray(target)));
+            }
+            assertFalse(it.hasNext());
+            assertNull(decoder.getIOException());
+        }
+    }
+
+    @Test
+    public void testWriteBodyTruncated() throws IOException {
+        byte[] encoded = encode();
+        try(MultiFileDecoder decoder = new MultiFileDecoder(new ByteArrayInputStream(encoded, 0, encoded.length / 4), 2)) {
+            writeBody(decoder.next());
+            fail("Expected EOFException");
+        } catch(EOFException e) {
+        }
+    }
+}
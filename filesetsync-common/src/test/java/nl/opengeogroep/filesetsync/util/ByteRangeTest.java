@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nl.opengeogroep.filesetsync.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+    private static final String LAST_MODIFIED = "Tue, 13 May 2014 16:53:20 GMT";
+
+    private static ByteRange parse(String range) {
+        return ByteRange.parse(range, null, LAST_MODIFIED, 1000);
+    }
+
+    @Test
+    public void testRanges() {
+        ByteRange r = parse("bytes=100-");
+        assertTrue(r.isSatisfiable());
+        assertEquals(100, r.getStart());
+        assertEquals(999, r.getEnd());
+        assertEquals("bytes 100-999/1000", r.getContentRange());
+
+        r = parse("bytes=100-199");
+        assertEquals(100, r.getStart());
+        assertEquals(199, r.getEnd());
+
+        // End beyond the end of the file
+        r = parse("bytes=900-2000");
+        assertEquals(999, r.getEnd());
+
+        // Suffix range
+        r = parse("bytes=-100");
+        assertEquals(900, r.getStart());
+        assertEquals(999, r.getEnd());
+        assertEquals(0, parse("bytes=-2000").getStart());
+    }
+
+    @Test
+    public void testIgnored() {
+        assertNull(parse(null));
+        assertNull(parse("items=0-10"));
+        assertNull(parse("bytes=0-10,20-30"));
+        assertNull(parse("bytes=abc-"));
+        assertNull(parse("bytes=-"));
+        assertNull(parse("bytes=100"));
+        // Last byte before first byte is syntactically invalid, so the whole
+        // file is returned instead of status 416
+        assertNull(parse("bytes=200-100"));
+    }
+
+    @Test
+    public void testNotSatisfiable() {
+        ByteRange r = parse("bytes=1000-");
+        assertNotNull(r);
+        assertFalse(r.isSatisfiable());
+        assertEquals("bytes */1000", r.getContentRange());
+        assertFalse(parse("bytes=2000-3000").isSatisfiable());
+        assertFalse(parse("bytes=-0").isSatisfiable());
+        assertFalse(ByteRange.parse("bytes=0-", null, LAST_MODIFIED, 0).isSatisfiable());
+    }
+
+    @Test
+    public void testIfRange() {
+        assertNotNull(ByteRange.parse("bytes=100-", LAST_MODIFIED, LAST_MODIFIED, 1000));
+        // Modified: the whole file is returned
+        assertNull(ByteRange.parse("bytes=100-", "Tue, 13 May 2014 16:53:21 GMT", LAST_MODIFIED, 1000));
+        assertNull(ByteRange.parse("bytes=100-", "\"etag\"", LAST_MODIFIED, 1000));
+    }
+}
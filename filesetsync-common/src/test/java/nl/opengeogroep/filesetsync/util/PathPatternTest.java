@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PathPatternTest {
+
+    @Test
+    public void testMatches() {
+        PathPattern p = new PathPattern("tiles/[0-9]+/.*\\.png");
+        assertTrue(p.matches("tiles/12/a.png"));
+        assertFalse(p.matches("tiles/12/a.png.bak"));
+        assertFalse(p.matches("other/12/a.png"));
+        assertNull(PathPattern.compile(null));
+    }
+
+    @Test
+    public void testCanMatchBelow() {
+        PathPattern p = new PathPattern("tiles/[0-9]+/.*\\.png");
+        assertTrue(p.canMatchBelow("."));
+        assertTrue(p.canMatchBelow("tiles"));
+        assertTrue(p.canMatchBelow("tiles/12"));
+        assertTrue(p.canMatchBelow("tiles/12/sub"));
+        assertFalse(p.canMatchBelow("other"));
+        assertFalse(p.canMatchBelow("tiles/abc"));
+        assertFalse(p.canMatchBelow("tilesx"));
+
+        // Anything can match below any directory
+        p = new PathPattern(".*\\.png");
+        assertTrue(p.canMatchBelow("any/dir"));
+
+        // Only the directory itself matches
+        p = new PathPattern("data");
+        assertTrue(p.matches("data"));
+        assertFalse(p.canMatchBelow("data"));
+
+        p = new PathPattern("(data|docs)/.*");
+        assertTrue(p.canMatchBelow("docs"));
+        assertFalse(p.canMatchBelow("doc"));
+    }
+}
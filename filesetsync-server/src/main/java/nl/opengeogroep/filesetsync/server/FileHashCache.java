@@ -25,6 +25,8 @@ import net.sf.ehcache.config.PersistenceConfiguration;
 import net.sf.ehcache.config.PersistenceConfiguration.Strategy;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
 import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import nl.opengeogroep.filesetsync.hash.HashStatistics;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.lang3.mutable.MutableLong;
 import org.apache.commons.lang3.time.DurationFormatUtils;
@@ -183,16 +185,26 @@ public class FileHashCache implements ServletContextListener {
         }
     }
 
-    public static String getCachedFileHash(ServerFileset fileset, File f, long fileLastModified, MutableLong hashBytesAccumulator, MutableLong hashTimeMillisAccumulator) throws IOException {
+    /**
+     * Key for the cache entry of a file. Hashes using other algorithms than
+     * MD5 are stored with the algorithm name appended, so caches persisted by
+     * older versions can still be used and clients using different algorithms
+     * do not overwrite each other's entries.
+     */
+    private static String getCacheKey(String canonicalPath, HashAlgorithm algorithm) {
+        return HashAlgorithm.MD5.equals(algorithm.getName()) ? canonicalPath : canonicalPath + "#" + algorithm.getName();
+    }
+
+    public static String getCachedFileHash(ServerFileset fileset, HashAlgorithm algorithm, File f, long fileLastModified, MutableLong hashBytesAccumulator, MutableLong hashTimeMillisAccumulator, HashStatistics hashStatistics) throws IOException {
         Cache cache = caches.get(fileset.getName());
         if(cache == null) {
             // fileset is one file or something went wrong during initialization...
-            String hash = FileRecord.calculateHash(f, hashTimeMillisAccumulator);
+            String hash = FileRecord.calculateHash(f, algorithm, hashTimeMillisAccumulator, hashStatistics);
             hashBytesAccumulator.add(f.length());
             return hash;
         }
-        String canonicalPath = f.getCanonicalPath();
-        Element e = cache.get(canonicalPath);
+        String key = getCacheKey(f.getCanonicalPath(), algorithm);
+        Element e = cache.get(key);
         String hash = null;
         if(e != null) {
             String[] parts = ((String)e.getObjectValue()).split(",", 2);
@@ -202,10 +214,10 @@ public class FileHashCache implements ServletContextListener {
             }
         }
         if(hash == null) {
-            hash = FileRecord.calculateHash(f, hashTimeMillisAccumulator);
+            hash = FileRecord.calculateHash(f, algorithm, hashTimeMillisAccumulator, hashStatistics);
             hashBytesAccumulator.add(f.length());
-            cache.put(new Element(canonicalPath, fileLastModified + "," + hash));
+            cache.put(new Element(key, fileLastModified + "," + hash));
         }
         return hash;
     }
-}
\ No newline at end of file
+}
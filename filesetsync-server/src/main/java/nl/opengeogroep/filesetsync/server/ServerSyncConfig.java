@@ -20,10 +20,12 @@ package nl.opengeogroep.filesetsync.server;
 import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import nl.opengeogroep.filesetsync.encoding.ContentEncoding;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -38,6 +40,12 @@ public class ServerSyncConfig implements ServletContextListener {
 
     private final Map<String,ServerFileset> filesets = new HashMap();
 
+    private List<ContentEncoding> encodings = ContentEncoding.parseList(ContentEncoding.DEFAULT_PREFERENCE);
+
+    private final Map<ContentEncoding,Integer> levels = new HashMap();
+
+    private final Map<ContentEncoding,Integer> listLevels = new HashMap();
+
     public static ServerSyncConfig getInstance() {
         return instance;
     }
@@ -91,12 +99,51 @@ public class ServerSyncConfig implements ServletContextListener {
         return Collections.unmodifiableSet(filesets.keySet());
     }
 
+    /**
+     * Choose the encoding for a response using the configured order of
+     * preference.
+     *
+     * @return the encoding or null if the response should not be compressed
+     */
+    public ContentEncoding negotiateEncoding(String acceptEncoding) {
+        return ContentEncoding.negotiate(acceptEncoding, encodings);
+    }
+
+    /**
+     * @return the compression level for streaming files with the encoding
+     */
+    public int getCompressionLevel(ContentEncoding encoding) {
+        Integer level = levels.get(encoding);
+        return level == null ? encoding.getDefaultLevel() : level;
+    }
+
+    /**
+     * @return the compression level for file lists with the encoding
+     */
+    public int getListCompressionLevel(ContentEncoding encoding) {
+        Integer level = listLevels.get(encoding);
+        return level == null ? encoding.getDefaultLevel() : level;
+    }
+
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         load(sce.getServletContext().getInitParameter("filesets"),
                 sce.getServletContext().getInitParameter("filesets_listings"),
                 sce.getServletContext().getInitParameter("filesets_maxserverload")
         );
+        String encodings = sce.getServletContext().getInitParameter("compression_encodings");
+        if(encodings != null) {
+            instance.encodings = ContentEncoding.parseList(encodings);
+        }
+        log.info("Compression encodings in order of preference: " + instance.encodings);
+        ContentEncoding gzip = ContentEncoding.getDefault();
+        instance.levels.put(gzip, gzip.parseLevel(sce.getServletContext().getInitParameter("compression_level")));
+        instance.listLevels.put(gzip, gzip.parseLevel(sce.getServletContext().getInitParameter("compression_level_list")));
+        ContentEncoding zstd = ContentEncoding.get(ContentEncoding.ZSTD);
+        if(zstd != null) {
+            instance.levels.put(zstd, zstd.parseLevel(sce.getServletContext().getInitParameter("compression_level_zstd")));
+            instance.listLevels.put(zstd, zstd.parseLevel(sce.getServletContext().getInitParameter("compression_level_zstd_list")));
+        }
     }
 
     @Override
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 B3Partners B.V.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package nl.opengeogroep.filesetsync.server.stripes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.http.HttpServletResponse;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.action.StreamingResolution;
+import net.sourceforge.stripes.action.StrictBinding;
+import net.sourceforge.stripes.action.UrlBinding;
+import net.sourceforge.stripes.validation.ValidationErrors;
+import nl.b3p.web.stripes.ErrorMessageResolution;
+import nl.opengeogroep.filesetsync.delta.DeltaEncoder;
+import nl.opengeogroep.filesetsync.delta.Signature;
+import nl.opengeogroep.filesetsync.encoding.ContentEncoding;
+import nl.opengeogroep.filesetsync.server.ServerSyncConfig;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHeaders;
+
+/**
+ * Returns a single file as a delta against the block signature of the version
+ * of the file the client has, posted as the request body.
+ */
+@StrictBinding
+@UrlBinding("/fileset/delta/{filesetPath}")
+public class FilesetDeltaActionBean extends FilesetBaseActionBean {
+    private static final Log log = LogFactory.getLog("api.delta");
+
+    @Override
+    protected final String getLogName() {
+        return "api.delta";
+    }
+
+    @Override
+    public Resolution handleValidationErrors(ValidationErrors errors) throws Exception {
+        // The fileset or file may not exist but the endpoint does
+        getContext().getResponse().setHeader(DeltaEncoder.HTTP_HEADER, "1");
+        return super.handleValidationErrors(errors);
+    }
+
+    public Resolution delta() throws Exception {
+        getContext().getResponse().setHeader(DeltaEncoder.HTTP_HEADER, "1");
+
+        final String logPrefix = getFilesetName() + (getSubPath().length() != 0 ? getSubPath() : "") + " delta:";
+
+        final File f = new File(getLocalSubPath());
+        if(!f.isFile() || !f.canRead()) {
+            return new ErrorMessageResolution(HttpServletResponse.SC_NOT_FOUND, "Error: path is not a readable file");
+        }
+        if(!Signature.MIME_TYPE.equals(getContext().getRequest().getContentType())) {
+            return new ErrorMessageResolution(HttpServletResponse.SC_BAD_REQUEST, "Error: expected signature content type " + Signature.MIME_TYPE);
+        }
+
+        InputStream in = getContext().getRequest().getInputStream();
+        if("gzip".equals(getContext().getRequest().getHeader(HttpHeaders.CONTENT_ENCODING))) {
+            in = new GZIPInputStream(in);
+        }
+        final Signature signature;
+        try {
+            signature = Signature.read(in, f.length());
+        } catch(IOException e) {
+            log.warn(logPrefix + " invalid signature: " + e.getMessage());
+            return new ErrorMessageResolution(HttpServletResponse.SC_BAD_REQUEST, "Error: invalid signature: " + e.getMessage());
+        }
+
+        return new StreamingResolution(DeltaEncoder.MIME_TYPE) {
+            @Override
+            public void stream(HttpServletResponse response) throws IOException {
+                String acceptEncoding = getContext().getRequest().getHeader("Accept-Encoding");
+
+                ContentEncoding encoding = ServerSyncConfig.getInstance().negotiateEncoding(acceptEncoding);
+                CountingOutputStream compressedCounter = new CountingOutputStream(response.getOutputStream());
+                CountingOutputStream uncompressedCounter;
+                if(encoding != null) {
+                    response.setHeader("Content-Encoding", encoding.getName());
+                    uncompressedCounter = new CountingOutputStream(encoding.compress(compressedCounter, ServerSyncConfig.getInstance().getCompressionLevel(encoding)));
+                } else {
+                    uncompressedCounter = compressedCounter;
+                }
+
+                DeltaEncoder encoder = new DeltaEncoder(signature);
+                long startTime = System.currentTimeMillis();
+                try(InputStream fis = new FileInputStream(f)) {
+                    encoder.encode(fis, uncompressedCounter);
+                } finally {
+                    IOUtils.closeQuietly(uncompressedCounter);
+
+                    long duration = System.currentTimeMillis() - startTime;
+                    log.info(String.format("%s file %d KB, client has %d KB in %d blocks of %d bytes, %d KB copied from client and %d KB literal, streamed %d KB in %s",
+                            logPrefix,
+                            f.length() / 1024,
+                            signature.getLength() / 1024,
+                            signature.getBlockCount(),
+                            signature.getBlockSize(),
+                            encoder.getCopiedBytes() / 1024,
+                            encoder.getLiteralBytes() / 1024,
+                            compressedCounter.getByteCount() / 1024,
+                            DurationFormatUtils.formatDurationWords(duration, true, false)));
+                }
+            }
+        };
+    }
+}
@@ -21,9 +21,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import net.sourceforge.stripes.action.Resolution;
 import net.sourceforge.stripes.action.StreamingResolution;
@@ -31,11 +32,16 @@ import net.sourceforge.stripes.action.StrictBinding;
 import net.sourceforge.stripes.action.UrlBinding;
 import nl.b3p.web.stripes.ErrorMessageResolution;
 import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.encoding.ContentEncoding;
 import nl.opengeogroep.filesetsync.protocol.MultiFileEncoder;
 import static nl.opengeogroep.filesetsync.protocol.MultiFileEncoder.MULTIFILE_MIME_TYPE;
 import nl.opengeogroep.filesetsync.protocol.Protocol;
 import static nl.opengeogroep.filesetsync.protocol.Protocol.FILELIST_MIME_TYPE;
 import static nl.opengeogroep.filesetsync.protocol.Protocol.FILELIST_V2_MIME_TYPE;
+import nl.opengeogroep.filesetsync.server.ServerSyncConfig;
+import nl.opengeogroep.filesetsync.util.ByteRange;
+import nl.opengeogroep.filesetsync.util.CompressingOutputStream;
+import nl.opengeogroep.filesetsync.util.HttpUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.mutable.MutableInt;
@@ -109,13 +115,7 @@ public class FilesetGetActionBean extends FilesetBaseActionBean {
             // check if path is single file
             final File f = new File(getLocalSubPath());
             if(f.isFile()) {
-                return new StreamingResolution("application/octet-stream", new FileInputStream(f)) {
-                    @Override
-                    protected void applyHeaders(HttpServletResponse response) {
-                        super.applyHeaders(response);
-                        response.setContentLength((int)f.length());
-                    }
-                };
+                return new SingleFileStreamingResolution(logPrefix, f);
             } else if(!f.isDirectory()) {
                 return new ErrorMessageResolution("Error: path is not a file or directory");
             }
@@ -127,6 +127,56 @@ public class FilesetGetActionBean extends FilesetBaseActionBean {
         return new MultiFileStreamingResolution(logPrefix, filesToStream, version);
     }
 
+    /**
+     * Streams a single file. Supports a request for a single byte range, so
+     * clients can resume transferring a large file. With an If-Range header
+     * the range is only returned if the file is not modified, otherwise the
+     * whole file is returned. See {@link ByteRange}.
+     */
+    private class SingleFileStreamingResolution extends StreamingResolution {
+        private final String logPrefix;
+        private final File file;
+
+        public SingleFileStreamingResolution(String logPrefix, File file) {
+            super("application/octet-stream");
+            this.logPrefix = logPrefix;
+            this.file = file;
+        }
+
+        @Override
+        public void stream(HttpServletResponse response) throws IOException {
+            long length = file.length();
+            String lastModified = new HttpUtil().formatDate(new Date(file.lastModified()));
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+            long start = 0;
+            long end = length - 1;
+            ByteRange range = ByteRange.parse(getContext().getRequest().getHeader(HttpHeaders.RANGE),
+                    getContext().getRequest().getHeader(HttpHeaders.IF_RANGE),
+                    lastModified,
+                    length);
+            if(range != null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, range.getContentRange());
+                if(!range.isSatisfiable()) {
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                start = range.getStart();
+                end = range.getEnd();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                log.info(String.format("%s streaming range %d-%d of %d KB", logPrefix, start, end, length / 1024));
+            }
+
+            long count = end - start + 1;
+            // Do not use setContentLength(int) for files larger than 2 GB
+            response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(count));
+            try(InputStream in = new FileInputStream(file)) {
+                IOUtils.copyLarge(in, response.getOutputStream(), start, count);
+            }
+        }
+    }
+
     private class MultiFileStreamingResolution extends StreamingResolution {
         private final Iterable<FileRecord> fileRecords;
         private final String logPrefix;
@@ -143,18 +193,27 @@ public class FilesetGetActionBean extends FilesetBaseActionBean {
         public void stream(HttpServletResponse response) throws IOException {
             String acceptEncoding = getContext().getRequest().getHeader("Accept-Encoding");
 
+            ContentEncoding encoding = ServerSyncConfig.getInstance().negotiateEncoding(acceptEncoding);
             CountingOutputStream compressedCounter;
             CountingOutputStream uncompressedCounter;
-            if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
-                response.setHeader("Content-Encoding", "gzip");
+            CompressingOutputStream compressing = null;
+            if(encoding != null) {
+                response.setHeader("Content-Encoding", encoding.getName());
                 compressedCounter = new CountingOutputStream(response.getOutputStream());
-                uncompressedCounter = new CountingOutputStream(new GZIPOutputStream(compressedCounter));
+                OutputStream compressed = encoding.compress(compressedCounter, ServerSyncConfig.getInstance().getCompressionLevel(encoding));
+                if(compressed instanceof CompressingOutputStream) {
+                    compressing = (CompressingOutputStream)compressed;
+                }
+                uncompressedCounter = new CountingOutputStream(compressed);
             } else {
                 compressedCounter = new CountingOutputStream(response.getOutputStream());
                 uncompressedCounter = compressedCounter;
             }
 
-            final MultiFileEncoder streamer = new MultiFileEncoder(uncompressedCounter, version, log);
+            // With gzip already compressed files such as images and archives
+            // are written with compression disabled. Zstandard and LZ4 detect
+            // incompressible data themselves
+            final MultiFileEncoder streamer = new MultiFileEncoder(uncompressedCounter, version, log, compressing);
 
             long startTime = System.currentTimeMillis();
             try {
@@ -180,14 +239,18 @@ public class FilesetGetActionBean extends FilesetBaseActionBean {
                 long compressedBytes = compressedCounter.getByteCount();
                 long uncompressedBytes = uncompressedCounter.getByteCount();
                 long duration = System.currentTimeMillis() - startTime;
-                log.info(String.format("%s streamed %d KB (uncompressed %d KB, ratio %.1f%%) in %s%s",
+                log.info(String.format("%s streamed %d KB (uncompressed %d KB, %s ratio %.1f%%) in %s%s",
                         logPrefix,
                         compressedBytes / 1024,
                         uncompressedBytes / 1024,
+                        encoding == null ? "identity" : encoding.getName(),
                         Math.abs(100-(100.0/uncompressedBytes*compressedBytes)),
                         DurationFormatUtils.formatDurationWords(duration, true, false),
                         (duration < 100 ? "" : ", " + Math.round(compressedBytes / 1024.0 / (duration / 1000.0)) + " KB/s")
                 ));
+                if(compressing != null) {
+                    log.info(logPrefix + " compression per file type: " + streamer.getCompressionSummary(10));
+                }
             }
         }
     }
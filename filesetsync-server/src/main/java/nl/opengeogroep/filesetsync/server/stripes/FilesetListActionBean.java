@@ -26,7 +26,6 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.stream.StreamSupport;
-import java.util.zip.GZIPOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import net.sourceforge.stripes.action.ErrorResolution;
 import net.sourceforge.stripes.action.Resolution;
@@ -35,6 +34,9 @@ import net.sourceforge.stripes.action.StrictBinding;
 import net.sourceforge.stripes.action.UrlBinding;
 import net.sourceforge.stripes.validation.Validate;
 import nl.opengeogroep.filesetsync.FileRecord;
+import nl.opengeogroep.filesetsync.encoding.ContentEncoding;
+import nl.opengeogroep.filesetsync.hash.HashAlgorithm;
+import nl.opengeogroep.filesetsync.hash.HashStatistics;
 import static nl.opengeogroep.filesetsync.FileRecord.TYPE_DIRECTORY;
 import static nl.opengeogroep.filesetsync.FileRecord.TYPE_FILE;
 import nl.opengeogroep.filesetsync.protocol.BufferedFileListEncoder;
@@ -42,6 +44,7 @@ import nl.opengeogroep.filesetsync.protocol.Protocol;
 import static nl.opengeogroep.filesetsync.protocol.Protocol.FILELIST_ENCODING;
 import nl.opengeogroep.filesetsync.server.FileHashCache;
 import nl.opengeogroep.filesetsync.server.ServerFileset;
+import nl.opengeogroep.filesetsync.server.ServerSyncConfig;
 import static nl.opengeogroep.filesetsync.util.FormatUtil.dateToString;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -67,6 +70,13 @@ public class FilesetListActionBean extends FilesetBaseActionBean {
     @Validate
     private String regexp;
 
+    /**
+     * Comma separated hash algorithms accepted by the client in order of
+     * preference, MD5 if not specified.
+     */
+    @Validate
+    private String hashAlgorithms;
+
     private String logPrefix;
 
     @Override
@@ -90,6 +100,14 @@ public class FilesetListActionBean extends FilesetBaseActionBean {
         this.regexp = regexp;
     }
 
+    public String getHashAlgorithms() {
+        return hashAlgorithms;
+    }
+
+    public void setHashAlgorithms(String hashAlgorithms) {
+        this.hashAlgorithms = hashAlgorithms;
+    }
+
     private class FilesetListingResolution extends StreamingResolution {
 
         private final ServerFileset fileset;
@@ -111,12 +129,18 @@ public class FilesetListActionBean extends FilesetBaseActionBean {
         public void stream(HttpServletResponse response) throws IOException  {
             response.setCharacterEncoding(FILELIST_ENCODING);
 
+            HashAlgorithm hashAlgorithm = HashAlgorithm.negotiate(hashAlgorithms);
+            if(hash) {
+                response.setHeader(HashAlgorithm.HEADER, hashAlgorithm.getName());
+            }
+
             String acceptEncoding = getContext().getRequest().getHeader("Accept-Encoding");
 
+            ContentEncoding encoding = ServerSyncConfig.getInstance().negotiateEncoding(acceptEncoding);
             OutputStream out;
-            if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
-                response.setHeader("Content-Encoding", "gzip");
-                out = new GZIPOutputStream(response.getOutputStream());
+            if(encoding != null) {
+                response.setHeader("Content-Encoding", encoding.getName());
+                out = encoding.compress(response.getOutputStream(), ServerSyncConfig.getInstance().getListCompressionLevel(encoding));
             } else {
                 out = response.getOutputStream();
             }
@@ -126,6 +150,7 @@ public class FilesetListActionBean extends FilesetBaseActionBean {
             String cacheDir = new File(FileHashCache.getCacheDir(fileset.getName())).getCanonicalPath();
             MutableLong hashBytes = new MutableLong();
             MutableLong hashTime = new MutableLong();
+            HashStatistics hashStatistics = new HashStatistics();
             int hashErrors = 0;
             try {
                 boolean hashLogMsg = false;
@@ -141,7 +166,7 @@ public class FilesetListActionBean extends FilesetBaseActionBean {
                                     //log.trace("start hashing");
                                     hashLogMsg = true;
                                 }
-                                fr.setHash(FileHashCache.getCachedFileHash(fileset, fr.getFile(), fr.getLastModified(), hashBytes, hashTime));
+                                fr.setHash(FileHashCache.getCachedFileHash(fileset, hashAlgorithm, fr.getFile(), fr.getLastModified(), hashBytes, hashTime, hashStatistics));
                             }
                             files++;
                             totalBytes += fr.getSize();
@@ -173,11 +198,13 @@ public class FilesetListActionBean extends FilesetBaseActionBean {
 
                 String hashInfo;
                 if(hash) {
-                    hashInfo = String.format(", hashed %d KB (cache hit rate %.1f%%), hash time %s, hash speed %s",
+                    hashInfo = String.format(", hashed %d KB using %s (cache hit rate %.1f%%), hash time %s, hash speed %s (%s)",
                             hashBytes.getValue() / 1024,
+                            hashAlgorithm.getName(),
                             Math.abs(100-(100.0/totalBytes*hashBytes.getValue())),
                             DurationFormatUtils.formatDurationWords(hashTime.getValue(), true, false),
-                            (hashTime.getValue() < 100 ? "n/a" : Math.round(hashBytes.getValue() / 1024.0 / (hashTime.getValue() / 1000.0)) + " KB/s")
+                            (hashTime.getValue() < 100 ? "n/a" : Math.round(hashBytes.getValue() / 1024.0 / (hashTime.getValue() / 1000.0)) + " KB/s"),
+                            hashStatistics
                     );
                 } else {
                     hashInfo = " (no hashing)";